@@ -0,0 +1,110 @@
+package com.ratta.supernote.pluginlib.bean;
+
+import android.graphics.RectF;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+import com.ratta.supernote.pluginlib.constant.paramkey.RectKey;
+import com.ratta.supernote.pluginlib.constant.paramkey.TrailKey;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Filter and projection of an element query, applied to trails before any map is built.
+ * Every part is optional: types and layers are whitelists, rect keeps the elements whose bounds
+ * intersect it, and fields names the top-level element keys to return (uuid is always returned).
+ */
+public class ElementQuery {
+
+    public static final String KEY_TYPES = "types";
+    public static final String KEY_LAYERS = "layers";
+    public static final String KEY_RECT = "rect";
+    public static final String KEY_FIELDS = "fields";
+
+    private Set<Integer> types;
+    private Set<Integer> layers;
+    private RectF rect;
+    private Set<String> fields;
+
+    /**
+     * Parses a query map.
+     * @param queryMap {types?: number[], layers?: number[], rect?: {left, top, right, bottom}, fields?: string[]}
+     * @return The query, or null if the map is malformed
+     */
+    public static ElementQuery fromMap(ReadableMap queryMap) {
+        ElementQuery query = new ElementQuery();
+        try {
+            if (queryMap.hasKey(KEY_TYPES) && !queryMap.isNull(KEY_TYPES)) {
+                query.types = readIntSet(queryMap.getArray(KEY_TYPES));
+            }
+            if (queryMap.hasKey(KEY_LAYERS) && !queryMap.isNull(KEY_LAYERS)) {
+                query.layers = readIntSet(queryMap.getArray(KEY_LAYERS));
+            }
+            if (queryMap.hasKey(KEY_RECT) && !queryMap.isNull(KEY_RECT)) {
+                ReadableMap rectMap = queryMap.getMap(KEY_RECT);
+                float left = (float) rectMap.getDouble(RectKey.LEFT);
+                float top = (float) rectMap.getDouble(RectKey.TOP);
+                float right = (float) rectMap.getDouble(RectKey.RIGHT);
+                float bottom = (float) rectMap.getDouble(RectKey.BOTTOM);
+                query.rect = new RectF(Math.min(left, right), Math.min(top, bottom),
+                    Math.max(left, right), Math.max(top, bottom));
+            }
+            if (queryMap.hasKey(KEY_FIELDS) && !queryMap.isNull(KEY_FIELDS)) {
+                ReadableArray fieldArray = queryMap.getArray(KEY_FIELDS);
+                query.fields = new HashSet<>();
+                query.fields.add(TrailKey.UUID);
+                for (int i = 0; i < fieldArray.size(); i++) {
+                    query.fields.add(fieldArray.getString(i));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Missing keys or wrong value types
+            return null;
+        }
+        return query;
+    }
+
+    private static Set<Integer> readIntSet(ReadableArray array) {
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < array.size(); i++) {
+            set.add(array.getInt(i));
+        }
+        return set;
+    }
+
+    /**
+     * Type and layer filter, which needs no geometry.
+     */
+    public boolean matches(Trail trail) {
+        return (types == null || types.contains(trail.getType()))
+            && (layers == null || layers.contains(trail.getLayerNum()));
+    }
+
+    /**
+     * Whether element bounds are needed, for the rect filter or the bbox field.
+     */
+    public boolean needsBounds() {
+        return rect != null || (fields != null && fields.contains(TrailKey.BBOX));
+    }
+
+    /**
+     * Rect filter.
+     * @param bounds Element bounds in page pixel coordinates, null if the element has no position data
+     */
+    public boolean matchesBounds(RectF bounds) {
+        if (rect == null) {
+            return true;
+        }
+        return bounds != null && bounds.left <= rect.right && rect.left <= bounds.right
+            && bounds.top <= rect.bottom && rect.top <= bounds.bottom;
+    }
+
+    /**
+     * @return The projected keys, or null for all fields
+     */
+    public Set<String> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,87 @@
+package com.ratta.supernote.pluginlib.bean;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Element writes buffered between beginElementTransaction and commitElementTransaction.
+ * Operations are kept in the order they were staged and applied in that order on commit.
+ * A commit is best-effort, not atomic: other writers are not blocked while it runs, and a rollback
+ * puts back whole page snapshots.
+ */
+public class ElementTransaction {
+
+    public static final String OP_INSERT = "insert";
+    public static final String OP_MODIFY = "modify";
+    public static final String OP_REPLACE = "replace";
+    public static final String OP_DELETE = "delete";
+
+    // Error code of a failed commit whose rollback left pages unrestored, outside the PluginAPIError codes
+    public static final int ERROR_ROLLBACK_INCOMPLETE = 1410;
+
+    /**
+     * One staged page write.
+     */
+    public static class Op {
+        public final String type;
+        public final String notePath;
+        public final int page;
+        // Element maps for insert, modify and replace, converted with ReadableArray.toArrayList
+        public final List<Object> elements;
+        // numInPage of the elements to delete
+        public final Set<Integer> trailNums;
+
+        public Op(String type, String notePath, int page, List<Object> elements, Set<Integer> trailNums) {
+            this.type = type;
+            this.notePath = notePath;
+            this.page = page;
+            this.elements = elements;
+            this.trailNums = trailNums;
+        }
+
+        public String pageKey() {
+            return pageKey(notePath, page);
+        }
+    }
+
+    public static boolean isValidOp(String type) {
+        return OP_INSERT.equals(type) || OP_MODIFY.equals(type) || OP_REPLACE.equals(type) || OP_DELETE.equals(type);
+    }
+
+    public static String pageKey(String notePath, int page) {
+        return page + ":" + notePath;
+    }
+
+    private final String mId;
+    private final List<Op> mOps = new ArrayList<>();
+    // SystemClock.elapsedRealtime of the last begin or stage
+    private volatile long mLastUsed = SystemClock.elapsedRealtime();
+
+    public ElementTransaction(String id) {
+        mId = id;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public synchronized void add(Op op) {
+        mOps.add(op);
+        mLastUsed = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return Whether nothing was staged for at least timeoutMs
+     */
+    public boolean isIdle(long timeoutMs) {
+        return SystemClock.elapsedRealtime() - mLastUsed >= timeoutMs;
+    }
+
+    public synchronized List<Op> getOps() {
+        return Collections.unmodifiableList(new ArrayList<>(mOps));
+    }
+}
@@ -0,0 +1,392 @@
+package com.ratta.supernote.pluginlib.bean;
+
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.PointF;
+
+import com.ratta.supernote.plugincommon.data.common.trail.Stroke;
+import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Primitive-packed storage for the point columns of a cached Stroke.
+ * The packed columns are List views, so Stroke, Parcel and the point operations keep working on them,
+ * while a sample costs 8 bytes of xy, 2 bytes of pressure and 1 bit of flag instead of a boxed object each.
+ * Elements returned by get() are copies, write changes back with set(); every in-place editor of
+ * cached strokes (point operations, transforms, simplification) does so. Host code that edits
+ * points through their fields must unpack() the trail first.
+ */
+public class PackedStroke {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Replaces the point columns of the trail's stroke with packed columns.
+     * @param trail Trail
+     */
+    public static void pack(Trail trail) {
+        if (trail == null || trail.getStroke() == null) {
+            return;
+        }
+        Stroke stroke = trail.getStroke();
+        if (stroke.getPoints() != null && !(stroke.getPoints() instanceof PointList)) {
+            stroke.setPoints(new PointList(stroke.getPoints()));
+        }
+        if (stroke.getPressures() != null && !(stroke.getPressures() instanceof ShortList)) {
+            stroke.setPressures(new ShortList(stroke.getPressures()));
+        }
+        if (stroke.getFlagDraw() != null && !(stroke.getFlagDraw() instanceof FlagList)) {
+            stroke.setFlagDraw(new FlagList(stroke.getFlagDraw()));
+        }
+        if (stroke.getMarkPenDirection() != null && !(stroke.getMarkPenDirection() instanceof PointFList)) {
+            stroke.setMarkPenDirection(new PointFList(stroke.getMarkPenDirection()));
+        }
+    }
+
+    /**
+     * Restores boxed ArrayList columns, for host code that needs the original list types.
+     * @param trail Trail
+     */
+    public static void unpack(Trail trail) {
+        if (trail == null || trail.getStroke() == null) {
+            return;
+        }
+        Stroke stroke = trail.getStroke();
+        if (stroke.getPoints() instanceof PointList) {
+            stroke.setPoints(new ArrayList<>(stroke.getPoints()));
+        }
+        if (stroke.getPressures() instanceof ShortList) {
+            stroke.setPressures(new ArrayList<>(stroke.getPressures()));
+        }
+        if (stroke.getFlagDraw() instanceof FlagList) {
+            stroke.setFlagDraw(new ArrayList<>(stroke.getFlagDraw()));
+        }
+        if (stroke.getMarkPenDirection() instanceof PointFList) {
+            stroke.setMarkPenDirection(new ArrayList<>(stroke.getMarkPenDirection()));
+        }
+    }
+
+    private static int grow(int capacity, int minCapacity) {
+        int newCapacity = Math.max(capacity + (capacity >> 1), DEFAULT_CAPACITY);
+        return Math.max(newCapacity, minCapacity);
+    }
+
+    /**
+     * Stroke sample points as interleaved x/y ints.
+     */
+    public static class PointList extends AbstractList<Point> implements RandomAccess {
+        private int[] xy;
+        private int size;
+
+        public PointList() {
+            xy = new int[DEFAULT_CAPACITY * 2];
+        }
+
+        public PointList(List<Point> points) {
+            xy = new int[Math.max(points.size(), 1) * 2];
+            for (Point point : points) {
+                add(point);
+            }
+        }
+
+        /**
+         * @return A copy of the point, editing it does not change the list
+         */
+        @Override
+        public Point get(int index) {
+            checkIndex(index, size);
+            return new Point(xy[index * 2], xy[index * 2 + 1]);
+        }
+
+        public int getX(int index) {
+            checkIndex(index, size);
+            return xy[index * 2];
+        }
+
+        public int getY(int index) {
+            checkIndex(index, size);
+            return xy[index * 2 + 1];
+        }
+
+        /**
+         * Applies the matrix to all points in place, rounding to whole coordinates.
+         * @param matrix Affine matrix
+         */
+        public void mapPoints(Matrix matrix) {
+            float[] points = new float[size * 2];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = xy[i];
+            }
+            matrix.mapPoints(points);
+            for (int i = 0; i < points.length; i++) {
+                xy[i] = Math.round(points[i]);
+            }
+        }
+
+        @Override
+        public Point set(int index, Point point) {
+            Point old = get(index);
+            xy[index * 2] = point.x;
+            xy[index * 2 + 1] = point.y;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Point point) {
+            checkIndex(index, size + 1);
+            if ((size + 1) * 2 > xy.length) {
+                xy = Arrays.copyOf(xy, grow(xy.length, (size + 1) * 2));
+            }
+            System.arraycopy(xy, index * 2, xy, index * 2 + 2, (size - index) * 2);
+            xy[index * 2] = point.x;
+            xy[index * 2 + 1] = point.y;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Point remove(int index) {
+            Point old = get(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(xy, toIndex * 2, xy, fromIndex * 2, (size - toIndex) * 2);
+            size -= toIndex - fromIndex;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Stroke pressures as shorts.
+     */
+    public static class ShortList extends AbstractList<Short> implements RandomAccess {
+        private short[] values;
+        private int size;
+
+        public ShortList() {
+            values = new short[DEFAULT_CAPACITY];
+        }
+
+        public ShortList(List<Short> list) {
+            values = new short[Math.max(list.size(), 1)];
+            for (Short value : list) {
+                add(value);
+            }
+        }
+
+        @Override
+        public Short get(int index) {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        @Override
+        public Short set(int index, Short value) {
+            Short old = get(index);
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Short value) {
+            checkIndex(index, size + 1);
+            if (size + 1 > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Short remove(int index) {
+            Short old = get(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(values, toIndex, values, fromIndex, size - toIndex);
+            size -= toIndex - fromIndex;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Stroke write flags as a bitset.
+     */
+    public static class FlagList extends AbstractList<Boolean> implements RandomAccess {
+        private long[] words;
+        private int size;
+
+        public FlagList() {
+            words = new long[1];
+        }
+
+        public FlagList(List<Boolean> list) {
+            words = new long[Math.max((list.size() + 63) >> 6, 1)];
+            for (Boolean value : list) {
+                add(value);
+            }
+        }
+
+        private boolean getBit(int index) {
+            return (words[index >> 6] & (1L << index)) != 0;
+        }
+
+        private void setBit(int index, boolean value) {
+            if (value) {
+                words[index >> 6] |= 1L << index;
+            } else {
+                words[index >> 6] &= ~(1L << index);
+            }
+        }
+
+        @Override
+        public Boolean get(int index) {
+            checkIndex(index, size);
+            return getBit(index);
+        }
+
+        @Override
+        public Boolean set(int index, Boolean value) {
+            Boolean old = get(index);
+            setBit(index, value);
+            return old;
+        }
+
+        @Override
+        public void add(int index, Boolean value) {
+            checkIndex(index, size + 1);
+            if (size + 1 > words.length * 64) {
+                words = Arrays.copyOf(words, grow(words.length, words.length + 1));
+            }
+            // Shift bits up one by one, flags are far rarer to insert than to append
+            for (int i = size; i > index; i--) {
+                setBit(i, getBit(i - 1));
+            }
+            setBit(index, value);
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Boolean remove(int index) {
+            Boolean old = get(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            int count = toIndex - fromIndex;
+            for (int i = toIndex; i < size; i++) {
+                setBit(i - count, getBit(i));
+            }
+            for (int i = size - count; i < size; i++) {
+                setBit(i, false);
+            }
+            size -= count;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Marker pen directions as interleaved x/y floats.
+     */
+    public static class PointFList extends AbstractList<PointF> implements RandomAccess {
+        private float[] xy;
+        private int size;
+
+        public PointFList() {
+            xy = new float[DEFAULT_CAPACITY * 2];
+        }
+
+        public PointFList(List<PointF> points) {
+            xy = new float[Math.max(points.size(), 1) * 2];
+            for (PointF point : points) {
+                add(point);
+            }
+        }
+
+        /**
+         * @return A copy of the point, editing it does not change the list
+         */
+        @Override
+        public PointF get(int index) {
+            checkIndex(index, size);
+            return new PointF(xy[index * 2], xy[index * 2 + 1]);
+        }
+
+        @Override
+        public PointF set(int index, PointF point) {
+            PointF old = get(index);
+            xy[index * 2] = point.x;
+            xy[index * 2 + 1] = point.y;
+            return old;
+        }
+
+        @Override
+        public void add(int index, PointF point) {
+            checkIndex(index, size + 1);
+            if ((size + 1) * 2 > xy.length) {
+                xy = Arrays.copyOf(xy, grow(xy.length, (size + 1) * 2));
+            }
+            System.arraycopy(xy, index * 2, xy, index * 2 + 2, (size - index) * 2);
+            xy[index * 2] = point.x;
+            xy[index * 2 + 1] = point.y;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public PointF remove(int index) {
+            PointF old = get(index);
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            System.arraycopy(xy, toIndex * 2, xy, fromIndex * 2, (size - toIndex) * 2);
+            size -= toIndex - fromIndex;
+            modCount++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
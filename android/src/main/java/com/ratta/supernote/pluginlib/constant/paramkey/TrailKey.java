@@ -158,5 +158,10 @@ public class TrailKey {
     public static final String PICTURE_RECT = "rect";
     public static final String PICTURE_PATH = "picturePath";
 
+    /**
+     * Element bounds in page pixel coordinates, only present on element handles.
+     */
+    public static final String BBOX = "bbox";
+
 
 }
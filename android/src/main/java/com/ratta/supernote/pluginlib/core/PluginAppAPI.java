@@ -58,12 +58,48 @@ public abstract class PluginAppAPI {
 
     public abstract Trail getTrail(String uuid);
 
+    /**
+     * Gets a cached trail and pins it, so it is not evicted while it has unsaved edits.
+     * Hosts built before pinning existed keep this default, which does not pin.
+     * @return The trail, or null if it is not cached
+     */
+    public Trail pinTrail(String uuid) {
+        return getTrail(uuid);
+    }
+
+    /**
+     * Releases the pin of pinTrail, once the trail is written to the note or recycled.
+     */
+    public void unpinTrail(String uuid) {
+    }
+
+    /**
+     * Adjusts the cached trail memory total by (newSize - oldSize).
+     * Point operations report only their own byte delta, as (0, delta).
+     */
     public abstract void updateTrailMapMemorySize(long oldSize, long newSize);
 
     public abstract void removeTrail(String uuid);
 
+    /**
+     * Lets evicted trails spill to disk instead of being dropped,
+     * e.g. DataCacheUtils.enableSpill(getPluginPath()). Called when the plugin's modules are created.
+     * The default does nothing, evicted trails are then dropped as before.
+     */
+    public void enableTrailSpill() {
+    }
+
+    /**
+     * Disables spilling and deletes the spill file, e.g. DataCacheUtils.releaseSpill().
+     * Called when the plugin's modules are torn down.
+     */
+    public void releaseTrailSpill() {
+    }
+
     /**
      * Checks whether the Trail cache exceeds the limit.
+     * Implementations backed by DataCacheUtils evict least recently used trails first,
+     * so this only fails when pinned trails alone exceed the budget.
      * @return
      */
     public abstract boolean checkTrailCache();
@@ -1,9 +1,11 @@
 package com.ratta.supernote.pluginlib.modules;
 
 import android.content.Context;
+import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.Log;
 import android.util.SizeF;
 
@@ -16,16 +18,29 @@ import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.ratta.supernote.pluginlib.NativePluginAPISpec;
 import com.ratta.supernote.pluginlib.api.HostCommonAPI;
+import com.ratta.supernote.pluginlib.bean.ElementQuery;
+import com.ratta.supernote.pluginlib.bean.ElementTransaction;
 import com.ratta.supernote.pluginlib.bean.NoteTemplate;
 import com.ratta.supernote.pluginlib.callback.RequestHostCallback;
+import com.ratta.supernote.pluginlib.constant.paramkey.RectKey;
 import com.ratta.supernote.pluginlib.constant.paramkey.ResponseKey;
+import com.ratta.supernote.pluginlib.constant.paramkey.TrailKey;
 import com.ratta.supernote.pluginlib.core.PluginAppAPI;
 import com.ratta.supernote.pluginlib.utils.ConvertUtils;
+import com.ratta.supernote.pluginlib.utils.ElementWriteQueue;
 import com.ratta.supernote.pluginlib.utils.FileUtils;
+import com.ratta.supernote.pluginlib.utils.HostRequestScheduler;
+import com.ratta.supernote.pluginlib.utils.HostSingleFlight;
 import com.ratta.supernote.pluginlib.utils.MemoryCalculate;
+import com.ratta.supernote.pluginlib.utils.PageCache;
+import com.ratta.supernote.pluginlib.utils.PageSpatialIndex;
+import com.ratta.supernote.pluginlib.utils.PageVersionStore;
 import com.ratta.supernote.pluginlib.utils.TemplateUtils;
+import com.ratta.supernote.pluginlib.utils.TrailGeometryUtils;
+import com.ratta.supernote.pluginlib.utils.TrailSerializer;
 import com.ratta.supernote.plugincommon.data.common.lasso.LassoTrailTypeNum;
 import com.ratta.supernote.plugincommon.data.common.trail.Geometry;
 import com.ratta.supernote.plugincommon.data.common.trail.KeyWord;
@@ -39,10 +54,26 @@ import com.ratta.supernote.plugincommon.data.note.Layer;
 import com.ratta.supernote.plugincommon.data.note.NoteStyle;
 import com.ratta.supernote.plugincommon.error.PluginAPIError;
 import com.ratta.supernote.plugincommon.response.PluginAPIResponse;
+import com.ratta.supernote.plugincommon.response.PluginAPIResponseError;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class CommAPIModule extends NativePluginAPISpec {
@@ -81,7 +112,11 @@ public class CommAPIModule extends NativePluginAPISpec {
     /** Insert a point at index */
     TRAIL_OP_TYPE_INSERT_POINT_AT_INDEX = 4,
     // Replace point at index
-    TRAIL_OP_TYPE_REPLACE_POINT_AT_INDEX = 5;
+    TRAIL_OP_TYPE_REPLACE_POINT_AT_INDEX = 5,
+    /** Get points by index as a base64 little-endian buffer */
+    TRAIL_OP_TYPE_GET_POINT_BUFFER_BY_INDEX = 6,
+    /** Get points by index as one flat array of numbers */
+    TRAIL_OP_TYPE_GET_FLAT_POINT_BY_INDEX = 7;
 
 //    DataCacheUtils dataCacheUtils;
 
@@ -89,11 +124,33 @@ public class CommAPIModule extends NativePluginAPISpec {
 
     private final int STYLE_MAX = 4;
 
+    // Recently read pages and their spatial indexes
+    private final PageCache mPageCache = new PageCache();
+    // Page snapshots for getElementChangesSince
+    private final PageVersionStore mPageVersions = new PageVersionStore();
+
+    // Write-behind queue of modifyElements, off until setElementWriteCoalescing is called
+    private final ElementWriteQueue mWriteQueue;
+    // Priority scheduler of page reads, lasso reads and rendering requests
+    private final HostRequestScheduler mRequestScheduler;
+    // Shares concurrent identical metadata reads
+    private final HostSingleFlight mHostReads;
+
 
     public CommAPIModule(ReactApplicationContext reactContext, PluginAppAPI pluginApp) {
         super(reactContext);
         mContext = reactContext;
         mPluginApp = pluginApp;
+        if (pluginApp != null) {
+            mWriteQueue = ElementWriteQueue.forPlugin(pluginApp);
+            mWriteQueue.setWriter(this::writeModifiedElements);
+            mRequestScheduler = HostRequestScheduler.forPlugin(pluginApp);
+            mHostReads = HostSingleFlight.forPlugin(pluginApp);
+        } else {
+            mWriteQueue = null;
+            mRequestScheduler = null;
+            mHostReads = null;
+        }
     }
 
 
@@ -134,6 +191,8 @@ public class CommAPIModule extends NativePluginAPISpec {
                 break;
         }
         mPluginApp.addTrail(trail);
+        // Not in the note until it is inserted, so it must not be evicted before
+        mPluginApp.pinTrail(trail.getUUID());
         PluginAPIResponse response = new PluginAPIResponse();
         response.setSuccess(true);
         WritableMap responseMap = ConvertUtils.response2Map(response);
@@ -153,6 +212,220 @@ public class CommAPIModule extends NativePluginAPISpec {
         if(mPluginApp != null) {
             mPluginApp.clearTrailCache();
         }
+        // Indexed elements are no longer cached
+        mPageCache.clear();
+    }
+
+    /** Ramer-Douglas-Peucker simplification */
+    private static final int SIMPLIFY_ALGORITHM_RDP = 0,
+    /** Visvalingam-Whyatt simplification */
+    SIMPLIFY_ALGORITHM_VISVALINGAM = 1;
+
+    /**
+     * Simplifies the sample points of a cached stroke in place.
+     * Pressures, write flags, marker directions and recognition points that are aligned with
+     * the sample points are reduced with them.
+     * @param uuid Element uuid
+     * @param tolerance RDP: maximum distance of a removed point from the simplified line.
+     *                  Visvalingam: points whose triangle area is below tolerance * tolerance are removed.
+     * @param algorithm 0: RDP, 1: Visvalingam
+     * @param promise Resolves {originalCount, simplifiedCount, ratio}, ratio being simplifiedCount / originalCount
+     */
+    @Override
+    public void simplifyElement(String uuid, double tolerance, double algorithm, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (tolerance < 0 || ((int) algorithm != SIMPLIFY_ALGORITHM_RDP
+            && (int) algorithm != SIMPLIFY_ALGORITHM_VISVALINGAM)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        Trail trail = mPluginApp.pinTrail(uuid);
+        if (trail == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_NULL)));
+            return;
+        }
+        Stroke stroke = trail.getStroke();
+        List<Point> points = stroke == null ? null : stroke.getPoints();
+        int originalCount = points == null ? 0 : points.size();
+        int simplifiedCount = originalCount;
+        if (originalCount > 2) {
+            boolean[] keep = (int) algorithm == SIMPLIFY_ALGORITHM_RDP
+                ? TrailGeometryUtils.simplifyRDP(points, tolerance)
+                : TrailGeometryUtils.simplifyVisvalingam(points, tolerance);
+            simplifiedCount = 0;
+            for (boolean kept : keep) {
+                if (kept) {
+                    simplifiedCount++;
+                }
+            }
+            if (simplifiedCount < originalCount) {
+                mPageCache.invalidateTrail(uuid);
+                long sizeDelta = 0;
+                sizeDelta += retainAligned(points, keep, originalCount);
+                sizeDelta += retainAligned(stroke.getPressures(), keep, originalCount);
+                sizeDelta += retainAligned(stroke.getFlagDraw(), keep, originalCount);
+                sizeDelta += retainAligned(stroke.getMarkPenDirection(), keep, originalCount);
+                sizeDelta += retainAligned(stroke.getRecognPoints(), keep, originalCount);
+                mPluginApp.updateTrailMapMemorySize(0, sizeDelta);
+                TrailGeometryUtils.updateMaxXY(trail);
+            }
+        }
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        WritableMap result = Arguments.createMap();
+        result.putInt("originalCount", originalCount);
+        result.putInt("simplifiedCount", simplifiedCount);
+        result.putDouble("ratio", originalCount == 0 ? 1 : (double) simplifiedCount / originalCount);
+        responseMap.putMap(ResponseKey.result, result);
+        promise.resolve(responseMap);
+    }
+
+    /**
+     * Reduces a list with the sample point flags if it is aligned with the sample points.
+     * @return Byte delta of the list
+     */
+    private <T> long retainAligned(List<T> list, boolean[] keep, int alignedSize) {
+        if (list == null || list.size() != alignedSize) {
+            return 0;
+        }
+        long oldSize = MemoryCalculate.calculateListMemorySize(list);
+        TrailGeometryUtils.retain(list, keep);
+        return MemoryCalculate.calculateListMemorySize(list) - oldSize;
+    }
+
+    /**
+     * Applies an affine transform in place to the point data of cached elements.
+     * The matrix is in Android screen coordinates of the page. Contours, angles and geometries are in
+     * screen coordinates and take it as is; stroke sample points and marker directions are in EMR
+     * coordinates and take the same transform converted with the page size.
+     * @param notePath Note file path of the elements
+     * @param uuids Element uuids
+     * @param matrix Affine matrix [scaleX, skewX, transX, skewY, scaleY, transY]
+     * @param pointTypes Point data types to transform: angle, contour, stroke sample and marker direction points.
+     *                   Empty transforms all of them and geometries. Marker directions are vectors, so they are not translated.
+     * @param promise Resolves the number of transformed elements
+     */
+    @Override
+    public void transformElements(String notePath, ReadableArray uuids, ReadableArray matrix, ReadableArray pointTypes,
+                                  Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (uuids == null || matrix == null || matrix.size() != 6) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        Matrix transform = new Matrix();
+        float[] values = new float[9];
+        for (int i = 0; i < 6; i++) {
+            values[i] = (float) matrix.getDouble(i);
+        }
+        values[Matrix.MPERSP_2] = 1;
+        transform.setValues(values);
+
+        boolean allTypes = pointTypes == null || pointTypes.size() == 0;
+        List<Integer> typeList = new ArrayList<>();
+        if (!allTypes) {
+            for (int i = 0; i < pointTypes.size(); i++) {
+                typeList.add(pointTypes.getInt(i));
+            }
+        }
+        boolean emrTypes = allTypes || typeList.contains(TRAIL_POINT_TYPE_STROKE_SAMPLE_POINT)
+            || typeList.contains(TRAIL_POINT_TYPE_MARK_PEN_DIRECTION);
+
+        List<Trail> trails = new ArrayList<>();
+        List<Integer> emrPages = new ArrayList<>();
+        for (int i = 0; i < uuids.size(); i++) {
+            Trail trail = mPluginApp.pinTrail(uuids.getString(i));
+            if (trail == null) {
+                continue;
+            }
+            trails.add(trail);
+            if (emrTypes && trail.getStroke() != null && !emrPages.contains(trail.getPageNum())) {
+                emrPages.add(trail.getPageNum());
+            }
+        }
+        // The EMR transform depends on the page size, read it for every page with strokes first
+        readEmrMatrices(notePath, emrPages, 0, transform, new HashMap<>(), emrMatrices -> {
+            if (emrMatrices == null) {
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.SIZE_ERROR)));
+                return;
+            }
+            for (Trail trail : trails) {
+                if (allTypes || typeList.contains(TRAIL_POINT_TYPE_ANGLE_POINT)) {
+                    TrailGeometryUtils.mapPoints(trail.getAngles(), transform);
+                }
+                if ((allTypes || typeList.contains(TRAIL_POINT_TYPE_CONTOUR_POINT)) && trail.getContoursSrc() != null) {
+                    for (List<PointF> contour : trail.getContoursSrc()) {
+                        TrailGeometryUtils.mapPointFs(contour, transform, false);
+                    }
+                }
+                if (allTypes) {
+                    TrailGeometryUtils.mapGeometry(trail.getGeometry(), transform);
+                }
+                Stroke stroke = trail.getStroke();
+                if (stroke != null && emrTypes) {
+                    Matrix emrTransform = emrMatrices.get(trail.getPageNum());
+                    if (allTypes || typeList.contains(TRAIL_POINT_TYPE_STROKE_SAMPLE_POINT)) {
+                        TrailGeometryUtils.mapPoints(stroke.getPoints(), emrTransform);
+                    }
+                    if (allTypes || typeList.contains(TRAIL_POINT_TYPE_MARK_PEN_DIRECTION)) {
+                        TrailGeometryUtils.mapPointFs(stroke.getMarkPenDirection(), emrTransform, true);
+                    }
+                }
+                TrailGeometryUtils.updateMaxXY(trail);
+                // Cached page reads and spatial indexes hold the old positions
+                mPageCache.invalidateTrail(trail.getUUID());
+            }
+            PluginAPIResponse response = new PluginAPIResponse();
+            response.setSuccess(true);
+            WritableMap responseMap = ConvertUtils.response2Map(response);
+            responseMap.putInt(ResponseKey.result, trails.size());
+            promise.resolve(responseMap);
+        });
+    }
+
+    private interface EmrMatricesCallback {
+        /**
+         * @param emrMatrices EMR matrix by page, null if a page size could not be read
+         */
+        void onMatrices(@Nullable Map<Integer, Matrix> emrMatrices);
+    }
+
+    /**
+     * Converts a screen matrix to the EMR matrix of each page, reading the page sizes one by one.
+     */
+    private void readEmrMatrices(String notePath, List<Integer> pages, int index, Matrix matrix,
+                                 Map<Integer, Matrix> emrMatrices, EmrMatricesCallback callback) {
+        if (index == pages.size()) {
+            callback.onMatrices(emrMatrices);
+            return;
+        }
+        int page = pages.get(index);
+        readPageSize(notePath, page, response -> {
+            SizeF size = response.isSuccess() ? response.getResult(SizeF.class) : null;
+            Matrix emrMatrix = size == null ? null
+                : TrailGeometryUtils.toEmrMatrix(matrix, (int) size.getWidth(), (int) size.getHeight());
+            if (emrMatrix == null) {
+                callback.onMatrices(null);
+                return;
+            }
+            emrMatrices.put(page, emrMatrix);
+            readEmrMatrices(notePath, pages, index + 1, matrix, emrMatrices, callback);
+        });
     }
 
     /**
@@ -173,6 +446,9 @@ public class CommAPIModule extends NativePluginAPISpec {
      * 2: get point by index
      * 3: delete point by index
      * 4: insert a point at index
+     * 5: replace points at index
+     * 6: get points by index as a base64 little-endian buffer
+     * 7: get points by index as a flat array, e.g. [x0, y0, x1, y1, ...]
      * @param {number[]} index Point indices: one index targets a point, two indices target a range
      * @param {number[]} subIndex Contour points are nested lists, so a sub-index is required
      * */
@@ -185,14 +461,135 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
         Log.i(TAG, "opTrailPointData uuid: " + uuid + " type: " + type + " opType: "
             + opType + " index: " + index + " subIndex: " + subIndex + " pointsArray: " + pointsArray);
-        Trail trail = mPluginApp.getTrail(uuid);
+        Trail trail = isPointWriteOp((int) opType) ? mPluginApp.pinTrail(uuid) : mPluginApp.getTrail(uuid);
         Log.i(TAG, "opTrailPointData trail:");
         if (trail == null) {
             promise.resolve(null);
             return;
         }
 
+        if (isPointWriteOp((int) opType)) {
+            // Cached pages must not serve the unsaved edit
+            mPageCache.invalidateTrail(uuid);
+        }
+        PointOpResult result = opTrailPointData(trail, (int) type, (int) opType, index, subIndex, pointsArray);
+        if (result.sizeDelta != 0) {
+            mPluginApp.updateTrailMapMemorySize(0, result.sizeDelta);
+        }
+        promise.resolve(result.value);
+    }
+
+    /**
+     * Runs a list of point operations in one bridge call.
+     * Each operation has the same fields as the opElementPointData parameters:
+     * uuid, type, opType, index, subIndex, values.
+     * @param operations Operations, executed in order
+     * @param promise Resolves an array with the result of each operation, in the same order
+     */
+    @Override
+    public void opElementPointDataBatch(ReadableArray operations, Promise promise) {
+        if (mPluginApp == null || operations == null) {
+            promise.resolve(null);
+            return;
+        }
+        Log.i(TAG, "opElementPointDataBatch size: " + operations.size());
+        WritableArray results = Arguments.createArray();
+        String lastUuid = null;
+        Trail trail = null;
+        boolean pinned = false;
+        for (int i = 0; i < operations.size(); i++) {
+            ReadableMap operation = operations.getMap(i);
+            if (operation == null || !operation.hasKey("uuid") || operation.isNull("uuid")
+                || !operation.hasKey("type") || !operation.hasKey("opType")) {
+                results.pushNull();
+                continue;
+            }
+            String uuid = operation.getString("uuid");
+            boolean edit = isPointWriteOp(operation.getInt("opType"));
+            // Consecutive operations on the same element share one cache lookup, the first edit pins it
+            if (trail == null || !uuid.equals(lastUuid) || (edit && !pinned)) {
+                trail = edit ? mPluginApp.pinTrail(uuid) : mPluginApp.getTrail(uuid);
+                lastUuid = uuid;
+                pinned = edit;
+                if (edit) {
+                    // Cached pages must not serve the unsaved edit
+                    mPageCache.invalidateTrail(uuid);
+                }
+            }
+            if (trail == null) {
+                results.pushNull();
+                continue;
+            }
+            PointOpResult result = opTrailPointData(trail, operation.getInt("type"), operation.getInt("opType"),
+                getArrayOrNull(operation, "index"), getArrayOrNull(operation, "subIndex"),
+                getArrayOrNull(operation, "values"));
+            // Report per operation, a later lookup may evict this trail and its size must already be exact
+            if (result.sizeDelta != 0) {
+                mPluginApp.updateTrailMapMemorySize(0, result.sizeDelta);
+            }
+            pushResult(results, result.value);
+        }
+        promise.resolve(results);
+    }
+
+    /**
+     * Whether a point operation edits the trail, it is pinned until written then.
+     */
+    private boolean isPointWriteOp(int opType) {
+        return opType == TRAIL_OP_TYPE_ADD_POINT || opType == TRAIL_OP_TYPE_DELETE_POINT_BY_INDEX
+            || opType == TRAIL_OP_TYPE_INSERT_POINT_AT_INDEX || opType == TRAIL_OP_TYPE_REPLACE_POINT_AT_INDEX;
+    }
+
+    /**
+     * Releases the pins of written elements, their edits are in the note now.
+     */
+    private void unpinWrittenTrails(ReadableArray trailArray) {
+        if (trailArray == null) {
+            return;
+        }
+        for (int i = 0; i < trailArray.size(); i++) {
+            ReadableMap trailMap = trailArray.getMap(i);
+            if (trailMap != null && trailMap.hasKey(TrailKey.UUID) && !trailMap.isNull(TrailKey.UUID)) {
+                mPluginApp.unpinTrail(trailMap.getString(TrailKey.UUID));
+            }
+        }
+    }
+
+    @Nullable
+    private ReadableArray getArrayOrNull(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) {
+            return null;
+        }
+        return map.getArray(key);
+    }
+
+    private void pushResult(WritableArray results, Object value) {
+        if (value instanceof Integer) {
+            results.pushInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            results.pushBoolean((Boolean) value);
+        } else if (value instanceof WritableArray) {
+            results.pushArray((WritableArray) value);
+        } else if (value instanceof String) {
+            results.pushString((String) value);
+        } else {
+            results.pushNull();
+        }
+    }
+
+    /**
+     * Result of a single point operation.
+     */
+    private static class PointOpResult {
+        // Value resolved to JS
+        Object value;
+        // Byte delta of the trail, so the cache total stays exact without rescanning the trail
+        long sizeDelta;
+    }
 
+    private PointOpResult opTrailPointData(Trail trail, int type, int opType, ReadableArray index,
+                                           ReadableArray subIndex, ReadableArray pointsArray) {
+        PointOpResult result = new PointOpResult();
         List<Integer> indexList = new ArrayList<>();
         if (index != null) {
             for (int i = 0; i < index.size(); i++) {
@@ -206,8 +603,11 @@ public class CommAPIModule extends NativePluginAPISpec {
                 subIndexList.add(subIndex.getInt(i));
             }
         }
-        long oldSize = MemoryCalculate.calculateTrailMemorySize(trail);
-        switch ((int) type) {
+        if (opType == TRAIL_OP_TYPE_GET_POINT_BUFFER_BY_INDEX) {
+            result.value = getPointBuffer(trail, type, indexList, subIndexList);
+            return result;
+        }
+        switch (type) {
             case TRAIL_POINT_TYPE_ANGLE_POINT:
                 List<Point> opPoints = new ArrayList<>();
                 if (pointsArray != null) {
@@ -221,7 +621,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                     }
                 }
                 List<Point> anglePoints = trail.getAngles();
-                opTrail(anglePoints, (int) opType, indexList, opPoints, promise);
+                opTrail(anglePoints, opType, indexList, opPoints, result);
                 break;
             case TRAIL_POINT_TYPE_CONTOUR_POINT:
                 List<List<PointF>> opPointFs = new ArrayList<>();
@@ -230,7 +630,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
 //                List<PointF> opPointFs = ConvertUtils.map2List(pointsArray, PointF.class);
                 List<List<PointF>> contourPointsList = trail.getContoursSrc();
-                opTrail(contourPointsList, (int) opType, indexList, subIndexList, opPointFs, promise);
+                opTrail(contourPointsList, opType, indexList, subIndexList, opPointFs, result);
                 break;
             case TRAIL_POINT_TYPE_STROKE_SAMPLE_POINT:
                 Log.i(TAG, "opTrailPointData TRAIL_POINT_TYPE_STROKE_SAMPLE_POINT");
@@ -241,7 +641,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                     trail.setStroke(stroke);
                 }
                 List<Point> samplePoint = stroke.getPoints();
-                opTrail(samplePoint, (int) opType, indexList, newPoints, promise);
+                opTrail(samplePoint, opType, indexList, newPoints, result);
 
                 break;
             case TRAIL_POINT_TYPE_STROKE_PRESSURE_POINT:
@@ -252,7 +652,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
                 List<Short> pressures = stroke.getPressures();
                 List<Short> shortList = ConvertUtils.map2List(pointsArray, Short.class);
-                opTrail(pressures, (int) opType, indexList, shortList, promise);
+                opTrail(pressures, opType, indexList, shortList, result);
 
                 break;
             case TRAIL_POINT_TYPE_ERASE_LINE_DATA:
@@ -263,7 +663,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
                 List<Integer> eraseList = stroke.getEraseLineTrailNums();
                 List<Integer> integers = ConvertUtils.map2List(pointsArray, Integer.class);
-                opTrail(eraseList, (int) opType, indexList, integers, promise);
+                opTrail(eraseList, opType, indexList, integers, result);
                 break;
             case TRAIL_POINT_TYPE_WRITE_FLAG:
                 stroke = trail.getStroke();
@@ -274,7 +674,10 @@ public class CommAPIModule extends NativePluginAPISpec {
                 List<Boolean> flags = stroke.getFlagDraw();
                 List<Boolean> newFlags = ConvertUtils.map2List(pointsArray, Boolean.class);
 
-                opTrail(flags, (int) opType, indexList, newFlags, promise);
+                long oldFlagsSize = MemoryCalculate.calculateListMemorySize(flags);
+                opTrail(flags, opType, indexList, newFlags, result);
+                // Packed flags take a bit each, the per-element delta of opTrail would overcount them
+                result.sizeDelta = MemoryCalculate.calculateListMemorySize(flags) - oldFlagsSize;
                 break;
             case TRAIL_POINT_TYPE_MARK_PEN_DIRECTION:
                 stroke = trail.getStroke();
@@ -284,7 +687,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
                 List<PointF> markPens = stroke.getMarkPenDirection();
                 List<PointF> pointFS = ConvertUtils.map2List(pointsArray, PointF.class);
-                opTrail(markPens, (int) opType, indexList, pointFS, promise);
+                opTrail(markPens, opType, indexList, pointFS, result);
                 break;
             case TRAIL_POINT_TYPE_RECOGNITION_DATA_POINT:
                 stroke = trail.getStroke();
@@ -294,19 +697,71 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
                 List<RecognData> recognDataList = stroke.getRecognPoints();
                 List<RecognData> newRecognList = ConvertUtils.map2List(pointsArray, RecognData.class);
-                opTrail(recognDataList, (int) opType, indexList, newRecognList, promise);
+                opTrail(recognDataList, opType, indexList, newRecognList, result);
                 break;
 
 
         }
-        long newSize = MemoryCalculate.calculateTrailMemorySize(trail);
-        mPluginApp.updateTrailMapMemorySize(oldSize, newSize);
-
+        return result;
+    }
 
+    /**
+     * Reads a range of point data as a base64 buffer, see {@link ConvertUtils#list2Base64(List, int, int)}.
+     * An empty index reads the whole list. For contour points, index[0] selects the contour
+     * and subIndex is the range inside it.
+     */
+    @Nullable
+    private String getPointBuffer(Trail trail, int type, List<Integer> index, List<Integer> subIndex) {
+        Stroke stroke = trail.getStroke();
+        List<?> points = null;
+        switch (type) {
+            case TRAIL_POINT_TYPE_ANGLE_POINT:
+                points = trail.getAngles();
+                break;
+            case TRAIL_POINT_TYPE_CONTOUR_POINT:
+                List<List<PointF>> contours = trail.getContoursSrc();
+                if (contours == null || index.isEmpty() || index.get(0) < 0 || index.get(0) >= contours.size()) {
+                    return null;
+                }
+                points = contours.get(index.get(0));
+                index = subIndex;
+                break;
+            case TRAIL_POINT_TYPE_STROKE_SAMPLE_POINT:
+                points = stroke == null ? null : stroke.getPoints();
+                break;
+            case TRAIL_POINT_TYPE_STROKE_PRESSURE_POINT:
+                points = stroke == null ? null : stroke.getPressures();
+                break;
+            case TRAIL_POINT_TYPE_ERASE_LINE_DATA:
+                points = stroke == null ? null : stroke.getEraseLineTrailNums();
+                break;
+            case TRAIL_POINT_TYPE_WRITE_FLAG:
+                points = stroke == null ? null : stroke.getFlagDraw();
+                break;
+            case TRAIL_POINT_TYPE_MARK_PEN_DIRECTION:
+                points = stroke == null ? null : stroke.getMarkPenDirection();
+                break;
+            default:
+                // Recognition data has no flat numeric layout
+                return null;
+        }
+        if (points == null) {
+            return null;
+        }
+        int fromIndex = 0;
+        int toIndex = points.size();
+        if (!index.isEmpty()) {
+            fromIndex = index.get(0);
+            toIndex = (index.size() > 1 ? index.get(1) : fromIndex) + 1;
+        }
+        if (fromIndex < 0 || toIndex > points.size() || fromIndex > toIndex) {
+            return null;
+        }
+        return ConvertUtils.list2Base64(points, fromIndex, toIndex);
     }
 
     private void opTrail(List<List<PointF>> points, int opType, List<Integer> index, List<Integer> subIndex,
-                         List<List<PointF>> opPoints, Promise promise) {
+                         List<List<PointF>> opPoints, PointOpResult result) {
         int minIndex = -1;
         int maxIndex = -1;
         if (!index.isEmpty()) {
@@ -329,16 +784,20 @@ public class CommAPIModule extends NativePluginAPISpec {
 
         if (minIndex >= 0 && minIndex < points.size() && minSubIndex >= 0) {
             List<PointF> subPoints = points.get(minIndex);
-            opTrail(subPoints, opType, subIndex, opPoints.get(0), promise);
+            opTrail(subPoints, opType, subIndex, opPoints.get(0), result);
             return;
         }
-        opTrail(points, opType, index, opPoints, promise);
+        opTrail(points, opType, index, opPoints, result);
 
     }
 
 
+    /**
+     * Applies a point operation to a list.
+     * The byte delta of the list is added to result.sizeDelta, see {@link MemoryCalculate#calculateElementMemorySize(Object)}
+     */
     private <T> void opTrail(List<T> points, int opType, List<Integer> index,
-                             List<T> opPoints, Promise promise) {
+                             List<T> opPoints, PointOpResult result) {
         int minIndex = -1;
         int maxIndex = -1;
         if (!index.isEmpty()) {
@@ -352,19 +811,20 @@ public class CommAPIModule extends NativePluginAPISpec {
         switch (opType) {
             case TRAIL_OP_TYPE_GET_LIST_SIZE:
                 int size = points.size();
-                promise.resolve(size);
+                result.value = size;
                 break;
             case TRAIL_OP_TYPE_ADD_POINT:
                 points.addAll(opPoints);
-                promise.resolve(true);
+                result.sizeDelta += MemoryCalculate.calculateListMemorySize(opPoints);
+                result.value = true;
                 break;
             case TRAIL_OP_TYPE_GET_POINT_BY_INDEX:
                 if (minIndex < 0) {
-                    promise.resolve(null);
+                    result.value = null;
                     return;
                 }
                 if (points.size() <= maxIndex) {
-                    promise.resolve(null);
+                    result.value = null;
                     return;
                 }
                 List<T> rePoints = new ArrayList<>();
@@ -378,21 +838,29 @@ public class CommAPIModule extends NativePluginAPISpec {
                 }
                 Log.i(TAG, "opTrail getPoint By index rePoints:" + rePoints);
                 WritableArray pointArray = ConvertUtils.list2Map(rePoints);
-                promise.resolve(pointArray);
+                result.value = pointArray;
 
 
+                break;
+            case TRAIL_OP_TYPE_GET_FLAT_POINT_BY_INDEX:
+                if (minIndex < 0 || points.size() <= maxIndex || minIndex > maxIndex) {
+                    result.value = null;
+                    return;
+                }
+                result.value = ConvertUtils.list2FlatArray(points, minIndex, maxIndex + 1);
                 break;
             case TRAIL_OP_TYPE_DELETE_POINT_BY_INDEX:
                 if (minIndex < 0) {
-                    promise.resolve(false);
+                    result.value = false;
                     return;
                 }
 
                 if (minIndex == maxIndex) {
                     if (points.size() <= maxIndex) {
-                        promise.resolve(true);
+                        result.value = true;
                     } else {
-                        points.remove(minIndex);
+                        result.sizeDelta -= MemoryCalculate.calculateElementMemorySize(points.remove(minIndex));
+                        result.value = true;
                     }
                     return;
                 }
@@ -402,41 +870,44 @@ public class CommAPIModule extends NativePluginAPISpec {
                     if (points.size() <= minIndex) {
                         break;
                     }
-                    points.remove(minIndex);
+                    result.sizeDelta -= MemoryCalculate.calculateElementMemorySize(points.remove(minIndex));
 
                 }
-                promise.resolve(true);
+                result.value = true;
                 break;
             case TRAIL_OP_TYPE_INSERT_POINT_AT_INDEX:
                 if (minIndex < 0 || opPoints.isEmpty()) {
-                    promise.resolve(false);
+                    result.value = false;
                     return;
                 }
                 if (points.size() < minIndex) {
-                    promise.resolve(true);
+                    result.value = true;
                 } else {
                     points.addAll(minIndex, opPoints);
+                    result.sizeDelta += MemoryCalculate.calculateListMemorySize(opPoints);
+                    result.value = true;
                 }
 
                 break;
             case TRAIL_OP_TYPE_REPLACE_POINT_AT_INDEX:
                 Log.i(TAG, "opTrail TRAIL_OP_TYPE_REPLACE_POINT_AT_INDEX");
                 if (minIndex < 0 || opPoints.isEmpty()) {
-                    promise.resolve(false);
+                    result.value = false;
                     return;
                 }
                 if (points.size() < minIndex) {
-                    promise.resolve(false);
+                    result.value = false;
                 } else {
                     for (int count = minIndex; count <= maxIndex; count++) {
                         if (points.size() <= minIndex) {
                             break;
                         }
-                        points.remove(minIndex);
+                        result.sizeDelta -= MemoryCalculate.calculateElementMemorySize(points.remove(minIndex));
 
                     }
                     points.addAll(minIndex, opPoints);
-                    promise.resolve(true);
+                    result.sizeDelta += MemoryCalculate.calculateListMemorySize(opPoints);
+                    result.value = true;
                 }
                 break;
         }
@@ -580,18 +1051,20 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().generateStickerThumbnail(mPluginApp, stickerPath, thumbnailPath,
+        scheduleHostRequest(BACKGROUND_REQUEST_OPTIONS, promise, call ->
+            HostCommonAPI.getInstance().generateStickerThumbnail(mPluginApp, stickerPath, thumbnailPath,
             size,
             new RequestHostCallback() {
                 @Override
                 public void onResponse(PluginAPIResponse response) {
+                    call.complete();
                     WritableMap responseMap = ConvertUtils.response2Map(response);
                     if (response.isSuccess()) {
                         responseMap.putBoolean(ResponseKey.result, (boolean) response.getResult());
                     }
                     promise.resolve(responseMap);
                 }
-            });
+            }));
     }
 
 
@@ -618,6 +1091,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         HostCommonAPI.getInstance().insertSticker(mPluginApp, path, new RequestHostCallback() {
             @Override
             public void onResponse(PluginAPIResponse response) {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, (boolean) response.getResult());
@@ -806,6 +1280,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         HostCommonAPI.getInstance().saveCurrentNote(mPluginApp, new RequestHostCallback() {
             @Override
             public void onResponse(PluginAPIResponse response) {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -819,10 +1294,11 @@ public class CommAPIModule extends NativePluginAPISpec {
      * Gets stroke data. TODO: optimize later because some types need conversion.
      * @param page
      * @param notePath
+     * @param query Optional filter and projection, see ElementQuery, and the request priority and cancel token
      * @param promise
      */
     @Override
-    public void getElements(double page, String notePath, Promise promise) {
+    public void getElements(double page, String notePath, @Nullable ReadableMap query, Promise promise) {
         if (mPluginApp == null) {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
             return;
@@ -839,18 +1315,1179 @@ public class CommAPIModule extends NativePluginAPISpec {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
             return;
         }
-        HostCommonAPI.getInstance().getNotePageData(mPluginApp, (int) page, notePath, new RequestHostCallback() {
+        HostRequestScheduler.Options requestOptions =
+            HostRequestScheduler.Options.fromMap(query, HostRequestScheduler.PRIORITY_NORMAL);
+        if (requestOptions == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        ElementQuery elementQuery = null;
+        if (query != null) {
+            elementQuery = ElementQuery.fromMap(query);
+            if (elementQuery == null) {
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+                return;
+            }
+            if (elementQuery.needsBounds()) {
+                final ElementQuery boundsQuery = elementQuery;
+                loadPageTrails(notePath, (int) page, requestOptions, new SizedPageTrailsCallback() {
+                    @Override
+                    public void onTrails(List<Trail> trails, int pageWidth, int pageHeight) {
+                        resolveQueriedTrails(trails, boundsQuery, pageWidth, pageHeight, promise);
+                    }
+
+                    @Override
+                    public void onError(PluginAPIResponse response) {
+                        promise.resolve(ConvertUtils.response2Map(response));
+                    }
+                });
+                return;
+            }
+        }
+        final ElementQuery trailQuery = elementQuery;
+        // Served from the page cache when the page was read before and has not changed since
+        readPageTrails(notePath, (int) page, requestOptions, new PageTrailsCallback() {
+            @Override
+            public void onTrails(List<Trail> trails) {
+                if (trailQuery != null) {
+                    resolveQueriedTrails(trails, trailQuery, 0, 0, promise);
+                    return;
+                }
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+                responseMap.putArray(ResponseKey.result, ConvertUtils.trails2Array(trails));
+                promise.resolve(responseMap);
+            }
 
             @Override
-            public void onResponse(PluginAPIResponse response) {
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
 
-                WritableMap responseMap = ConvertUtils.response2Map(response);
+
+    /**
+     * Filters trails by the query and converts only the projected fields of the matching ones.
+     * Type and layer are checked first, bounds are only computed for trails that pass them.
+     * @param pageWidth Page width in pixels, unused unless the query needs bounds
+     * @param pageHeight Page height in pixels, unused unless the query needs bounds
+     */
+    private void resolveQueriedTrails(List<Trail> trails, ElementQuery query,
+                                      int pageWidth, int pageHeight, Promise promise) {
+        List<Trail> matchedTrails = new ArrayList<>();
+        List<RectF> boundsList = query.needsBounds() ? new ArrayList<>() : null;
+        for (Trail trail : trails) {
+            if (!query.matches(trail)) {
+                continue;
+            }
+            if (boundsList != null) {
+                RectF bounds = TrailGeometryUtils.getBounds(trail, pageWidth, pageHeight);
+                if (!query.matchesBounds(bounds)) {
+                    continue;
+                }
+                boundsList.add(bounds);
+            }
+            matchedTrails.add(trail);
+        }
+        WritableArray trailDataList = ConvertUtils.trails2Array(matchedTrails, query.getFields(), boundsList);
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        responseMap.putArray(ResponseKey.result, trailDataList);
+        promise.resolve(responseMap);
+    }
+
+
+    // Default and maximum number of pages fetched at once by getElementsForPages
+    private static final int PAGE_FETCH_CONCURRENCY = 4,
+        PAGE_FETCH_CONCURRENCY_MAX = 8;
+
+    // Idle time after which a page pool thread exits
+    private static final long PAGE_POOL_KEEP_ALIVE_S = 30;
+
+    // Converts fetched pages of getElementsForPages, shared by all calls and module instances,
+    // so a reload does not leave threads behind; idle threads exit
+    private static final ThreadPoolExecutor sPagePool = new ThreadPoolExecutor(PAGE_FETCH_CONCURRENCY_MAX,
+        PAGE_FETCH_CONCURRENCY_MAX, PAGE_POOL_KEEP_ALIVE_S, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        sPagePool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the elements of several pages. At most concurrency pages are requested from the host at once,
+     * their elements are converted on a shared pool, results come back per page in the order of pages,
+     * and a failed page does not fail the others.
+     * Trails read by the call are held until the result is resolved, so trails evicted from the cache
+     * meanwhile are revived as the same objects when JS looks them up.
+     * @param notePath Note file path
+     * @param pages Page indexes
+     * @param options {concurrency: pages fetched at once, 1-8, default 4, capped at the host request slots
+     *                of the priority class, see HostRequestScheduler.classLimit; priority, cancelToken}
+     * @param promise Resolves [{page, success, result | error}] in the order of pages
+     */
+    @Override
+    public void getElementsForPages(String notePath, ReadableArray pages, @Nullable ReadableMap options, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        int concurrency = PAGE_FETCH_CONCURRENCY;
+        if (options != null && options.hasKey("concurrency")) {
+            concurrency = options.getInt("concurrency");
+        }
+        HostRequestScheduler.Options requestOptions =
+            HostRequestScheduler.Options.fromMap(options, HostRequestScheduler.PRIORITY_NORMAL);
+        if (pages == null || concurrency < 1 || concurrency > PAGE_FETCH_CONCURRENCY_MAX || requestOptions == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        // More pages in flight than the scheduler runs at once would only wait in its queue
+        concurrency = Math.min(concurrency, HostRequestScheduler.classLimit(requestOptions.priority));
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        int pageCount = pages.size();
+        WritableMap[] pageResults = new WritableMap[pageCount];
+        if (pageCount == 0) {
+            resolvePageResults(pageResults, promise);
+            return;
+        }
+        // Copied out of the bridge array, which is only valid for this call
+        int[] pageNums = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageNums[i] = pages.getInt(i);
+        }
+        PageFetch fetch = new PageFetch(notePath, pageNums, requestOptions, pageResults, promise);
+        for (int i = 0; i < Math.min(concurrency, pageCount); i++) {
+            fetchNextPage(fetch);
+        }
+    }
+
+    /**
+     * State of one getElementsForPages call.
+     */
+    private static class PageFetch {
+        final String notePath;
+        final int[] pages;
+        final HostRequestScheduler.Options options;
+        final WritableMap[] pageResults;
+        final Promise promise;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger remaining;
+        // Trails read so far, held until the result is resolved
+        final List<Trail> heldTrails = Collections.synchronizedList(new ArrayList<>());
+
+        PageFetch(String notePath, int[] pages, HostRequestScheduler.Options options,
+                  WritableMap[] pageResults, Promise promise) {
+            this.notePath = notePath;
+            this.pages = pages;
+            this.options = options;
+            this.pageResults = pageResults;
+            this.promise = promise;
+            this.remaining = new AtomicInteger(pages.length);
+        }
+    }
+
+    /**
+     * Fetches the next page of the call, and when it is done the one after, until all pages are taken.
+     */
+    private void fetchNextPage(PageFetch fetch) {
+        int position = fetch.next.getAndIncrement();
+        if (position >= fetch.pages.length) {
+            return;
+        }
+        fetchPageElements(fetch, fetch.pages[position], pageResult -> {
+            fetch.pageResults[position] = pageResult;
+            if (fetch.remaining.decrementAndGet() == 0) {
+                resolvePageResults(fetch.pageResults, fetch.promise);
+                fetch.heldTrails.clear();
+            } else {
+                fetchNextPage(fetch);
+            }
+        });
+    }
+
+    private interface PageResultCallback {
+        /**
+         * @param pageResult {page, success, result | error}
+         */
+        void onPageResult(WritableMap pageResult);
+    }
+
+    /**
+     * Requests one page from the host without blocking a thread; the elements are converted on the page pool.
+     * A page the scheduler drops, e.g. because the host has not answered in time, fails,
+     * and the temp file of a late answer is deleted.
+     */
+    private void fetchPageElements(PageFetch fetch, int page, PageResultCallback callback) {
+        mRequestScheduler.submit(fetch.options, call -> HostCommonAPI.getInstance().getNotePageData(mPluginApp, page, fetch.notePath, response -> {
+            if (!call.complete()) {
+                // Cancelled or timed out, nobody reads the temp file
                 if (response.isSuccess()) {
-                    String result = response.getResult(String.class);
-                    WritableArray trailDataList = mPluginApp.readTrailsFromFile( result);
-                    responseMap.putArray(ResponseKey.result, trailDataList);
+                    new File(response.getResult(String.class)).delete();
+                }
+                return;
+            }
+            if (!response.isSuccess()) {
+                callback.onPageResult(pageError(page, response));
+                return;
+            }
+            sPagePool.execute(() -> callback.onPageResult(readPageElements(fetch, page, response)));
+        }), dropped -> callback.onPageResult(pageError(page, dropped)));
+    }
+
+    /**
+     * Reads and converts the trails of a fetched page.
+     * @return The page result: {page, success, result | error}
+     */
+    private WritableMap readPageElements(PageFetch fetch, int page, PluginAPIResponse hostResponse) {
+        File tempFile = new File(hostResponse.getResult(String.class));
+        WritableArray trailArray = Arguments.createArray();
+        List<Trail> trails = new ArrayList<>();
+        try {
+            FileUtils.readTrailsFromTemp(tempFile, (trail, index, total) -> {
+                mPluginApp.addTrail(trail);
+                trails.add(trail);
+                trailArray.pushMap(ConvertUtils.trail2Map(trail));
+                return true;
+            });
+        } catch (IOException e) {
+            Log.e(TAG, "fetchPageElements read error page:" + page, e);
+            return pageError(page, new PluginAPIResponse(PluginAPIError.TRANSFER_DATA_ERROR));
+        } finally {
+            tempFile.delete();
+        }
+        fetch.heldTrails.addAll(trails);
+        cachePageTrails(fetch.notePath, page, trails);
+        WritableMap pageResult = ConvertUtils.response2Map(hostResponse);
+        pageResult.putArray(ResponseKey.result, trailArray);
+        pageResult.putInt("page", page);
+        return pageResult;
+    }
+
+    private WritableMap pageError(int page, PluginAPIResponse response) {
+        WritableMap pageResult = ConvertUtils.response2Map(response);
+        pageResult.putInt("page", page);
+        return pageResult;
+    }
+
+    private void resolvePageResults(WritableMap[] pageResults, Promise promise) {
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        WritableArray resultArray = Arguments.createArray();
+        for (WritableMap pageResult : pageResults) {
+            resultArray.pushMap(pageResult);
+        }
+        responseMap.putArray(ResponseKey.result, resultArray);
+        promise.resolve(responseMap);
+    }
+
+    // Event carrying one chunk of a getElementsStream stream
+    private static final String EVENT_ELEMENTS_CHUNK = "plugin_event_elements_chunk";
+
+    // Running element streams, streamId -> cancelled
+    private final Map<String, Boolean> mElementStreams = new ConcurrentHashMap<>();
+
+    /**
+     * Streams the page elements to RN in chunks while they are read from the host's temp file.
+     * Each chunk is emitted as EVENT_ELEMENTS_CHUNK with {streamId, chunkIndex, total, elements}.
+     * @param page
+     * @param notePath
+     * @param streamId Caller chosen id, passed back in every chunk and used to cancel the stream
+     * @param chunkSize Elements per chunk
+     * @param promise Resolves {count, cancelled} after the last chunk, count being the number of elements sent
+     */
+    @Override
+    public void getElementsStream(double page, String notePath, String streamId, double chunkSize, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (streamId == null || streamId.isEmpty() || chunkSize < 1 || mElementStreams.containsKey(streamId)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        mElementStreams.put(streamId, false);
+        int size = (int) chunkSize;
+        // The stream id doubles as cancel token, so cancelElementsStream also drops a queued read
+        HostRequestScheduler.Options options =
+            new HostRequestScheduler.Options(HostRequestScheduler.PRIORITY_NORMAL, streamId);
+        mRequestScheduler.submit(options, call -> HostCommonAPI.getInstance().getNotePageData(mPluginApp, (int) page, notePath, response -> {
+            if (!call.complete()) {
+                // Dropped, the promise is already resolved
+                if (response.isSuccess()) {
+                    new File(response.getResult(String.class)).delete();
+                }
+                return;
+            }
+            if (!response.isSuccess()) {
+                mElementStreams.remove(streamId);
+                promise.resolve(ConvertUtils.response2Map(response));
+                return;
+            }
+            File tempFile = new File(response.getResult(String.class));
+            // Trails read and trails emitted so far, and the chunk being filled
+            int[] count = {0};
+            int[] sent = {0};
+            WritableArray[] chunk = {Arguments.createArray()};
+            List<Trail> streamedTrails = new ArrayList<>();
+            try {
+                FileUtils.readTrailsFromTemp(tempFile, (trail, index, total) -> {
+                    if (Boolean.TRUE.equals(mElementStreams.get(streamId))) {
+                        return false;
+                    }
+                    mPluginApp.addTrail(trail);
+                    streamedTrails.add(trail);
+                    chunk[0].pushMap(ConvertUtils.trail2Map(trail));
+                    count[0] = index + 1;
+                    if (count[0] % size == 0 || count[0] == total) {
+                        emitElementsChunk(streamId, (count[0] - 1) / size, total, chunk[0]);
+                        chunk[0] = Arguments.createArray();
+                        sent[0] = count[0];
+                    }
+                    return true;
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "getElementsStream read error", e);
+                mElementStreams.remove(streamId);
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRANSFER_DATA_ERROR)));
+                return;
+            } finally {
+                tempFile.delete();
+            }
+            boolean cancelled = Boolean.TRUE.equals(mElementStreams.remove(streamId));
+            if (!cancelled) {
+                cachePageTrails(notePath, (int) page, streamedTrails);
+            }
+            PluginAPIResponse streamResponse = new PluginAPIResponse();
+            streamResponse.setSuccess(true);
+            WritableMap responseMap = ConvertUtils.response2Map(streamResponse);
+            WritableMap resultMap = Arguments.createMap();
+            // Chunks are emitted before the promise resolves, so count tells RN how many elements to wait for
+            resultMap.putInt("count", sent[0]);
+            resultMap.putBoolean("cancelled", cancelled);
+            responseMap.putMap(ResponseKey.result, resultMap);
+            promise.resolve(responseMap);
+        }), dropped -> {
+            boolean cancelled = Boolean.TRUE.equals(mElementStreams.remove(streamId));
+            if (!cancelled) {
+                promise.resolve(ConvertUtils.response2Map(dropped));
+                return;
+            }
+            // Cancelled before the read was answered, nothing was sent
+            PluginAPIResponse streamResponse = new PluginAPIResponse();
+            streamResponse.setSuccess(true);
+            WritableMap responseMap = ConvertUtils.response2Map(streamResponse);
+            WritableMap resultMap = Arguments.createMap();
+            resultMap.putInt("count", 0);
+            resultMap.putBoolean("cancelled", true);
+            responseMap.putMap(ResponseKey.result, resultMap);
+            promise.resolve(responseMap);
+        });
+    }
+
+    private void emitElementsChunk(String streamId, int chunkIndex, int total, WritableArray elements) {
+        WritableMap chunkMap = Arguments.createMap();
+        chunkMap.putString("streamId", streamId);
+        chunkMap.putInt("chunkIndex", chunkIndex);
+        chunkMap.putInt("total", total);
+        chunkMap.putArray("elements", elements);
+        getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(EVENT_ELEMENTS_CHUNK, chunkMap);
+    }
+
+    /**
+     * Stops a running getElementsStream stream after its current chunk.
+     * @param streamId
+     */
+    @Override
+    public void cancelElementsStream(String streamId) {
+        if (streamId != null && mElementStreams.replace(streamId, true) != null) {
+            mRequestScheduler.cancel(streamId);
+        }
+    }
+
+    /**
+     * Gets lightweight handles of the page elements: uuid, type, page, layer, numInPage and bbox.
+     * The trails are read into the native cache without building their content maps,
+     * full elements are fetched per uuid with getElementsByUuid when needed.
+     * The page spatial index is built from the same pass.
+     * @param page
+     * @param notePath
+     * @param promise
+     */
+    @Override
+    public void getElementHandles(double page, String notePath, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        loadPageTrails(notePath, (int) page, new SizedPageTrailsCallback() {
+            @Override
+            public void onTrails(List<Trail> trails, int pageWidth, int pageHeight) {
+                List<RectF> boundsList = new ArrayList<>();
+                buildPageIndex(notePath, (int) page, trails, pageWidth, pageHeight, boundsList);
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+                WritableArray handleArray = Arguments.createArray();
+                for (int i = 0; i < trails.size(); i++) {
+                    handleArray.pushMap(ConvertUtils.trail2HandleMap(trails.get(i), boundsList.get(i)));
+                }
+                responseMap.putArray(ResponseKey.result, handleArray);
+                promise.resolve(responseMap);
+            }
+
+            @Override
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
+
+    /**
+     * Gets full elements of cached trails.
+     * @param uuids Element uuids, e.g. from getElementHandles
+     * @param promise Resolves the elements in the order of uuids, null for trails no longer cached
+     */
+    @Override
+    public void getElementsByUuid(ReadableArray uuids, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (uuids == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        List<Trail> trails = new ArrayList<>(uuids.size());
+        for (int i = 0; i < uuids.size(); i++) {
+            trails.add(mPluginApp.getTrail(uuids.getString(i)));
+        }
+        WritableArray trailArray = ConvertUtils.trails2Array(trails);
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        responseMap.putArray(ResponseKey.result, trailArray);
+        promise.resolve(responseMap);
+    }
+
+    /**
+     * Gets the changes of a page since an earlier call.
+     * The page is read fresh from the host, bypassing the page and trail caches, so cached trails
+     * edited in place but not yet written do not count as changes.
+     * Trails are compared by uuid and content hash against the snapshot of the token,
+     * so only added and modified elements are converted and sent.
+     * Uuids are assumed stable across host exports of a page; if the host assigns new ones,
+     * e.g. after the note was reloaded, the elements are reported as removed and added instead of modified.
+     * @param notePath Note file path
+     * @param page Page index
+     * @param token Token of an earlier call, null to list the whole page
+     * @param promise Resolves {token, reset, added, modified, removed}; reset is true and every element
+     *                is reported as added if the token is unknown, e.g. after it was evicted
+     */
+    @Override
+    public void getElementChangesSince(String notePath, double page, @Nullable String token, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        readHostPageTrails(notePath, (int) page, DEFAULT_REQUEST_OPTIONS, new PageTrailsCallback() {
+            @Override
+            public void onTrails(List<Trail> trails) {
+                List<String> uuids = new ArrayList<>(trails.size());
+                long[] hashes = new long[trails.size()];
+                try {
+                    for (int i = 0; i < trails.size(); i++) {
+                        uuids.add(trails.get(i).getUUID());
+                        hashes[i] = TrailSerializer.contentHash(trails.get(i));
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "getElementChangesSince hash error", e);
+                    promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRANSFER_DATA_ERROR)));
+                    return;
+                }
+                PageVersionStore.Changes changes = mPageVersions.diff(notePath, (int) page, token, uuids, hashes);
+
+                WritableMap changesMap = Arguments.createMap();
+                changesMap.putString("token", changes.token);
+                changesMap.putBoolean("reset", changes.reset);
+                List<Trail> addedTrails = new ArrayList<>(changes.added.size());
+                for (int index : changes.added) {
+                    addedTrails.add(trails.get(index));
+                }
+                changesMap.putArray("added", ConvertUtils.trails2Array(addedTrails));
+                List<Trail> modifiedTrails = new ArrayList<>(changes.modified.size());
+                for (int index : changes.modified) {
+                    modifiedTrails.add(trails.get(index));
+                }
+                changesMap.putArray("modified", ConvertUtils.trails2Array(modifiedTrails));
+                WritableArray removedArray = Arguments.createArray();
+                for (String uuid : changes.removed) {
+                    removedArray.pushString(uuid);
+                }
+                changesMap.putArray("removed", removedArray);
+
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+                responseMap.putMap(ResponseKey.result, changesMap);
+                promise.resolve(responseMap);
+            }
+
+            @Override
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
+
+    // Options of internal page reads
+    private static final HostRequestScheduler.Options DEFAULT_REQUEST_OPTIONS =
+        new HostRequestScheduler.Options(HostRequestScheduler.PRIORITY_NORMAL, null);
+    // Options of rendering requests without a cancel token
+    private static final HostRequestScheduler.Options BACKGROUND_REQUEST_OPTIONS =
+        new HostRequestScheduler.Options(HostRequestScheduler.PRIORITY_BACKGROUND, null);
+
+    /**
+     * Cancels the scheduled host requests of a cancel token.
+     * Queued requests are never sent, running ones resolve with the cancelled error and their host result is dropped.
+     * @param cancelToken Token passed in the options of the requests
+     * @param promise Resolves the number of cancelled requests
+     */
+    @Override
+    public void cancelHostRequests(String cancelToken, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (cancelToken == null || cancelToken.isEmpty()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        responseMap.putInt(ResponseKey.result, mRequestScheduler.cancel(cancelToken));
+        promise.resolve(responseMap);
+    }
+
+    /**
+     * Sends a host request through the scheduler, a dropped request resolves the promise with its
+     * cancelled, timeout or send error.
+     */
+    private void scheduleHostRequest(HostRequestScheduler.Options options, Promise promise,
+                                     HostRequestScheduler.Request request) {
+        mRequestScheduler.submit(options, request, dropped -> promise.resolve(ConvertUtils.response2Map(dropped)));
+    }
+
+    /**
+     * getPageSize through the single-flight layer.
+     */
+    private void readPageSize(String notePath, int page, RequestHostCallback callback) {
+        mHostReads.read(HostSingleFlight.key("getPageSize", notePath, page),
+            hostCallback -> HostCommonAPI.getInstance().getPageSize(mPluginApp, notePath, page, hostCallback), callback);
+    }
+
+    /**
+     * getCurrentFilePath through the single-flight layer.
+     */
+    private void readCurrentFilePath(RequestHostCallback callback) {
+        mHostReads.read(HostSingleFlight.key("getCurrentFilePath"),
+            hostCallback -> HostCommonAPI.getInstance().getCurrentFilePath(mPluginApp, hostCallback), callback);
+    }
+
+    private interface PageTrailsCallback {
+        void onTrails(List<Trail> trails);
+
+        void onError(PluginAPIResponse response);
+    }
+
+    private interface SizedPageTrailsCallback {
+        void onTrails(List<Trail> trails, int pageWidth, int pageHeight);
+
+        void onError(PluginAPIResponse response);
+    }
+
+    private interface CachedPageCallback {
+        /**
+         * @param pageData The cached page, null if it cannot be served
+         */
+        void onPage(@Nullable PageCache.PageData pageData);
+    }
+
+    private interface CachedTrailsCallback {
+        /**
+         * @param trails The trails of the cached page, null if it cannot be served
+         */
+        void onTrails(@Nullable List<Trail> trails);
+    }
+
+    /**
+     * Gets a cached page, never one of the note open in the host.
+     * The open note changes in memory through undo/redo, the eraser or lasso edits without touching
+     * the file or firing pen-up, and the host has no change counter to stamp pages with.
+     * The open note is only looked up when there is a cached page to serve.
+     */
+    private void getCachedPage(String notePath, int page, CachedPageCallback callback) {
+        if (mPageCache.get(notePath, page) == null) {
+            callback.onPage(null);
+            return;
+        }
+        readCurrentFilePath(response -> {
+            if (!response.isSuccess()) {
+                callback.onPage(null);
+                return;
+            }
+            if (notePath.equals(response.getResult(String.class))) {
+                mPageCache.invalidate(notePath);
+                callback.onPage(null);
+                return;
+            }
+            callback.onPage(mPageCache.get(notePath, page));
+        });
+    }
+
+    /**
+     * Resolves the trails of a cached page, see getCachedPage.
+     * Gets null if the page is not served or one of its trails is no longer in the trail cache.
+     */
+    private void getCachedPageTrails(String notePath, int page, CachedTrailsCallback callback) {
+        getCachedPage(notePath, page, pageData -> {
+            if (pageData == null || pageData.uuids == null) {
+                callback.onTrails(null);
+                return;
+            }
+            List<Trail> trails = new ArrayList<>(pageData.uuids.size());
+            for (String uuid : pageData.uuids) {
+                Trail trail = mPluginApp.getTrail(uuid);
+                if (trail == null) {
+                    mPageCache.invalidate(notePath, page);
+                    callback.onTrails(null);
+                    return;
+                }
+                trails.add(trail);
+            }
+            callback.onTrails(trails);
+        });
+    }
+
+    private void cachePageTrails(String notePath, int page, List<Trail> trails) {
+        List<String> uuids = new ArrayList<>(trails.size());
+        for (Trail trail : trails) {
+            uuids.add(trail.getUUID());
+        }
+        mPageCache.put(notePath, page, new PageCache.PageData(uuids));
+    }
+
+    /**
+     * Reads the trails of a page from the page cache, or straight from the host's temp file
+     * into the trail cache, without converting them to maps.
+     */
+    private void readPageTrails(String notePath, int page, PageTrailsCallback callback) {
+        readPageTrails(notePath, page, DEFAULT_REQUEST_OPTIONS, callback);
+    }
+
+    /**
+     * @param options Priority and cancel token of the host read, unused when the page is cached
+     */
+    private void readPageTrails(String notePath, int page, HostRequestScheduler.Options options,
+                                PageTrailsCallback callback) {
+        getCachedPageTrails(notePath, page, cachedTrails -> {
+            if (cachedTrails != null) {
+                callback.onTrails(cachedTrails);
+                return;
+            }
+            readHostPageTrails(notePath, page, options, new PageTrailsCallback() {
+                @Override
+                public void onTrails(List<Trail> trails) {
+                    for (Trail trail : trails) {
+                        mPluginApp.addTrail(trail);
+                    }
+                    cachePageTrails(notePath, page, trails);
+                    callback.onTrails(trails);
+                }
+
+                @Override
+                public void onError(PluginAPIResponse response) {
+                    callback.onError(response);
+                }
+            });
+        });
+    }
+
+    /**
+     * Reads the trails of a page as the host exports it now, bypassing the page cache.
+     * The trails are not added to the trail cache, so cached trails edited in place
+     * and not yet written to the host are neither read nor replaced.
+     */
+    private void readHostPageTrails(String notePath, int page, HostRequestScheduler.Options options,
+                                    PageTrailsCallback callback) {
+        mRequestScheduler.submit(options, call -> HostCommonAPI.getInstance().getNotePageData(mPluginApp, page, notePath, response -> {
+            boolean delivered = call.complete();
+            if (!response.isSuccess()) {
+                if (delivered) {
+                    callback.onError(response);
+                }
+                return;
+            }
+            File tempFile = new File(response.getResult(String.class));
+            if (!delivered) {
+                tempFile.delete();
+                return;
+            }
+            List<Trail> trails;
+            try {
+                trails = FileUtils.readTrailsFromTemp(tempFile);
+            } catch (IOException e) {
+                Log.e(TAG, "readHostPageTrails read error", e);
+                callback.onError(new PluginAPIResponse(PluginAPIError.TRANSFER_DATA_ERROR));
+                return;
+            } finally {
+                tempFile.delete();
+            }
+            callback.onTrails(trails);
+        }), callback::onError);
+    }
+
+    /**
+     * readPageTrails together with the page size, which element bounds need.
+     */
+    private void loadPageTrails(String notePath, int page, SizedPageTrailsCallback callback) {
+        loadPageTrails(notePath, page, DEFAULT_REQUEST_OPTIONS, callback);
+    }
+
+    private void loadPageTrails(String notePath, int page, HostRequestScheduler.Options options,
+                                SizedPageTrailsCallback callback) {
+        readPageSize(notePath, page, sizeResponse -> {
+            if (!sizeResponse.isSuccess()) {
+                callback.onError(sizeResponse);
+                return;
+            }
+            SizeF size = sizeResponse.getResult(SizeF.class);
+            readPageTrails(notePath, page, options, new PageTrailsCallback() {
+                @Override
+                public void onTrails(List<Trail> trails) {
+                    callback.onTrails(trails, (int) size.getWidth(), (int) size.getHeight());
+                }
+
+                @Override
+                public void onError(PluginAPIResponse response) {
+                    callback.onError(response);
+                }
+            });
+        });
+    }
+
+    private interface PageIndexCallback {
+        void onIndex(PageSpatialIndex index);
+
+        void onError(PluginAPIResponse response);
+    }
+
+    /**
+     * Builds the spatial index of a page and caches it with the page.
+     */
+    private PageSpatialIndex buildPageIndex(String notePath, int page, List<Trail> trails,
+                                            int pageWidth, int pageHeight, List<RectF> boundsList) {
+        List<PageSpatialIndex.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < trails.size(); i++) {
+            Trail trail = trails.get(i);
+            RectF bounds = TrailGeometryUtils.getBounds(trail, pageWidth, pageHeight);
+            if (boundsList != null) {
+                boundsList.add(bounds);
+            }
+            if (bounds != null) {
+                entries.add(new PageSpatialIndex.Entry(trail.getUUID(), bounds, i));
+            }
+        }
+        PageSpatialIndex pageIndex = new PageSpatialIndex(entries, pageWidth, pageHeight);
+        PageCache.PageData pageData = mPageCache.get(notePath, page);
+        if (pageData == null) {
+            cachePageTrails(notePath, page, trails);
+            pageData = mPageCache.get(notePath, page);
+        }
+        if (pageData != null) {
+            pageData.setIndex(pageIndex);
+        }
+        return pageIndex;
+    }
+
+    /**
+     * Gets the spatial index of a page, building it from the page elements on a cache miss.
+     * Built indexes stay cached with the page, see getCachedPage.
+     */
+    private void loadPageIndex(String notePath, int page, PageIndexCallback callback) {
+        getCachedPage(notePath, page, pageData -> {
+            if (pageData != null && pageData.getIndex() != null) {
+                callback.onIndex(pageData.getIndex());
+                return;
+            }
+            loadPageTrails(notePath, page, new SizedPageTrailsCallback() {
+                @Override
+                public void onTrails(List<Trail> trails, int pageWidth, int pageHeight) {
+                    callback.onIndex(buildPageIndex(notePath, page, trails, pageWidth, pageHeight, null));
+                }
+
+                @Override
+                public void onError(PluginAPIResponse response) {
+                    callback.onError(response);
+                }
+            });
+        });
+    }
+
+    /**
+     * Resolves index entries to cached trails.
+     * @return The trails, or null if one of them is no longer cached and the index has to be rebuilt
+     */
+    private List<Trail> resolveEntries(List<PageSpatialIndex.Entry> entries) {
+        List<Trail> trails = new ArrayList<>();
+        for (PageSpatialIndex.Entry entry : entries) {
+            Trail trail = mPluginApp.getTrail(entry.uuid);
+            if (trail == null) {
+                return null;
+            }
+            trails.add(trail);
+        }
+        return trails;
+    }
+
+    /**
+     * Gets the elements of a page whose bounds intersect a rect.
+     * @param notePath Note file path
+     * @param page Page index
+     * @param rect Rect in page pixel coordinates: left/top/right/bottom
+     * @param promise Resolves the matching elements in drawing order
+     */
+    @Override
+    public void queryElementsInRect(String notePath, double page, ReadableMap rect, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (rect == null || !rect.hasKey(RectKey.LEFT) || !rect.hasKey(RectKey.TOP)
+            || !rect.hasKey(RectKey.RIGHT) || !rect.hasKey(RectKey.BOTTOM)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        float left = (float) rect.getDouble(RectKey.LEFT);
+        float top = (float) rect.getDouble(RectKey.TOP);
+        float right = (float) rect.getDouble(RectKey.RIGHT);
+        float bottom = (float) rect.getDouble(RectKey.BOTTOM);
+        queryElementsInRect(notePath, (int) page, Math.min(left, right), Math.min(top, bottom),
+            Math.max(left, right), Math.max(top, bottom), true, promise);
+    }
+
+    private void queryElementsInRect(String notePath, int page, float left, float top, float right, float bottom,
+                                     boolean retry, Promise promise) {
+        loadPageIndex(notePath, page, new PageIndexCallback() {
+            @Override
+            public void onIndex(PageSpatialIndex index) {
+                List<PageSpatialIndex.Entry> entries = index.query(left, top, right, bottom);
+                Collections.sort(entries, (a, b) -> Integer.compare(a.order, b.order));
+                List<Trail> trails = resolveEntries(entries);
+                if (trails == null && retry) {
+                    mPageCache.invalidate(notePath, page);
+                    queryElementsInRect(notePath, page, left, top, right, bottom, false, promise);
+                    return;
+                }
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+                responseMap.putArray(ResponseKey.result,
+                    trails == null ? Arguments.createArray() : ConvertUtils.trails2Array(trails));
+                promise.resolve(responseMap);
+            }
+
+            @Override
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
+
+    /**
+     * Gets the elements of a page within a radius of a point.
+     * Strokes are measured against their sample point polyline, other elements against their bounds.
+     * @param notePath Note file path
+     * @param page Page index
+     * @param point Point in page pixel coordinates: x/y
+     * @param radius Hit radius in pixels
+     * @param promise Resolves the hit elements, nearest first and topmost first on ties
+     */
+    @Override
+    public void hitTest(String notePath, double page, ReadableMap point, double radius, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (point == null || !point.hasKey("x") || !point.hasKey("y") || radius < 0) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        hitTest(notePath, (int) page, (float) point.getDouble("x"), (float) point.getDouble("y"),
+            (float) radius, true, promise);
+    }
+
+    private void hitTest(String notePath, int page, float x, float y, float radius, boolean retry, Promise promise) {
+        loadPageIndex(notePath, page, new PageIndexCallback() {
+            @Override
+            public void onIndex(PageSpatialIndex index) {
+                List<PageSpatialIndex.Entry> entries = index.query(x - radius, y - radius, x + radius, y + radius);
+                List<Trail> trails = resolveEntries(entries);
+                if (trails == null && retry) {
+                    mPageCache.invalidate(notePath, page);
+                    hitTest(notePath, page, x, y, radius, false, promise);
+                    return;
+                }
+                // {distance, order, position in entries}
+                List<double[]> hits = new ArrayList<>();
+                for (int i = 0; trails != null && i < trails.size(); i++) {
+                    PageSpatialIndex.Entry entry = entries.get(i);
+                    double distance = TrailGeometryUtils.distanceToTrail(trails.get(i), entry.bounds, x, y,
+                        index.getPageWidth(), index.getPageHeight());
+                    if (distance <= radius) {
+                        hits.add(new double[]{distance, entry.order, i});
+                    }
+                }
+                Collections.sort(hits, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(b[1], a[1]));
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+                WritableArray trailArray = Arguments.createArray();
+                for (double[] hit : hits) {
+                    trailArray.pushMap(ConvertUtils.trail2Map(trails.get((int) hit[2])));
+                }
+                responseMap.putArray(ResponseKey.result, trailArray);
+                promise.resolve(responseMap);
+            }
+
+            @Override
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
+
+    @Override
+    public void replaceElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
+
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+
+        // Queued modifications go first, so they cannot overwrite this write
+        mWriteQueue.flush();
+
+        HostCommonAPI.getInstance().replacePageTrails(mPluginApp, notePath, (int) page, trailArray, new RequestHostCallback() {
+
+            @Override
+            public void onResponse(PluginAPIResponse response) {
+
+                mPageCache.invalidate(notePath, (int) page);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+
+                if (response.isSuccess()) {
+                    unpinWrittenTrails(trailArray);
+                    responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
+                }
+                promise.resolve(responseMap);
+
+            }
+
+
+        });
+    }
+
+    @Override
+    public void insertElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+
+        // Queued modifications go first, so they cannot overwrite this write
+        mWriteQueue.flush();
+
+        HostCommonAPI.getInstance().insertPageTrails(mPluginApp, notePath, (int) page, trailArray, new RequestHostCallback() {
+
+            @Override
+            public void onResponse(PluginAPIResponse response) {
+
+                mPageCache.invalidate(notePath, (int) page);
+                WritableMap responseMap = ConvertUtils.response2Map(response);
+
+                if (response.isSuccess()) {
+                    unpinWrittenTrails(trailArray);
+                    responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
+                }
+                promise.resolve(responseMap);
+
+            }
+
+
+        });
+    }
+
+    @Override
+    public void modifyElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
+        if (mPluginApp == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            return;
+        }
+        if (HostCommonAPI.getInstance() == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            return;
+        }
+
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+
+
+        if (mWriteQueue.isEnabled() && mWriteQueue.enqueue(notePath, (int) page, trailArray, promise)) {
+            return;
+        }
+        writeModifiedElements(notePath, (int) page, trailArray,
+            Collections.singletonList(new ElementWriteQueue.PendingCall(promise, null)), null);
+    }
+
+    /**
+     * Writes modified elements to the host and resolves every call with the result,
+     * each with only the numInPage values of its own elements.
+     * @param onWritten Run after the host answered, may be null
+     */
+    private void writeModifiedElements(String notePath, int page, ReadableArray trailArray,
+                                       List<ElementWriteQueue.PendingCall> calls, @Nullable Runnable onWritten) {
+        if (HostCommonAPI.getInstance() == null) {
+            for (ElementWriteQueue.PendingCall call : calls) {
+                call.promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
+            }
+            if (onWritten != null) {
+                onWritten.run();
+            }
+            return;
+        }
+        HostCommonAPI.getInstance().modifyPageTrails(mPluginApp, notePath, page, trailArray, new RequestHostCallback() {
+
+            @Override
+            public void onResponse(PluginAPIResponse response) {
+
+                mPageCache.invalidate(notePath, page);
+                if (response.isSuccess()) {
+                    unpinWrittenTrails(trailArray);
+                }
+                List<Integer> modifyTrailNums = response.isSuccess() ? (List<Integer>) response.getResult() : null;
+                for (ElementWriteQueue.PendingCall call : calls) {
+                    WritableMap responseMap = ConvertUtils.response2Map(response);
+                    if (modifyTrailNums != null) {
+                        WritableArray numArr = Arguments.createArray();
+                        for (Integer num: modifyTrailNums) {
+                            if (call.owns(num)) {
+                                numArr.pushInt(num);
+                            }
+                        }
+                        responseMap.putArray(ResponseKey.result, numArr);
+                    }
+                    call.promise.resolve(responseMap);
+                }
+                if (onWritten != null) {
+                    onWritten.run();
                 }
-                promise.resolve(responseMap);
 
             }
 
@@ -858,10 +2495,21 @@ public class CommAPIModule extends NativePluginAPISpec {
         });
     }
 
-
+    /**
+     * Modifies page elements with patches that carry only the changed fields.
+     * Each patch is expanded to a partial element map with the element's identity fields
+     * (uuid, type, pageNum, numInPage) and the patched paths, so unchanged nested objects and
+     * point lists are neither sent over the bridge nor rebuilt; fields missing from the map keep their values.
+     * The identity fields come from the patch's uuid and type, or from the trail cache by uuid;
+     * the page is read only for patches that have no uuid.
+     * @param notePath Note file path
+     * @param page Page index
+     * @param patches [{numInPage, uuid?, type?, set: {path: value}}], a path is a top-level key or stroke.child,
+     *                e.g. stroke.penColor; other nested objects are rebuilt whole, so they can only be set whole
+     * @param promise Resolves the numInPage values of the modified elements, like modifyElements
+     */
     @Override
-    public void replaceElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
-
+    public void patchElements(String notePath, double page, ReadableArray patches, Promise promise) {
         if (mPluginApp == null) {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
             return;
@@ -870,68 +2518,259 @@ public class CommAPIModule extends NativePluginAPISpec {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
             return;
         }
-
         if (!FileUtils.isFileExists(notePath)) {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
             return;
         }
-
-
-        HostCommonAPI.getInstance().replacePageTrails(mPluginApp, notePath, (int) page, trailArray, new RequestHostCallback() {
-
+        if (patches == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        List<Map<String, Object>> patchMaps = new ArrayList<>(patches.size());
+        for (int i = 0; i < patches.size(); i++) {
+            Map<String, Object> patchMap = patch2ElementMap(patches.getMap(i));
+            if (patchMap == null) {
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+                return;
+            }
+            patchMaps.add(patchMap);
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        if (putPatchIdentities(patches, patchMaps, (int) page, null)) {
+            writePatchedElements(notePath, (int) page, patchMaps, promise);
+            return;
+        }
+        readPageTrails(notePath, (int) page, new PageTrailsCallback() {
             @Override
-            public void onResponse(PluginAPIResponse response) {
-
-                WritableMap responseMap = ConvertUtils.response2Map(response);
-
-                if (response.isSuccess()) {
-                    responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
+            public void onTrails(List<Trail> trails) {
+                Map<Integer, Trail> trailsByNum = new HashMap<>(trails.size() * 2);
+                for (Trail trail : trails) {
+                    trailsByNum.put(trail.getTrailNumInPage(), trail);
                 }
-                promise.resolve(responseMap);
-
+                if (!putPatchIdentities(patches, patchMaps, (int) page, trailsByNum)) {
+                    promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+                    return;
+                }
+                writePatchedElements(notePath, (int) page, patchMaps, promise);
             }
 
-
+            @Override
+            public void onError(PluginAPIResponse response) {
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
         });
     }
 
-    @Override
-    public void insertElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
-        if (mPluginApp == null) {
-            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
-            return;
+    private void writePatchedElements(String notePath, int page, List<Map<String, Object>> elementMaps, Promise promise) {
+        WritableArray elementArray = Arguments.createArray();
+        for (Map<String, Object> elementMap : elementMaps) {
+            elementArray.pushMap(Arguments.makeNativeMap(elementMap));
         }
-        if (HostCommonAPI.getInstance() == null) {
-            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
-            return;
+        // Queued full-element modifications go first, so a patch is not overwritten by an older state
+        mWriteQueue.flush();
+        writeModifiedElements(notePath, page, elementArray,
+            Collections.singletonList(new ElementWriteQueue.PendingCall(promise, null)), null);
+    }
+
+    /**
+     * Expands the set paths of a patch to a partial element map, without identity fields.
+     * Only stroke.* paths are merged natively, see readableMap2Stroke; the readers of the other
+     * nested objects build them from scratch, so a partial child map would drop their other fields.
+     * Setting stroke whole together with stroke.* paths is malformed: which one wins would depend on map order.
+     * @return The map, or null if the patch is malformed
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> patch2ElementMap(ReadableMap patch) {
+        if (patch == null || !patch.hasKey(TrailKey.TRAIL_NUM_IN_PAGE) || patch.isNull(TrailKey.TRAIL_NUM_IN_PAGE)
+                || !patch.hasKey("set") || patch.isNull("set")) {
+            return null;
+        }
+        Map<String, Object> set = patch.getMap("set").toHashMap();
+        boolean setsStroke = set.containsKey(TrailKey.STROKE);
+        Map<String, Object> elementMap = new HashMap<>();
+        for (Map.Entry<String, Object> entry : set.entrySet()) {
+            String path = entry.getKey();
+            int dot = path.indexOf('.');
+            if (dot < 0) {
+                elementMap.put(path, entry.getValue());
+                continue;
+            }
+            if (setsStroke) {
+                return null;
+            }
+            if (dot == path.length() - 1 || path.indexOf('.', dot + 1) >= 0
+                    || !TrailKey.STROKE.equals(path.substring(0, dot))) {
+                return null;
+            }
+            Object child = elementMap.get(TrailKey.STROKE);
+            if (!(child instanceof Map)) {
+                child = new HashMap<String, Object>();
+                elementMap.put(TrailKey.STROKE, child);
+            }
+            ((Map<String, Object>) child).put(path.substring(dot + 1), entry.getValue());
         }
+        return elementMap;
+    }
 
-        if (!FileUtils.isFileExists(notePath)) {
-            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
-            return;
+    /**
+     * Puts the identity fields of each patched element into its map, last, so a patch cannot retarget it.
+     * @param trailsByNum Trails of the page, null to use only the patches and the trail cache
+     * @return false if an element could not be identified, or its cached trail does not match the patch
+     */
+    private boolean putPatchIdentities(ReadableArray patches, List<Map<String, Object>> elementMaps, int page,
+                                       @Nullable Map<Integer, Trail> trailsByNum) {
+        for (int i = 0; i < patches.size(); i++) {
+            ReadableMap patch = patches.getMap(i);
+            int trailNum = patch.getInt(TrailKey.TRAIL_NUM_IN_PAGE);
+            String uuid = patch.hasKey(TrailKey.UUID) && !patch.isNull(TrailKey.UUID) ? patch.getString(TrailKey.UUID) : null;
+            Trail trail = null;
+            int type;
+            if (uuid != null && patch.hasKey(TrailKey.TYPE) && !patch.isNull(TrailKey.TYPE)) {
+                type = patch.getInt(TrailKey.TYPE);
+            } else {
+                if (uuid != null) {
+                    trail = mPluginApp.getTrail(uuid);
+                }
+                if (trail == null && trailsByNum != null) {
+                    trail = trailsByNum.get(trailNum);
+                }
+                if (trail == null || trail.getTrailNumInPage() != trailNum || trail.getPageNum() != page
+                        || (uuid != null && !uuid.equals(trail.getUUID()))) {
+                    return false;
+                }
+                uuid = trail.getUUID();
+                type = trail.getType();
+            }
+            Map<String, Object> elementMap = elementMaps.get(i);
+            elementMap.put(TrailKey.UUID, uuid);
+            elementMap.put(TrailKey.TYPE, type);
+            elementMap.put(TrailKey.PAGE_NUM, page);
+            elementMap.put(TrailKey.TRAIL_NUM_IN_PAGE, trailNum);
         }
+        return true;
+    }
 
+    /**
+     * Turns the modifyElements write-behind queue on or off.
+     * While on, modifications of the same element within the window are merged and only the latest
+     * state is written; pending writes are flushed on flushElementWrites and when the plugin stops.
+     * @param windowMs Coalescing window in ms, 0 turns the queue off and flushes it
+     */
+    @Override
+    public void setElementWriteCoalescing(double windowMs) {
+        if (mWriteQueue != null) {
+            mWriteQueue.setWindow((long) windowMs);
+        }
+    }
 
-        HostCommonAPI.getInstance().insertPageTrails(mPluginApp, notePath, (int) page, trailArray, new RequestHostCallback() {
+    /**
+     * Writes all queued modifyElements calls now.
+     */
+    @Override
+    public void flushElementWrites() {
+        if (mWriteQueue != null) {
+            mWriteQueue.flush();
+        }
+    }
 
-            @Override
-            public void onResponse(PluginAPIResponse response) {
+    // Open element transactions by id
+    private final Map<String, ElementTransaction> mTransactions = new ConcurrentHashMap<>();
+    private final AtomicInteger mTransactionSeq = new AtomicInteger();
+    // Time a transaction may stay open without a staged write before it is discarded
+    private static final long TRANSACTION_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
 
-                WritableMap responseMap = ConvertUtils.response2Map(response);
+    /**
+     * Discards transactions that were neither staged to nor committed within TRANSACTION_IDLE_TIMEOUT_MS.
+     */
+    private void expireIdleTransactions() {
+        Iterator<Map.Entry<String, ElementTransaction>> iterator = mTransactions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ElementTransaction> entry = iterator.next();
+            if (entry.getValue().isIdle(TRANSACTION_IDLE_TIMEOUT_MS)) {
+                Log.w(TAG, "expireIdleTransactions discard: " + entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
 
-                if (response.isSuccess()) {
-                    responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
-                }
-                promise.resolve(responseMap);
+    /**
+     * Starts buffering element writes, see stageElementWrite and commitElementTransaction.
+     * Transactions left idle for TRANSACTION_IDLE_TIMEOUT_MS are discarded.
+     * @param promise Resolves the transaction id
+     */
+    @Override
+    public void beginElementTransaction(Promise promise) {
+        expireIdleTransactions();
+        String transactionId = "tx-" + mTransactionSeq.incrementAndGet();
+        mTransactions.put(transactionId, new ElementTransaction(transactionId));
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        responseMap.putString(ResponseKey.result, transactionId);
+        promise.resolve(responseMap);
+    }
 
+    /**
+     * Buffers a page write in a transaction. Nothing is sent to the host before commit.
+     * @param transactionId Id from beginElementTransaction
+     * @param op insert, modify, replace or delete
+     * @param notePath Note file path
+     * @param page Page index
+     * @param elements Elements for insert, modify and replace; numInPage values for delete
+     */
+    @Override
+    public void stageElementWrite(String transactionId, String op, String notePath, double page,
+                                  ReadableArray elements, Promise promise) {
+        expireIdleTransactions();
+        ElementTransaction transaction = mTransactions.get(transactionId);
+        if (transaction == null || !ElementTransaction.isValidOp(op) || elements == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (!FileUtils.isFileExists(notePath)) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+            return;
+        }
+        if (ElementTransaction.OP_DELETE.equals(op)) {
+            Set<Integer> trailNums = new HashSet<>();
+            for (int i = 0; i < elements.size(); i++) {
+                trailNums.add(elements.getInt(i));
             }
+            transaction.add(new ElementTransaction.Op(op, notePath, (int) page, null, trailNums));
+        } else {
+            // Copied out of the bridge array, which is only valid for this call
+            transaction.add(new ElementTransaction.Op(op, notePath, (int) page, elements.toArrayList(), null));
+        }
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(true);
+        WritableMap responseMap = ConvertUtils.response2Map(response);
+        responseMap.putBoolean(ResponseKey.result, true);
+        promise.resolve(responseMap);
+    }
 
-
-        });
+    /**
+     * Discards a transaction without writing anything.
+     */
+    @Override
+    public void rollbackElementTransaction(String transactionId) {
+        mTransactions.remove(transactionId);
     }
 
+    /**
+     * Applies the staged writes of a transaction in order, best-effort rather than atomically.
+     * Queued modifyElements writes are flushed and answered first, then every touched page is
+     * snapshotted from a fresh host read, so a snapshot holds neither cached edits that were never
+     * written nor predates acknowledged writes; if a write fails, the pages already written
+     * are replaced with their snapshots before the error is resolved.
+     * Each op is its own host call and other writers are not blocked meanwhile, so a rollback also
+     * reverts writes made to those pages by others during the commit.
+     * @param transactionId Id from beginElementTransaction
+     */
     @Override
-    public void modifyElements(String notePath, double page, ReadableArray trailArray, Promise promise) {
+    public void commitElementTransaction(String transactionId, Promise promise) {
         if (mPluginApp == null) {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
             return;
@@ -940,39 +2779,162 @@ public class CommAPIModule extends NativePluginAPISpec {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
             return;
         }
-
-        if (!FileUtils.isFileExists(notePath)) {
-            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+        ElementTransaction transaction = mTransactions.remove(transactionId);
+        if (transaction == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
             return;
         }
+        List<ElementTransaction.Op> ops = transaction.getOps();
+        for (ElementTransaction.Op op : ops) {
+            if (!FileUtils.isFileExists(op.notePath)) {
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_NOT_EXISTS)));
+                return;
+            }
+        }
+        if (!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        if (mWriteQueue == null) {
+            snapshotTransactionPages(ops, 0, new LinkedHashMap<>(), promise);
+            return;
+        }
+        mWriteQueue.flush(() -> snapshotTransactionPages(ops, 0, new LinkedHashMap<>(), promise));
+    }
 
-
-        HostCommonAPI.getInstance().modifyPageTrails(mPluginApp, notePath, (int) page, trailArray, new RequestHostCallback() {
-
+    private void snapshotTransactionPages(List<ElementTransaction.Op> ops, int index,
+                                          Map<String, WritableArray> snapshots, Promise promise) {
+        if (index == ops.size()) {
+            applyTransactionOp(ops, 0, snapshots, new LinkedHashSet<>(), promise);
+            return;
+        }
+        ElementTransaction.Op op = ops.get(index);
+        if (snapshots.containsKey(op.pageKey())) {
+            snapshotTransactionPages(ops, index + 1, snapshots, promise);
+            return;
+        }
+        readHostPageTrails(op.notePath, op.page, DEFAULT_REQUEST_OPTIONS, new PageTrailsCallback() {
             @Override
-            public void onResponse(PluginAPIResponse response) {
+            public void onTrails(List<Trail> trails) {
+                snapshots.put(op.pageKey(), ConvertUtils.trails2Array(trails));
+                snapshotTransactionPages(ops, index + 1, snapshots, promise);
+            }
 
-                WritableMap responseMap = ConvertUtils.response2Map(response);
+            @Override
+            public void onError(PluginAPIResponse response) {
+                // Nothing written yet
+                promise.resolve(ConvertUtils.response2Map(response));
+            }
+        });
+    }
 
-                if (response.isSuccess()) {
-                    List<Integer> modifyTrailNums = (List<Integer>) response.getResult();
-                    WritableArray numArr = Arguments.createArray();
-                    for (Integer num: modifyTrailNums) {
-                        numArr.pushInt(num);
-                    }
-                    responseMap.putArray(ResponseKey.result, numArr);
+    private void applyTransactionOp(List<ElementTransaction.Op> ops, int index, Map<String, WritableArray> snapshots,
+                                    Set<String> writtenPages, Promise promise) {
+        if (index == ops.size()) {
+            // Committed, a rolled back transaction keeps its elements pinned
+            for (ElementTransaction.Op op : ops) {
+                if (op.elements != null) {
+                    unpinWrittenTrails(Arguments.makeNativeArray(op.elements));
                 }
-                promise.resolve(responseMap);
-
             }
+            PluginAPIResponse response = new PluginAPIResponse();
+            response.setSuccess(true);
+            WritableMap responseMap = ConvertUtils.response2Map(response);
+            responseMap.putBoolean(ResponseKey.result, true);
+            promise.resolve(responseMap);
+            return;
+        }
+        ElementTransaction.Op op = ops.get(index);
+        RequestHostCallback callback = response -> {
+            mPageCache.invalidate(op.notePath, op.page);
+            writtenPages.add(op.pageKey());
+            if (response.isSuccess()) {
+                applyTransactionOp(ops, index + 1, snapshots, writtenPages, promise);
+            } else {
+                rollbackTransactionPages(ops, new ArrayList<>(writtenPages), snapshots, new ArrayList<>(),
+                    response, promise);
+            }
+        };
+        HostCommonAPI hostAPI = HostCommonAPI.getInstance();
+        switch (op.type) {
+            case ElementTransaction.OP_INSERT:
+                hostAPI.insertPageTrails(mPluginApp, op.notePath, op.page, Arguments.makeNativeArray(op.elements), callback);
+                break;
+            case ElementTransaction.OP_MODIFY:
+                hostAPI.modifyPageTrails(mPluginApp, op.notePath, op.page, Arguments.makeNativeArray(op.elements), callback);
+                break;
+            case ElementTransaction.OP_REPLACE:
+                hostAPI.replacePageTrails(mPluginApp, op.notePath, op.page, Arguments.makeNativeArray(op.elements), callback);
+                break;
+            default:
+                // Delete: replace the page with the trails that are not deleted, as the host stores them
+                readHostPageTrails(op.notePath, op.page, DEFAULT_REQUEST_OPTIONS, new PageTrailsCallback() {
+                    @Override
+                    public void onTrails(List<Trail> trails) {
+                        List<Trail> keptTrails = new ArrayList<>(trails.size());
+                        for (Trail trail : trails) {
+                            if (!op.trailNums.contains(trail.getTrailNumInPage())) {
+                                keptTrails.add(trail);
+                            }
+                        }
+                        hostAPI.replacePageTrails(mPluginApp, op.notePath, op.page,
+                            ConvertUtils.trails2Array(keptTrails), callback);
+                    }
 
+                    @Override
+                    public void onError(PluginAPIResponse response) {
+                        rollbackTransactionPages(ops, new ArrayList<>(writtenPages), snapshots, new ArrayList<>(),
+                            response, promise);
+                    }
+                });
+                break;
+        }
+    }
 
-        });
+    /**
+     * Restores written pages from their snapshots one by one, then resolves the original error,
+     * or ERROR_ROLLBACK_INCOMPLETE listing the pages that could not be restored.
+     * @param failedPages Collects the keys of pages whose restore failed
+     */
+    private void rollbackTransactionPages(List<ElementTransaction.Op> ops, List<String> pageKeys,
+                                          Map<String, WritableArray> snapshots, List<String> failedPages,
+                                          PluginAPIResponse error, Promise promise) {
+        if (pageKeys.isEmpty()) {
+            if (failedPages.isEmpty()) {
+                promise.resolve(ConvertUtils.response2Map(error));
+                return;
+            }
+            String writeError = error.getError() == null ? "" : error.getError().getMessage();
+            PluginAPIResponse response = new PluginAPIResponse();
+            response.setSuccess(false);
+            response.setError(new PluginAPIResponseError(ElementTransaction.ERROR_ROLLBACK_INCOMPLETE,
+                "Rollback incomplete, pages not restored: " + failedPages + ", write error: " + writeError));
+            promise.resolve(ConvertUtils.response2Map(response));
+            return;
+        }
+        String pageKey = pageKeys.remove(pageKeys.size() - 1);
+        ElementTransaction.Op pageOp = null;
+        for (ElementTransaction.Op op : ops) {
+            if (op.pageKey().equals(pageKey)) {
+                pageOp = op;
+                break;
+            }
+        }
+        ElementTransaction.Op restoreOp = pageOp;
+        HostCommonAPI.getInstance().replacePageTrails(mPluginApp, restoreOp.notePath, restoreOp.page,
+            snapshots.get(pageKey), response -> {
+                mPageCache.invalidate(restoreOp.notePath, restoreOp.page);
+                if (!response.isSuccess()) {
+                    Log.e(TAG, "rollbackTransactionPages restore failed: " + pageKey);
+                    failedPages.add(pageKey);
+                }
+                rollbackTransactionPages(ops, pageKeys, snapshots, failedPages, error, promise);
+            });
     }
 
     // TODO The APIs below still need verification
     @Override
-    public void getLassoElements(Promise promise) {
+    public void getLassoElements(@Nullable ReadableMap query, Promise promise) {
         if (mPluginApp == null) {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
 
@@ -982,10 +2944,31 @@ public class CommAPIModule extends NativePluginAPISpec {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.HOST_API_NO_INIT)));
             return;
         }
-        HostCommonAPI.getInstance().getLassoData(mPluginApp, new RequestHostCallback() {
+        // Lasso reads answer the user's selection, they go ahead of page reads by default
+        HostRequestScheduler.Options requestOptions =
+            HostRequestScheduler.Options.fromMap(query, HostRequestScheduler.PRIORITY_INTERACTIVE);
+        if (requestOptions == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        if (query != null) {
+            ElementQuery elementQuery = ElementQuery.fromMap(query);
+            if (elementQuery == null) {
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+                return;
+            }
+            getQueriedLassoElements(elementQuery, requestOptions, promise);
+            return;
+        }
+        scheduleHostRequest(requestOptions, promise, call -> HostCommonAPI.getInstance().getLassoData(mPluginApp, new RequestHostCallback() {
             @Override
             public void onResponse(PluginAPIResponse response) {
-
+                if (!call.complete()) {
+                    if (response.isSuccess()) {
+                        new File(response.getResult(String.class)).delete();
+                    }
+                    return;
+                }
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     String result = response.getResult(String.class);
@@ -995,7 +2978,65 @@ public class CommAPIModule extends NativePluginAPISpec {
                 promise.resolve(responseMap);
 
             }
-        });
+        }));
+    }
+
+    /**
+     * Lasso elements filtered in Java: the lasso temp file is read into trails first,
+     * so only the matching trails are converted to maps.
+     */
+    private void getQueriedLassoElements(ElementQuery query, HostRequestScheduler.Options requestOptions, Promise promise) {
+        if(!mPluginApp.checkTrailCache()) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRAIL_CACHE_OUT_MEMORY)));
+            return;
+        }
+        scheduleHostRequest(requestOptions, promise, call -> HostCommonAPI.getInstance().getLassoData(mPluginApp, response -> {
+            boolean delivered = call.complete();
+            if (!response.isSuccess()) {
+                if (delivered) {
+                    promise.resolve(ConvertUtils.response2Map(response));
+                }
+                return;
+            }
+            File tempFile = new File(response.getResult(String.class));
+            if (!delivered) {
+                tempFile.delete();
+                return;
+            }
+            List<Trail> trails;
+            try {
+                trails = FileUtils.readTrailsFromTemp(tempFile);
+            } catch (IOException e) {
+                Log.e(TAG, "getLassoElements read error", e);
+                promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.TRANSFER_DATA_ERROR)));
+                return;
+            } finally {
+                tempFile.delete();
+            }
+            for (Trail trail : trails) {
+                mPluginApp.addTrail(trail);
+            }
+            if (!query.needsBounds() || trails.isEmpty()) {
+                resolveQueriedTrails(trails, query, 0, 0, promise);
+                return;
+            }
+            // Lasso elements all lie on the current page, its size is needed for the bounds
+            readCurrentFilePath(pathResponse -> {
+                if (!pathResponse.isSuccess()) {
+                    promise.resolve(ConvertUtils.response2Map(pathResponse));
+                    return;
+                }
+                String notePath = pathResponse.getResult(String.class);
+                readPageSize(notePath, trails.get(0).getPageNum(), sizeResponse -> {
+                    if (!sizeResponse.isSuccess()) {
+                        promise.resolve(ConvertUtils.response2Map(sizeResponse));
+                        return;
+                    }
+                    SizeF size = sizeResponse.getResult(SizeF.class);
+                    resolveQueriedTrails(trails, query, (int) size.getWidth(), (int) size.getHeight(), promise);
+                });
+            });
+        }));
     }
 
     @Override
@@ -1042,6 +3083,8 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
         HostCommonAPI.getInstance().deleteLassoData(mPluginApp, response -> {
+            // The lasso page is not known here, drop all indexes
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1067,7 +3110,8 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().getPageLayers(mPluginApp, notePath, (int) page, response -> {
+        mHostReads.read(HostSingleFlight.key("getPageLayers", notePath, (int) page),
+            hostCallback -> HostCommonAPI.getInstance().getPageLayers(mPluginApp, notePath, (int) page, hostCallback), response -> {
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess() && response.getResult() != null) {
                 List<Layer> layers = (List<Layer>) response.getResult();
@@ -1098,7 +3142,9 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().modifyLayers(mPluginApp, notePath, (int) page, layers, response -> {
+            mPageCache.invalidate(notePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess() && response.getResult() != null) {
                 List<Integer> ids = (List<Integer>) response.getResult();
@@ -1128,7 +3174,9 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().insertLayer(mPluginApp, notePath, (int) page, layer, response -> {
+            mPageCache.invalidate(notePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess() && response.getResult() != null) {
                 responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -1153,7 +3201,9 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().deleteLayers(mPluginApp, notePath, (int) page, layerIds, response -> {
+            mPageCache.invalidate(notePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess() && response.getResult() != null) {
                 responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -1178,7 +3228,9 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().sortLayers(mPluginApp, notePath, (int) page, layerIds, response -> {
+            mPageCache.invalidate(notePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess() && response.getResult() != null) {
                 responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -1239,6 +3291,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }*/
 
         HostCommonAPI.getInstance().setLassoStrokeLink(mPluginApp, paramsMap, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putInt(ResponseKey.result, (Integer) response.getResult());
@@ -1260,6 +3313,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
 
         HostCommonAPI.getInstance().insertTextLink(mPluginApp, textLink, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putInt(ResponseKey.result, (Integer) response.getResult());
@@ -1285,6 +3339,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
         HostCommonAPI.getInstance().modifyLassoLink(mPluginApp, linkMap,
             response -> {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1310,6 +3365,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
 
         HostCommonAPI.getInstance().setLassoTitle(mPluginApp,  titleParams, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1403,6 +3459,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
         HostCommonAPI.getInstance().modifyLassoTitle(mPluginApp, titleParams,
             response -> {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1540,6 +3597,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
         HostCommonAPI.getInstance().insertText(mPluginApp, textMap, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1569,6 +3627,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
         HostCommonAPI.getInstance().modifyLassoText(mPluginApp, textMap, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1611,7 +3670,7 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().getCurrentFilePath(mPluginApp,
+        readCurrentFilePath(
             response -> {
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
@@ -1636,7 +3695,9 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().reLoadNote(mPluginApp, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1657,7 +3718,8 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
 
-        HostCommonAPI.getInstance().getNoteTotalPageNum(mPluginApp, notePath, response -> {
+        mHostReads.read(HostSingleFlight.key("getNoteTotalPageNum", notePath),
+            hostCallback -> HostCommonAPI.getInstance().getNoteTotalPageNum(mPluginApp, notePath, hostCallback), response -> {
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putInt(ResponseKey.result, (Integer) response.getResult());
@@ -1712,6 +3774,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
         HostCommonAPI.getInstance().insertGeometry(mPluginApp, geometry, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1741,6 +3804,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
         HostCommonAPI.getInstance().modifyLassoGeometry(mPluginApp, geometry, response -> {
+            mPageCache.clear();
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -1767,6 +3831,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
 
         HostCommonAPI.getInstance().clearPageLayerData(mPluginApp, notePath, (int) page, (int) layer, response -> {
+            mPageCache.invalidate(notePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 if (response.isSuccess()) {
@@ -1795,6 +3860,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
 
         HostCommonAPI.getInstance().clearMarkTrails(mPluginApp, filePath, (int) page, response -> {
+            mPageCache.invalidate(filePath, (int) page);
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 if (response.isSuccess()) {
@@ -1850,7 +3916,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
 
-        HostCommonAPI.getInstance().getPageSize(mPluginApp, notePath, (int) page, response -> {
+        readPageSize(notePath, (int) page, response -> {
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 SizeF size = response.getResult(SizeF.class);
@@ -1881,7 +3947,8 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
 
 
-        HostCommonAPI.getInstance().getNoteMachineType(mPluginApp, notePath, response -> {
+        mHostReads.read(HostSingleFlight.key("getNoteMachineType", notePath),
+            hostCallback -> HostCommonAPI.getInstance().getNoteMachineType(mPluginApp, notePath, hostCallback), response -> {
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putInt(ResponseKey.result, response.getResult(Integer.class));
@@ -1913,13 +3980,27 @@ public class CommAPIModule extends NativePluginAPISpec {
         }*/
 
 
-        HostCommonAPI.getInstance().generateNotePng(mPluginApp, params, response -> {
+        HostRequestScheduler.Options requestOptions =
+            HostRequestScheduler.Options.fromMap(params, HostRequestScheduler.PRIORITY_BACKGROUND);
+        if (requestOptions == null) {
+            promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.API_PARAMS_INVALID)));
+            return;
+        }
+        // The scheduling keys are not part of the host's parameters
+        Map<String, Object> hostParams = params.toHashMap();
+        hostParams.remove(HostRequestScheduler.KEY_PRIORITY);
+        hostParams.remove(HostRequestScheduler.KEY_CANCEL_TOKEN);
+        ReadableMap pngParams = Arguments.makeNativeMap(hostParams);
+        scheduleHostRequest(requestOptions, promise, call -> HostCommonAPI.getInstance().generateNotePng(mPluginApp, pngParams, response -> {
+            if (!call.complete()) {
+                return;
+            }
             WritableMap responseMap = ConvertUtils.response2Map(response);
             if (response.isSuccess()) {
                 responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
             }
             promise.resolve(responseMap);
-        });
+        }));
     }
 
 
@@ -1995,8 +4076,10 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().removeNotePage(mPluginApp, notePath, (int) page,
             (RequestHostCallback) response -> {
+                mPageCache.invalidate(notePath);
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -2017,9 +4100,13 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
+        mHostReads.forget();
         HostCommonAPI.getInstance().insertNotePage(mPluginApp,
             params,
             (RequestHostCallback) response -> {
+                if (params.hasKey("notePath")) {
+                    mPageCache.invalidate(params.getString("notePath"));
+                }
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
@@ -2073,14 +4160,16 @@ public class CommAPIModule extends NativePluginAPISpec {
             promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.FILE_PATH_WRONG)));
             return;
         }
-        HostCommonAPI.getInstance().generateNoteStylePng(mPluginApp, notePath, (int) page, pngPath,
+        scheduleHostRequest(BACKGROUND_REQUEST_OPTIONS, promise, call ->
+            HostCommonAPI.getInstance().generateNoteStylePng(mPluginApp, notePath, (int) page, pngPath,
             response -> {
+                call.complete();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
                 }
                 promise.resolve(responseMap);
-            });
+            }));
     }
 
     @Override
@@ -2133,8 +4222,10 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().generateMarkThumbnails(mPluginApp, notePath, (int) page, pngPath, ConvertUtils.map2Size(size),
+        scheduleHostRequest(BACKGROUND_REQUEST_OPTIONS, promise, call ->
+            HostCommonAPI.getInstance().generateMarkThumbnails(mPluginApp, notePath, (int) page, pngPath, ConvertUtils.map2Size(size),
             response -> {
+                call.complete();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
 
                 if (response.isSuccess()) {
@@ -2142,7 +4233,7 @@ public class CommAPIModule extends NativePluginAPISpec {
                     responseMap.putBoolean(ResponseKey.result, response.getResult(Boolean.class));
                 }
                 promise.resolve(responseMap);
-            });
+            }));
 
     }
 
@@ -2325,15 +4416,26 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().getElementCounts(mPluginApp, notePath, (int) page,
-            response -> {
+        getCachedPageTrails(notePath, (int) page, cachedTrails -> {
+            if (cachedTrails != null) {
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
                 WritableMap responseMap = ConvertUtils.response2Map(response);
-
-                if (response.isSuccess()) {
-                    responseMap.putInt(ResponseKey.result, response.getResult(Integer.class));
-                }
+                responseMap.putInt(ResponseKey.result, cachedTrails.size());
                 promise.resolve(responseMap);
-            });
+                return;
+            }
+
+            HostCommonAPI.getInstance().getElementCounts(mPluginApp, notePath, (int) page,
+                response -> {
+                    WritableMap responseMap = ConvertUtils.response2Map(response);
+
+                    if (response.isSuccess()) {
+                        responseMap.putInt(ResponseKey.result, response.getResult(Integer.class));
+                    }
+                    promise.resolve(responseMap);
+                });
+        });
     }
 
     @Override
@@ -2352,20 +4454,35 @@ public class CommAPIModule extends NativePluginAPISpec {
             return;
         }
 
-        HostCommonAPI.getInstance().getElementNumList(mPluginApp, notePath, (int) page,
-            response -> {
+        getCachedPageTrails(notePath, (int) page, cachedTrails -> {
+            if (cachedTrails != null) {
+                PluginAPIResponse response = new PluginAPIResponse();
+                response.setSuccess(true);
                 WritableMap responseMap = ConvertUtils.response2Map(response);
-
-                if (response.isSuccess()) {
-                    WritableArray array = Arguments.createArray();
-                    List<Integer> numList = (List<Integer>) response.getResult();
-                    for (Integer num : numList) {
-                        array.pushInt(num);
-                    }
-                    responseMap.putArray(ResponseKey.result, array);
+                WritableArray array = Arguments.createArray();
+                for (Trail trail : cachedTrails) {
+                    array.pushInt(trail.getTrailNumInPage());
                 }
+                responseMap.putArray(ResponseKey.result, array);
                 promise.resolve(responseMap);
-            });
+                return;
+            }
+
+            HostCommonAPI.getInstance().getElementNumList(mPluginApp, notePath, (int) page,
+                response -> {
+                    WritableMap responseMap = ConvertUtils.response2Map(response);
+
+                    if (response.isSuccess()) {
+                        WritableArray array = Arguments.createArray();
+                        List<Integer> numList = (List<Integer>) response.getResult();
+                        for (Integer num : numList) {
+                            array.pushInt(num);
+                        }
+                        responseMap.putArray(ResponseKey.result, array);
+                    }
+                    promise.resolve(responseMap);
+                });
+        });
     }
 
     @Override
@@ -2435,6 +4552,14 @@ public class CommAPIModule extends NativePluginAPISpec {
             });
     }
 
+    /**
+     * Drops all cached pages. Called by the RN side on every pen-up event.
+     */
+    @Override
+    public void clearPageCache() {
+        mPageCache.clear();
+    }
+
     @Override
     public void registerEventListener(String event, double registerType) {
         try {
@@ -2466,6 +4591,7 @@ public class CommAPIModule extends NativePluginAPISpec {
         }
         HostCommonAPI.getInstance().insertFiveStar(mPluginApp,starPoints,
             response -> {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
@@ -2488,6 +4614,7 @@ public class CommAPIModule extends NativePluginAPISpec {
 
         HostCommonAPI.getInstance().insertImage(mPluginApp, pngPath,
             response -> {
+                mPageCache.clear();
                 WritableMap responseMap = ConvertUtils.response2Map(response);
                 if (response.isSuccess()) {
                     responseMap.putBoolean(ResponseKey.result, (Boolean) response.getResult());
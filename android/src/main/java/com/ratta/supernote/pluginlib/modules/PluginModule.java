@@ -16,6 +16,7 @@ import com.ratta.supernote.pluginlib.NativePluginManagerSpec;
 import com.ratta.supernote.pluginlib.api.PluginButtonAPI;
 import com.ratta.supernote.pluginlib.core.PluginAppAPI;
 import com.ratta.supernote.pluginlib.utils.DeviceUtils;
+import com.ratta.supernote.pluginlib.utils.ElementWriteQueue;
 import com.ratta.supernote.pluginlib.utils.UiHandler;
 
 import java.text.Normalizer;
@@ -34,10 +35,20 @@ public class PluginModule extends NativePluginManagerSpec {
         this.pluginApp = pluginApp;
         if(pluginApp != null) {
             pluginApp.setPluginModule(this);
+            // Evicted trails go to disk, JS may still hold their uuids
+            pluginApp.enableTrailSpill();
 
         }
     }
 
+    @Override
+    public void invalidate() {
+        if(pluginApp != null) {
+            pluginApp.releaseTrailSpill();
+        }
+        super.invalidate();
+    }
+
     public void sendData2RN(String dataName, Object data) {
         Log.i(TAG,"sendData2RN dataName:"+dataName);
         Log.i(TAG,"sendData2RN mReactContext:"+mReactContext);
@@ -61,6 +72,8 @@ public class PluginModule extends NativePluginManagerSpec {
     @Override
     public void onStop() {
         if(pluginApp != null) {
+            // Write out coalesced modifyElements calls before the plugin stops
+            ElementWriteQueue.forPlugin(pluginApp).flush();
             pluginApp.onStop();
         }
 
@@ -15,17 +15,23 @@ import static com.ratta.supernote.pluginlib.constant.Constant.dexDependencies;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.text.TextUtils;
+import android.util.Base64;
 import android.util.Log;
 import android.util.SizeF;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.ratta.supernote.plugincommon.data.common.trail.Picture;
+import com.ratta.supernote.pluginlib.bean.PackedStroke;
 import com.ratta.supernote.pluginlib.constant.paramkey.LayerKey;
+import com.ratta.supernote.pluginlib.constant.paramkey.RectKey;
 import com.ratta.supernote.pluginlib.constant.paramkey.ResponseKey;
 import com.ratta.supernote.pluginlib.constant.paramkey.TextKey;
 import com.ratta.supernote.pluginlib.constant.paramkey.TrailKey;
@@ -49,9 +55,17 @@ import com.ratta.supernote.plugincommon.error.PluginException;
 import com.ratta.supernote.plugincommon.response.PluginAPIResponse;
 import com.ratta.supernote.plugincommon.response.PluginAPIResponseError;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Data conversion utilities.
@@ -104,28 +118,182 @@ public class ConvertUtils {
 
     // Internal helper methods
     public static WritableMap trail2Map(Trail trail) {
+        return trail2Map(trail, null, null);
+    }
+
+    // Trails converted by one fork-join leaf task
+    private static final int CONVERT_CHUNK_SIZE = 64;
+    // Estimated serial conversion time from which the pool is tried, well above the cost of forking
+    private static final long PARALLEL_MIN_NANOS = 4_000_000L;
+    // Weight of the newest run in the measured averages, in 1/8
+    private static final int AVERAGE_WEIGHT = 2;
+
+    private static final int CONVERT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static volatile ForkJoinPool sConvertPool;
+
+    // Measured conversion time per trail on this device, 0 until measured
+    private static volatile long sSerialNanosPerTrail;
+    private static volatile long sParallelNanosPerTrail;
+
+    private static ForkJoinPool getConvertPool() {
+        if (sConvertPool == null) {
+            synchronized (ConvertUtils.class) {
+                if (sConvertPool == null) {
+                    sConvertPool = new ForkJoinPool(CONVERT_PARALLELISM);
+                }
+            }
+        }
+        return sConvertPool;
+    }
+
+    public static WritableArray trails2Array(List<Trail> trails) {
+        return trails2Array(trails, null, null);
+    }
+
+    /**
+     * Converts trails to an array of maps in list order.
+     * Every run is timed. Lists whose measured serial cost reaches PARALLEL_MIN_NANOS are split across
+     * a fork-join pool sized to the CPU cores, and keep going there only while its measured cost per trail
+     * beats the serial one.
+     * @param trails Trails, null items become null entries
+     * @param fields Top-level keys to build, null for all fields
+     * @param boundsList Bounds parallel to trails, null if bbox is not projected
+     */
+    public static WritableArray trails2Array(List<Trail> trails, Set<String> fields, List<RectF> boundsList) {
+        int count = trails.size();
+        long start = System.nanoTime();
+        if (!useConvertPool(count)) {
+            WritableArray trailArray = Arguments.createArray();
+            for (int i = 0; i < count; i++) {
+                Trail trail = trails.get(i);
+                if (trail == null) {
+                    trailArray.pushNull();
+                } else {
+                    trailArray.pushMap(trail2Map(trail, fields, boundsList == null ? null : boundsList.get(i)));
+                }
+            }
+            if (count > 0) {
+                sSerialNanosPerTrail = average(sSerialNanosPerTrail, (System.nanoTime() - start) / count);
+            }
+            return trailArray;
+        }
+
+        WritableMap[] maps = new WritableMap[count];
+        getConvertPool().invoke(new ConvertTask(trails, fields, boundsList, maps, 0, count));
+        WritableArray trailArray = Arguments.createArray();
+        for (WritableMap map : maps) {
+            if (map == null) {
+                trailArray.pushNull();
+            } else {
+                trailArray.pushMap(map);
+            }
+        }
+        long nanosPerTrail = (System.nanoTime() - start) / count;
+        sParallelNanosPerTrail = average(sParallelNanosPerTrail, nanosPerTrail);
+        Log.d(TAG, "trails2Array parallel count:" + count + " nsPerTrail:" + nanosPerTrail
+            + " serialNsPerTrail:" + sSerialNanosPerTrail);
+        return trailArray;
+    }
+
+    private static boolean useConvertPool(int count) {
+        long serialNanos = sSerialNanosPerTrail;
+        if (CONVERT_PARALLELISM < 2 || count < 2 * CONVERT_CHUNK_SIZE
+            || serialNanos == 0 || serialNanos * count < PARALLEL_MIN_NANOS) {
+            return false;
+        }
+        long parallelNanos = sParallelNanosPerTrail;
+        return parallelNanos == 0 || parallelNanos < serialNanos;
+    }
+
+    private static long average(long average, long sample) {
+        return average == 0 ? sample : (average * (8 - AVERAGE_WEIGHT) + sample * AVERAGE_WEIGHT) / 8;
+    }
+
+    private static class ConvertTask extends RecursiveAction {
+        private final List<Trail> trails;
+        private final Set<String> fields;
+        private final List<RectF> boundsList;
+        private final WritableMap[] maps;
+        private final int start;
+        private final int end;
+
+        ConvertTask(List<Trail> trails, Set<String> fields, List<RectF> boundsList,
+                    WritableMap[] maps, int start, int end) {
+            this.trails = trails;
+            this.fields = fields;
+            this.boundsList = boundsList;
+            this.maps = maps;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CONVERT_CHUNK_SIZE) {
+                for (int i = start; i < end; i++) {
+                    Trail trail = trails.get(i);
+                    if (trail != null) {
+                        maps[i] = trail2Map(trail, fields, boundsList == null ? null : boundsList.get(i));
+                    }
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ConvertTask(trails, fields, boundsList, maps, start, middle),
+                new ConvertTask(trails, fields, boundsList, maps, middle, end));
+        }
+    }
+
+    private static boolean wants(Set<String> fields, String key) {
+        return fields == null || fields.contains(key);
+    }
+
+    /**
+     * Converts a trail, building only the projected fields.
+     * @param trail Trail
+     * @param fields Top-level keys to build, null for all fields
+     * @param bounds Element bounds in page pixel coordinates, put as bbox when projected
+     */
+    public static WritableMap trail2Map(Trail trail, Set<String> fields, RectF bounds) {
         WritableMap trailData = Arguments.createMap();
 
         // Base fields
         trailData.putString(TrailKey.UUID, trail.getUUID());
-        trailData.putInt(TrailKey.TYPE, trail.getType());
+        if (wants(fields, TrailKey.TYPE)) {
+            trailData.putInt(TrailKey.TYPE, trail.getType());
+        }
         // trailData.putInt(TrailKey.FLAG_PEN_UP, trail.getFlagPenUp());
         // trailData.putInt(TrailKey.FLAG_SPECIAL, trail.getFlagSpecial());
         // trailData.putInt(TrailKey.PRE_NUM, trail.getPreNum());
-        trailData.putInt(TrailKey.PAGE_NUM, trail.getPageNum());
-        trailData.putInt(TrailKey.LAYER_NUM, trail.getLayerNum());
+        if (wants(fields, TrailKey.PAGE_NUM)) {
+            trailData.putInt(TrailKey.PAGE_NUM, trail.getPageNum());
+        }
+        if (wants(fields, TrailKey.LAYER_NUM)) {
+            trailData.putInt(TrailKey.LAYER_NUM, trail.getLayerNum());
+        }
         // trailData.putInt(TrailKey.TRAIL_NUM, trail.getTrailNum());
-        trailData.putInt(TrailKey.TRAIL_NUM_IN_PAGE, trail.getTrailNumInPage());
-        trailData.putInt(TrailKey.MAX_X, trail.getMaxX());
-        trailData.putInt(TrailKey.MAX_Y, trail.getMaxY());
+        if (wants(fields, TrailKey.TRAIL_NUM_IN_PAGE)) {
+            trailData.putInt(TrailKey.TRAIL_NUM_IN_PAGE, trail.getTrailNumInPage());
+        }
+        if (wants(fields, TrailKey.MAX_X)) {
+            trailData.putInt(TrailKey.MAX_X, trail.getMaxX());
+        }
+        if (wants(fields, TrailKey.MAX_Y)) {
+            trailData.putInt(TrailKey.MAX_Y, trail.getMaxY());
+        }
 
         // trailData.putString(TrailKey.UUID, trail.getUUID());
-        trailData.putInt(TrailKey.THICKNESS, trail.getThickness());
+        if (wants(fields, TrailKey.THICKNESS)) {
+            trailData.putInt(TrailKey.THICKNESS, trail.getThickness());
+        }
         RecogResultData recogResultData = trail.getRecognizeResult();
-        if (recogResultData != null) {
+        if (recogResultData != null && wants(fields, TrailKey.RECOGNIZE_RESULT)) {
             trailData.putMap(TrailKey.RECOGNIZE_RESULT, recogResultData2Map(recogResultData));
         }
-        trailData.putInt(TrailKey.TRAIL_STATUS, trail.getTrailStatus());
+        if (wants(fields, TrailKey.TRAIL_STATUS)) {
+            trailData.putInt(TrailKey.TRAIL_STATUS, trail.getTrailStatus());
+        }
         List<List<PointF>> contoursSrc = trail.getContoursSrc();
         /*
          * if (contoursSrc != null && !contoursSrc.isEmpty()) {
@@ -143,7 +311,9 @@ public class ConvertUtils {
          * trailData.putArray(TrailKey.CONTOURS_SRC, contourArray);
          * }
          */
-        trailData.putInt(TrailKey.CONTOURS_SRC, contoursSrc.size());
+        if (wants(fields, TrailKey.CONTOURS_SRC)) {
+            trailData.putInt(TrailKey.CONTOURS_SRC, contoursSrc.size());
+        }
 
         // Angle data - convert to WritableArray
         /*
@@ -158,7 +328,9 @@ public class ConvertUtils {
          * trailData.putArray(TrailKey.ANGLES, anglesArray);
          * }
          */
-        trailData.putInt(TrailKey.ANGLES, trail.getAngles().size());
+        if (wants(fields, TrailKey.ANGLES)) {
+            trailData.putInt(TrailKey.ANGLES, trail.getAngles().size());
+        }
 
         /*
          * trailData.putDouble(TrailKey.FACTOR_RESIZE, trail.getFactorResize());
@@ -173,34 +345,66 @@ public class ConvertUtils {
         // trailData.putInt(TrailKey.EMR_POINT_AXIS, trail.getEmrPointAxis());
 
         // Object fields - add corresponding WritableMap when non-null
-        if (trail.getStroke() != null) {
+        if (trail.getStroke() != null && wants(fields, TrailKey.STROKE)) {
             trailData.putMap(TrailKey.STROKE, stroke2Map(trail.getStroke()));
         }
 
-        if (trail.getLink() != null) {
+        if (trail.getLink() != null && wants(fields, TrailKey.LINK)) {
             trailData.putMap(TrailKey.LINK, linkData2Map(trail.getLink()));
         }
 
-        if (trail.getTitle() != null) {
+        if (trail.getTitle() != null && wants(fields, TrailKey.TITLE)) {
             trailData.putMap(TrailKey.TITLE, title2Map(trail.getTitle()));
         }
 
-        if (trail.getTextBox() != null) {
+        if (trail.getTextBox() != null && wants(fields, TrailKey.TEXT_BOX)) {
             trailData.putMap(TrailKey.TEXT_BOX, text2Map(trail.getTextBox()));
         }
-        if (trail.getGeometry() != null) {
+        if (trail.getGeometry() != null && wants(fields, TrailKey.GEOMETRY)) {
             trailData.putMap(TrailKey.GEOMETRY, geometry2Map(trail.getGeometry()));
         }
-        if (trail.getFiveStar() != null) {
+        if (trail.getFiveStar() != null && wants(fields, TrailKey.FIVE_STAR)) {
             trailData.putMap(TrailKey.FIVE_STAR, fiveStar2Map(trail.getFiveStar()));
         }
-        if(trail.getPicture() !=null) {
+        if(trail.getPicture() !=null && wants(fields, TrailKey.PICTURE)) {
             trailData.putMap(TrailKey.PICTURE, picture2Map(trail.getPicture()));
         }
 
+        if (fields != null && fields.contains(TrailKey.BBOX)) {
+            putBounds(trailData, bounds);
+        }
         return trailData;
     }
 
+    /**
+     * Lightweight element handle: identity, type, layer and bounds, without any content maps.
+     * @param trail Trail
+     * @param bounds Bounds in page pixel coordinates, may be null
+     */
+    public static WritableMap trail2HandleMap(Trail trail, RectF bounds) {
+        WritableMap handleMap = Arguments.createMap();
+        handleMap.putString(TrailKey.UUID, trail.getUUID());
+        handleMap.putInt(TrailKey.TYPE, trail.getType());
+        handleMap.putInt(TrailKey.PAGE_NUM, trail.getPageNum());
+        handleMap.putInt(TrailKey.LAYER_NUM, trail.getLayerNum());
+        handleMap.putInt(TrailKey.TRAIL_NUM_IN_PAGE, trail.getTrailNumInPage());
+        putBounds(handleMap, bounds);
+        return handleMap;
+    }
+
+    private static void putBounds(WritableMap map, RectF bounds) {
+        if (bounds != null) {
+            WritableMap rectMap = Arguments.createMap();
+            rectMap.putDouble(RectKey.LEFT, bounds.left);
+            rectMap.putDouble(RectKey.TOP, bounds.top);
+            rectMap.putDouble(RectKey.RIGHT, bounds.right);
+            rectMap.putDouble(RectKey.BOTTOM, bounds.bottom);
+            map.putMap(TrailKey.BBOX, rectMap);
+        } else {
+            map.putNull(TrailKey.BBOX);
+        }
+    }
+
     public static WritableMap picture2Map(Picture picture) {
 
         if(picture == null) {
@@ -651,6 +855,25 @@ public class ConvertUtils {
         return map;
     }
 
+    // Keys of readableMap2TextBox, in TEXT_BOX_SCHEMA order
+    private static final int TEXT_FIELD_FONT_SIZE = 1 << 0;
+    private static final int TEXT_FIELD_FONT_PATH = 1 << 1;
+    private static final int TEXT_FIELD_CONTENT_FULL = 1 << 2;
+    private static final int TEXT_FIELD_RECT = 1 << 3;
+    private static final int TEXT_FIELD_DIGEST_DATA = 1 << 4;
+    private static final int TEXT_FIELD_ALIGN = 1 << 5;
+    private static final int TEXT_FIELD_BOLD = 1 << 6;
+    private static final int TEXT_FIELD_ITALICS = 1 << 7;
+    private static final int TEXT_FIELD_FRAME_WIDTH_TYPE = 1 << 8;
+    private static final int TEXT_FIELD_FRAME_WIDTH = 1 << 9;
+    private static final int TEXT_FIELD_FRAME_STYLE = 1 << 10;
+    private static final int TEXT_FIELD_EDITABLE = 1 << 11;
+    private static final int TEXT_FIELD_LAYER = 1 << 12;
+    private static final MapSchema TEXT_BOX_SCHEMA = new MapSchema(TextKey.fontSize, TextKey.fontPath,
+        TextKey.textContentFull, TextKey.textRect, TextKey.textDigestData, TextKey.textAlign,
+        TextKey.textBold, TextKey.textItalics, TextKey.textFrameWidthType, TextKey.textFrameWidth,
+        TextKey.textFrameStyle, TextKey.textEditable, TextKey.textLayer);
+
     /**
      * Converts ReadableMap to TextBox
      *
@@ -664,15 +887,16 @@ public class ConvertUtils {
 
         // Create TextBox
         TextBox textBox = new TextBox();
+        int fields = TEXT_BOX_SCHEMA.present(textMap);
 
         // Extract values from textMap and populate TextBox
-        if (textMap.hasKey(TextKey.fontSize) && !textMap.isNull(TextKey.fontSize)) {
+        if ((fields & TEXT_FIELD_FONT_SIZE) != 0) {
             textBox.fontSize = (float) textMap.getDouble(TextKey.fontSize);
         }
-        if (textMap.hasKey(TextKey.fontPath) && !textMap.isNull(TextKey.fontPath)) {
+        if ((fields & TEXT_FIELD_FONT_PATH) != 0) {
             textBox.fontPath = textMap.getString(TextKey.fontPath);
         }
-        if (textMap.hasKey(TextKey.textContentFull) && !textMap.isNull(TextKey.textContentFull)) {
+        if ((fields & TEXT_FIELD_CONTENT_FULL) != 0) {
             textBox.textContentFull = textMap.getString(TextKey.textContentFull);
             if (TextUtils.isEmpty(textBox.textContentFull)) {
                 throw new PluginException(PluginAPIError.TEXT_CONTENT_EMPTY);
@@ -682,7 +906,7 @@ public class ConvertUtils {
             throw new PluginException(PluginAPIError.TEXT_CONTENT_EMPTY);
 
         }
-        if (textMap.hasKey(TextKey.textRect) && !textMap.isNull(TextKey.textRect)) {
+        if ((fields & TEXT_FIELD_RECT) != 0) {
             ReadableMap rectMap = textMap.getMap(TextKey.textRect);
             if (rectMap != null) {
                 int left = (rectMap.hasKey("left") && !rectMap.isNull("left")) ? rectMap.getInt("left") : 0;
@@ -705,7 +929,7 @@ public class ConvertUtils {
          * textBox.textLineHeight = (float) textMap.getDouble(TextKey.textLineHeight);
          * }
          */
-        if (textMap.hasKey(TextKey.textDigestData)) {
+        if ((fields & TEXT_FIELD_DIGEST_DATA) != 0) {
             textBox.textDigestData = textMap.getString(TextKey.textDigestData);
         }
         /*
@@ -738,7 +962,7 @@ public class ConvertUtils {
          * textMap.getDouble(TextKey.lineSpacingMultiplier);
          * }
          */
-        if (textMap.hasKey(TextKey.textAlign) && !textMap.isNull(TextKey.textAlign)) {
+        if ((fields & TEXT_FIELD_ALIGN) != 0) {
             textBox.textAlign = textMap.getInt(TextKey.textAlign);
             if (!TextBox.TEXT_ALIGN_VALUES.contains(textBox.textAlign)) {
                 throw new PluginException(PluginAPIError.TEXT_ALIGN);
@@ -750,7 +974,7 @@ public class ConvertUtils {
          * textBox.textAntiAlias = textMap.getInt(TextKey.textAntiAlias);
          * }
          */
-        if (textMap.hasKey(TextKey.textBold) && !textMap.isNull(TextKey.textBold)) {
+        if ((fields & TEXT_FIELD_BOLD) != 0) {
             textBox.textBold = textMap.getInt(TextKey.textBold);
             if (!TextBox.TEXT_BOLD_VALUES.contains(textBox.textBold)) {
                 throw new PluginException(PluginAPIError.TEXT_BOLD);
@@ -764,19 +988,19 @@ public class ConvertUtils {
          * textBox.textVertical = textMap.getInt(TextKey.textVertical);
          * }
          */
-        if (textMap.hasKey(TextKey.textItalics) && !textMap.isNull(TextKey.textItalics)) {
+        if ((fields & TEXT_FIELD_ITALICS) != 0) {
             textBox.textItalics = textMap.getInt(TextKey.textItalics);
             if (!TextBox.TEXT_ITALICS_VALUES.contains(textBox.textItalics)) {
                 throw new PluginException(PluginAPIError.TEXT_ITALICS);
             }
         }
-        if (textMap.hasKey(TextKey.textFrameWidthType) && !textMap.isNull(TextKey.textFrameWidthType)) {
+        if ((fields & TEXT_FIELD_FRAME_WIDTH_TYPE) != 0) {
             textBox.textFrameWidthType = textMap.getInt(TextKey.textFrameWidthType);
         }
-        if (textMap.hasKey(TextKey.textFrameWidth) && !textMap.isNull(TextKey.textFrameWidth)) {
+        if ((fields & TEXT_FIELD_FRAME_WIDTH) != 0) {
             textBox.textFrameWidth = textMap.getInt(TextKey.textFrameWidth);
         }
-        if (textMap.hasKey(TextKey.textFrameStyle) && !textMap.isNull(TextKey.textFrameStyle)) {
+        if ((fields & TEXT_FIELD_FRAME_STYLE) != 0) {
             textBox.textFrameStyle = textMap.getInt(TextKey.textFrameStyle);
         }
         /*
@@ -787,10 +1011,10 @@ public class ConvertUtils {
          * textBox.textFrameFillColor = textMap.getInt(TextKey.textFrameFillColor);
          * }
          */
-        if (textMap.hasKey(TextKey.textEditable) && !textMap.isNull(TextKey.textEditable)) {
+        if ((fields & TEXT_FIELD_EDITABLE) != 0) {
             textBox.textEditable = textMap.getInt(TextKey.textEditable);
         }
-        if (textMap.hasKey(TextKey.textLayer) && !textMap.isNull(TextKey.textLayer)) {
+        if ((fields & TEXT_FIELD_LAYER) != 0) {
             textBox.textLayer = textMap.getInt(TextKey.textLayer);
         }
 
@@ -825,17 +1049,75 @@ public class ConvertUtils {
         return readableMap2Trail(trailMap, trail);
     }
 
+    /**
+     * Write-path schema of a map reader: the keys it reads, one bit each in declaration order.
+     * The non-null keys of a map are collected in one pass over its key set, and the reader then
+     * applies its fields in their fixed order without probing the map for every known key.
+     * Small fixed-shape maps such as points and rects are still read directly.
+     */
+    private static final class MapSchema {
+        private final Map<String, Integer> bits;
+
+        MapSchema(String... keys) {
+            bits = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                bits.put(keys[i], 1 << i);
+            }
+        }
+
+        /**
+         * @return Bits of the non-null keys of the map
+         */
+        int present(ReadableMap map) {
+            int fields = 0;
+            ReadableMapKeySetIterator iterator = map.keySetIterator();
+            while (iterator.hasNextKey()) {
+                String key = iterator.nextKey();
+                Integer bit = bits.get(key);
+                if (bit != null && map.getType(key) != ReadableType.Null) {
+                    fields |= bit;
+                }
+            }
+            return fields;
+        }
+    }
+
+    // Top-level keys of readableMap2Trail, in TRAIL_SCHEMA order
+    private static final int FIELD_UUID = 1 << 0;
+    private static final int FIELD_TYPE = 1 << 1;
+    private static final int FIELD_PAGE_NUM = 1 << 2;
+    private static final int FIELD_LAYER_NUM = 1 << 3;
+    private static final int FIELD_TRAIL_NUM_IN_PAGE = 1 << 4;
+    private static final int FIELD_MAX_X = 1 << 5;
+    private static final int FIELD_MAX_Y = 1 << 6;
+    private static final int FIELD_THICKNESS = 1 << 7;
+    private static final int FIELD_RECOGNIZE_RESULT = 1 << 8;
+    private static final int FIELD_STROKE = 1 << 9;
+    private static final int FIELD_LINK = 1 << 10;
+    private static final int FIELD_TITLE = 1 << 11;
+    private static final int FIELD_TEXT_BOX = 1 << 12;
+    private static final int FIELD_GEOMETRY = 1 << 13;
+    private static final int FIELD_FIVE_STAR = 1 << 14;
+    private static final int FIELD_PICTURE = 1 << 15;
+    private static final MapSchema TRAIL_SCHEMA = new MapSchema(TrailKey.UUID, TrailKey.TYPE,
+        TrailKey.PAGE_NUM, TrailKey.LAYER_NUM, TrailKey.TRAIL_NUM_IN_PAGE, TrailKey.MAX_X, TrailKey.MAX_Y,
+        TrailKey.THICKNESS, TrailKey.RECOGNIZE_RESULT, TrailKey.STROKE, TrailKey.LINK, TrailKey.TITLE,
+        TrailKey.TEXT_BOX, TrailKey.GEOMETRY, TrailKey.FIVE_STAR, TrailKey.PICTURE);
+    private static final Set<Integer> TRAIL_TYPE_SET = new HashSet<>(TRAIL_TYPES);
+    private static final Set<Integer> MAIN_LAYER_TRAIL_TYPE_SET = new HashSet<>(MAIN_LAYER_TRAIL_TYPES);
+
     public static Trail readableMap2Trail(ReadableMap trailMap, Trail trail) throws PluginException {
         if (trailMap == null) {
             return null;
         }
+        int fields = TRAIL_SCHEMA.present(trailMap);
 
         // Base fields
-        if (trailMap.hasKey(TrailKey.UUID) && !trailMap.isNull(TrailKey.UUID)) {
+        if ((fields & FIELD_UUID) != 0) {
             trail.setUUID(trailMap.getString(TrailKey.UUID));
         }
         // Stroke type changed again; clear contour and angle data
-        if (trailMap.hasKey(TrailKey.TYPE) && !trailMap.isNull(TrailKey.TYPE)) {
+        if ((fields & FIELD_TYPE) != 0) {
             int oldType = trail.getType();
             trail.setType(trailMap.getInt(TrailKey.TYPE));
             if (oldType != trail.getType()) {
@@ -844,7 +1126,7 @@ public class ConvertUtils {
             }
 
         }
-        if (!TRAIL_TYPES.contains(trail.getType())) {
+        if (!TRAIL_TYPE_SET.contains(trail.getType())) {
             throw new PluginException(PluginAPIError.TRAIL_ERROR_TYPE);
         }
         /*
@@ -860,10 +1142,10 @@ public class ConvertUtils {
          * trail.setPreNum(trailMap.getInt(TrailKey.PRE_NUM));
          * }
          */
-        if (trailMap.hasKey(TrailKey.PAGE_NUM) && !trailMap.isNull(TrailKey.PAGE_NUM)) {
+        if ((fields & FIELD_PAGE_NUM) != 0) {
             trail.setPageNum(trailMap.getInt(TrailKey.PAGE_NUM));
             if (trail.getPageNum() < 0) {
-                if (!TRAIL_TYPES.contains(trail.getType())) {
+                if (!TRAIL_TYPE_SET.contains(trail.getType())) {
                     throw new PluginException(PluginAPIError.NO_PAGE);
                 }
             }
@@ -872,14 +1154,14 @@ public class ConvertUtils {
                     String.format(PluginAPIError.NO_EMPTY.getMessage(), "pageNum"));
 
         }
-        if (trailMap.hasKey(TrailKey.LAYER_NUM) && !trailMap.isNull(TrailKey.LAYER_NUM)) {
+        if ((fields & FIELD_LAYER_NUM) != 0) {
             trail.setLayerNum(trailMap.getInt(TrailKey.LAYER_NUM));
             if (trail.getLayerNum() > 3 || trail.getLayerNum() < 0) {
                 throw new PluginException(PluginAPIError.LAYER_EXISTS_NO_LAYER_ID);
 
             }
             int type = trail.getType();
-            if (trail.getLayerNum() != 0 && !MAIN_LAYER_TRAIL_TYPES.contains(type)) {
+            if (trail.getLayerNum() != 0 && !MAIN_LAYER_TRAIL_TYPE_SET.contains(type)) {
                 throw new PluginException(PluginAPIError.TRAIL_TYPE_MAIN_LAYER);
             }
         }
@@ -888,13 +1170,13 @@ public class ConvertUtils {
          * trail.setTrailNum(trailMap.getInt(TrailKey.TRAIL_NUM));
          * }
          */
-        if (trailMap.hasKey(TrailKey.TRAIL_NUM_IN_PAGE) && !trailMap.isNull(TrailKey.TRAIL_NUM_IN_PAGE)) {
+        if ((fields & FIELD_TRAIL_NUM_IN_PAGE) != 0) {
             trail.setTrailNumInPage(trailMap.getInt(TrailKey.TRAIL_NUM_IN_PAGE));
         }
-        if (trailMap.hasKey(TrailKey.MAX_X) && !trailMap.isNull(TrailKey.MAX_X)) {
+        if ((fields & FIELD_MAX_X) != 0) {
             trail.setMaxX(trailMap.getInt(TrailKey.MAX_X));
         }
-        if (trailMap.hasKey(TrailKey.MAX_Y) && !trailMap.isNull(TrailKey.MAX_Y)) {
+        if ((fields & FIELD_MAX_Y) != 0) {
             trail.setMaxY(trailMap.getInt(TrailKey.MAX_Y));
         }
         /*
@@ -910,10 +1192,10 @@ public class ConvertUtils {
          * trail.setUUID(trailMap.getString(TrailKey.UUID));
          * }
          */
-        if (trailMap.hasKey(TrailKey.THICKNESS) && !trailMap.isNull(TrailKey.THICKNESS)) {
+        if ((fields & FIELD_THICKNESS) != 0) {
             trail.setThickness(trailMap.getInt(TrailKey.THICKNESS));
         }
-        if (trailMap.hasKey(TrailKey.RECOGNIZE_RESULT) && !trailMap.isNull(TrailKey.RECOGNIZE_RESULT)) {
+        if ((fields & FIELD_RECOGNIZE_RESULT) != 0) {
             ReadableMap recognizeMap = trailMap.getMap(TrailKey.RECOGNIZE_RESULT);
             trail.setRecognizeResult(readableMap2RecogResultData(recognizeMap));
         }
@@ -988,38 +1270,38 @@ public class ConvertUtils {
          */
 
         // Handle nested objects
-        if (trailMap.hasKey(TrailKey.STROKE) && !trailMap.isNull(TrailKey.STROKE)) {
+        if ((fields & FIELD_STROKE) != 0) {
             ReadableMap strokeMap = trailMap.getMap(TrailKey.STROKE);
             trail.setStroke(readableMap2Stroke(strokeMap, trail.getStroke()));
         }
 
-        if (trailMap.hasKey(TrailKey.LINK) && !trailMap.isNull(TrailKey.LINK)) {
+        if ((fields & FIELD_LINK) != 0) {
             ReadableMap linkTrailMap = trailMap.getMap(TrailKey.LINK);
             trail.setLink(readableMap2LinkTrail(linkTrailMap));
         }
 
-        if (trailMap.hasKey(TrailKey.TITLE) && !trailMap.isNull(TrailKey.TITLE)) {
+        if ((fields & FIELD_TITLE) != 0) {
             ReadableMap titleTrailMap = trailMap.getMap(TrailKey.TITLE);
             trail.setTitle(readableMap2TitleTrail(titleTrailMap));
         }
 
-        if (trailMap.hasKey(TrailKey.TEXT_BOX) && !trailMap.isNull(TrailKey.TEXT_BOX)) {
+        if ((fields & FIELD_TEXT_BOX) != 0) {
             ReadableMap textBoxMap = trailMap.getMap(TrailKey.TEXT_BOX);
             // Call existing helper directly
             trail.setTextBox(readableMap2TextBox(textBoxMap));
         }
-        if (trailMap.hasKey(TrailKey.GEOMETRY) && !trailMap.isNull(TrailKey.GEOMETRY)) {
+        if ((fields & FIELD_GEOMETRY) != 0) {
             ReadableMap geometryMap = trailMap.getMap(TrailKey.GEOMETRY);
             // Call existing helper directly
             trail.setGeometry(readableMap2Geometry(geometryMap));
         }
 
-        if (trailMap.hasKey(TrailKey.FIVE_STAR) && !trailMap.isNull(TrailKey.FIVE_STAR)) {
+        if ((fields & FIELD_FIVE_STAR) != 0) {
             ReadableMap fiveStar = trailMap.getMap(TrailKey.FIVE_STAR);
             trail.setFiveStar(readableMap2FiveStar(fiveStar));
         }
 
-        if(trailMap.hasKey(TrailKey.PICTURE) && !trailMap.isNull(TrailKey.PICTURE)) {
+        if((fields & FIELD_PICTURE) != 0) {
             ReadableMap picture = trailMap.getMap(TrailKey.PICTURE);
             trail.setPicture(map2Picture(picture));
         }
@@ -1065,19 +1347,25 @@ public class ConvertUtils {
         return readableMap2Stroke(strokeMap, stroke);
     }
 
+    // Keys of readableMap2Stroke, in STROKE_SCHEMA order
+    private static final int STROKE_FIELD_PEN_COLOR = 1 << 0;
+    private static final int STROKE_FIELD_PEN_TYPE = 1 << 1;
+    private static final MapSchema STROKE_SCHEMA = new MapSchema(TrailKey.STROKE_PEN_COLOR, TrailKey.STROKE_PEN_TYPE);
+
     // Helper: Stroke conversion
     private static Stroke readableMap2Stroke(ReadableMap strokeMap, Stroke stroke) throws PluginException {
         if (strokeMap == null || stroke == null) {
             return null;
         }
+        int fields = STROKE_SCHEMA.present(strokeMap);
 
-        if (strokeMap.hasKey(TrailKey.STROKE_PEN_COLOR) && !strokeMap.isNull(TrailKey.STROKE_PEN_COLOR)) {
+        if ((fields & STROKE_FIELD_PEN_COLOR) != 0) {
             stroke.setPenColor(strokeMap.getInt(TrailKey.STROKE_PEN_COLOR));
             if (!PEN_COLORS.contains(stroke.getPenColor())) {
                 throw new PluginException(PluginAPIError.STROKE_PEN_COLOR);
             }
         }
-        if (strokeMap.hasKey(TrailKey.STROKE_PEN_TYPE) && !strokeMap.isNull(TrailKey.STROKE_PEN_TYPE)) {
+        if ((fields & STROKE_FIELD_PEN_TYPE) != 0) {
             stroke.setPenType(strokeMap.getInt(TrailKey.STROKE_PEN_TYPE));
             if (!PEN_TYPES.contains(stroke.getPenType())) {
                 throw new PluginException(PluginAPIError.STROKE_PEN_TYPE);
@@ -1353,6 +1641,27 @@ public class ConvertUtils {
         return linkData;
     }
 
+    // Keys of readableMap2LinkTrail, in LINK_SCHEMA order
+    private static final int LINK_FIELD_CATEGORY = 1 << 0;
+    private static final int LINK_FIELD_X = 1 << 1;
+    private static final int LINK_FIELD_Y = 1 << 2;
+    private static final int LINK_FIELD_WIDTH = 1 << 3;
+    private static final int LINK_FIELD_HEIGHT = 1 << 4;
+    private static final int LINK_FIELD_STYLE = 1 << 5;
+    private static final int LINK_FIELD_LINK_TYPE = 1 << 6;
+    private static final int LINK_FIELD_DEST_FILE_PATH = 1 << 7;
+    private static final int LINK_FIELD_DEST_PAGE_NUM = 1 << 8;
+    private static final int LINK_FIELD_FONT_SIZE = 1 << 9;
+    private static final int LINK_FIELD_ITALIC = 1 << 10;
+    private static final int LINK_FIELD_FULL_TEXT = 1 << 11;
+    private static final int LINK_FIELD_SHOW_TEXT = 1 << 12;
+    private static final int LINK_FIELD_CONTROL_TRAIL_NUMS = 1 << 13;
+    private static final MapSchema LINK_SCHEMA = new MapSchema(TrailKey.LINK_CATEGORY, TrailKey.LINK_X,
+        TrailKey.LINK_Y, TrailKey.LINK_WIDTH, TrailKey.LINK_HEIGHT, TrailKey.LINK_STYLE,
+        TrailKey.LINK_LINK_TYPE, TrailKey.LINK_DEST_FILE_PATH, TrailKey.LINK_DEST_PAGE_NUM,
+        TrailKey.LINK_FONT_SIZE, TrailKey.LINK_ITALIC, TrailKey.LINK_FULL_TEXT, TrailKey.LINK_SHOW_TEXT,
+        TrailKey.CONTROL_TRAIL_NUMS);
+
     // Helper: LinkTrail conversion
     private static LinkTrail readableMap2LinkTrail(ReadableMap linkTrailMap) throws PluginException {
         if (linkTrailMap == null) {
@@ -1360,36 +1669,37 @@ public class ConvertUtils {
         }
 
         LinkTrail linkTrail = new LinkTrail();
+        int fields = LINK_SCHEMA.present(linkTrailMap);
 
-        if (linkTrailMap.hasKey(TrailKey.LINK_CATEGORY) && !linkTrailMap.isNull(TrailKey.LINK_CATEGORY)) {
+        if ((fields & LINK_FIELD_CATEGORY) != 0) {
             linkTrail.setCategory(linkTrailMap.getInt(TrailKey.LINK_CATEGORY));
             if (!LINK_CATEGORIES.contains(linkTrail.getCategory())) {
                 throw new PluginException(PluginAPIError.LINK_CATEGORY_ERROR);
             }
         }
-        if (linkTrailMap.hasKey(TrailKey.LINK_X) && !linkTrailMap.isNull(TrailKey.LINK_X)) {
+        if ((fields & LINK_FIELD_X) != 0) {
             linkTrail.setX(linkTrailMap.getInt(TrailKey.LINK_X));
         }
-        if (linkTrailMap.hasKey(TrailKey.LINK_Y) && !linkTrailMap.isNull(TrailKey.LINK_Y)) {
+        if ((fields & LINK_FIELD_Y) != 0) {
             linkTrail.setY(linkTrailMap.getInt(TrailKey.LINK_Y));
         }
-        if (linkTrailMap.hasKey(TrailKey.LINK_WIDTH) && !linkTrailMap.isNull(TrailKey.LINK_WIDTH)) {
+        if ((fields & LINK_FIELD_WIDTH) != 0) {
             linkTrail.setWidth(linkTrailMap.getInt(TrailKey.LINK_WIDTH));
         }
-        if (linkTrailMap.hasKey(TrailKey.LINK_HEIGHT) && !linkTrailMap.isNull(TrailKey.LINK_HEIGHT)) {
+        if ((fields & LINK_FIELD_HEIGHT) != 0) {
             linkTrail.setHeight(linkTrailMap.getInt(TrailKey.LINK_HEIGHT));
         }
         if (linkTrail.getWidth() <= 0 || linkTrail.getHeight() <= 0) {
             throw new PluginException(PluginAPIError.LINK_RECT);
         }
 
-        if (linkTrailMap.hasKey(TrailKey.LINK_STYLE) && !linkTrailMap.isNull(TrailKey.LINK_STYLE)) {
+        if ((fields & LINK_FIELD_STYLE) != 0) {
             linkTrail.setStyle(linkTrailMap.getInt(TrailKey.LINK_STYLE));
             if (!LINK_STYLES.contains(linkTrail.getStyle())) {
                 throw new PluginException(PluginAPIError.LINK_STYLE_ERROR);
             }
         }
-        if (linkTrailMap.hasKey(TrailKey.LINK_LINK_TYPE) && !linkTrailMap.isNull(TrailKey.LINK_LINK_TYPE)) {
+        if ((fields & LINK_FIELD_LINK_TYPE) != 0) {
             linkTrail.setLinkType(linkTrailMap.getInt(TrailKey.LINK_LINK_TYPE));
             if (!LINK_TYPES.contains(linkTrail.getLinkType())) {
                 throw new PluginException(PluginAPIError.LINK_TYPE_ERROR);
@@ -1412,7 +1722,7 @@ public class ConvertUtils {
          * LINK_LINK_TIMESTAMP));
          * }
          */
-        if (linkTrailMap.hasKey(TrailKey.LINK_DEST_FILE_PATH) && !linkTrailMap.isNull(TrailKey.LINK_DEST_FILE_PATH)) {
+        if ((fields & LINK_FIELD_DEST_FILE_PATH) != 0) {
             linkTrail.setDestFilePath(linkTrailMap.getString(TrailKey.LINK_DEST_FILE_PATH));
             int linkType = linkTrail.getLinkType();
             if (LINK_FILE_TYPES.contains(linkType)) {
@@ -1438,7 +1748,7 @@ public class ConvertUtils {
          * linkTrail.setDestPageId(linkTrailMap.getString(TrailKey.LINK_DEST_PAGE_ID));
          * }
          */
-        if (linkTrailMap.hasKey(TrailKey.LINK_DEST_PAGE_NUM) && !linkTrailMap.isNull(TrailKey.LINK_DEST_PAGE_NUM)) {
+        if ((fields & LINK_FIELD_DEST_PAGE_NUM) != 0) {
             linkTrail.setDestPageNum(linkTrailMap.getInt(TrailKey.LINK_DEST_PAGE_NUM));
             if (linkTrail.getDestPageNum() < 0) {
                 throw new PluginException(PluginAPIError.LINK_NO_DEST_PAGE);
@@ -1448,10 +1758,10 @@ public class ConvertUtils {
         }
         // Only text links need these boundary checks
         if (linkTrail.getCategory() == LinkTrail.CATEGORY_TEXT) {
-            if (linkTrailMap.hasKey(TrailKey.LINK_FONT_SIZE) && !linkTrailMap.isNull(TrailKey.LINK_FONT_SIZE)) {
+            if ((fields & LINK_FIELD_FONT_SIZE) != 0) {
                 linkTrail.setFontSize((float) linkTrailMap.getDouble(TrailKey.LINK_FONT_SIZE));
             }
-            if (linkTrailMap.hasKey(TrailKey.LINK_ITALIC) && !linkTrailMap.isNull(TrailKey.LINK_ITALIC)) {
+            if ((fields & LINK_FIELD_ITALIC) != 0) {
                 linkTrail.setItalic(linkTrailMap.getInt(TrailKey.LINK_ITALIC));
             }
             /*
@@ -1459,16 +1769,16 @@ public class ConvertUtils {
              * linkTrail.setFontPath(linkTrailMap.getString(TrailKey.LINK_FONT_PATH));
              * }
              */
-            if (linkTrailMap.hasKey(TrailKey.LINK_FULL_TEXT) && !linkTrailMap.isNull(TrailKey.LINK_FULL_TEXT)) {
+            if ((fields & LINK_FIELD_FULL_TEXT) != 0) {
                 linkTrail.setFullText(linkTrailMap.getString(TrailKey.LINK_FULL_TEXT));
             }
-            if (linkTrailMap.hasKey(TrailKey.LINK_SHOW_TEXT) && !linkTrailMap.isNull(TrailKey.LINK_SHOW_TEXT)) {
+            if ((fields & LINK_FIELD_SHOW_TEXT) != 0) {
                 linkTrail.setShowText(linkTrailMap.getString(TrailKey.LINK_SHOW_TEXT));
             }
         }
 
         // Add controlled strokes
-        if (linkTrailMap.hasKey(TrailKey.CONTROL_TRAIL_NUMS) && !linkTrailMap.isNull(TrailKey.CONTROL_TRAIL_NUMS)) {
+        if ((fields & LINK_FIELD_CONTROL_TRAIL_NUMS) != 0) {
             ReadableArray controlTrailNumArray = linkTrailMap.getArray(TrailKey.CONTROL_TRAIL_NUMS);
             if (linkTrail.getCategory() == 1) {
                 if (controlTrailNumArray == null || controlTrailNumArray.size() <= 0) {
@@ -1494,6 +1804,21 @@ public class ConvertUtils {
         return linkTrail;
     }
 
+    // Keys of readableMap2TitleTrail, in TITLE_SCHEMA order
+    private static final int TITLE_FIELD_X = 1 << 0;
+    private static final int TITLE_FIELD_Y = 1 << 1;
+    private static final int TITLE_FIELD_WIDTH = 1 << 2;
+    private static final int TITLE_FIELD_HEIGHT = 1 << 3;
+    private static final int TITLE_FIELD_PAGE = 1 << 4;
+    private static final int TITLE_FIELD_STYLE = 1 << 5;
+    private static final int TITLE_FIELD_NUM = 1 << 6;
+    private static final int TITLE_FIELD_INDEX = 1 << 7;
+    private static final int TITLE_FIELD_PAGE_SEQ = 1 << 8;
+    private static final int TITLE_FIELD_CONTROL_TRAIL_NUMS = 1 << 9;
+    private static final MapSchema TITLE_SCHEMA = new MapSchema(TrailKey.TITLE_X, TrailKey.TITLE_Y,
+        TrailKey.TITLE_WIDTH, TrailKey.TITLE_HEIGHT, TrailKey.TITLE_PAGE, TrailKey.TITLE_STYLE,
+        TrailKey.TITLE_NUM, TrailKey.TITLE_INDEX, TrailKey.TITLE_PAGE_SEQ, TrailKey.CONTROL_TRAIL_NUMS);
+
     // Helper: TitleTrail conversion
     private static TitleTrail readableMap2TitleTrail(ReadableMap titleTrailMap) throws PluginException {
         if (titleTrailMap == null) {
@@ -1501,44 +1826,45 @@ public class ConvertUtils {
         }
 
         TitleTrail titleTrail = new TitleTrail();
+        int fields = TITLE_SCHEMA.present(titleTrailMap);
 
-        if (titleTrailMap.hasKey(TrailKey.TITLE_X)) {
+        if ((fields & TITLE_FIELD_X) != 0) {
             titleTrail.setX(titleTrailMap.getInt(TrailKey.TITLE_X));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_Y)) {
+        if ((fields & TITLE_FIELD_Y) != 0) {
             titleTrail.setY(titleTrailMap.getInt(TrailKey.TITLE_Y));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_WIDTH)) {
+        if ((fields & TITLE_FIELD_WIDTH) != 0) {
             titleTrail.setWidth(titleTrailMap.getInt(TrailKey.TITLE_WIDTH));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_HEIGHT)) {
+        if ((fields & TITLE_FIELD_HEIGHT) != 0) {
             titleTrail.setHeight(titleTrailMap.getInt(TrailKey.TITLE_HEIGHT));
         }
 
         if (titleTrail.getHeight() <= 0 || titleTrail.getWidth() <= 0) {
             throw new PluginException(PluginAPIError.TITLE_RECT);
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_PAGE)) {
+        if ((fields & TITLE_FIELD_PAGE) != 0) {
             titleTrail.setPage(titleTrailMap.getInt(TrailKey.TITLE_PAGE));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_STYLE)) {
+        if ((fields & TITLE_FIELD_STYLE) != 0) {
             titleTrail.setStyle(titleTrailMap.getInt(TrailKey.TITLE_STYLE));
             if (!TITLE_STYLES.contains(titleTrail.getStyle())) {
                 throw new PluginException(PluginAPIError.TITLE_ERROR_STYLE);
             }
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_NUM)) {
+        if ((fields & TITLE_FIELD_NUM) != 0) {
             titleTrail.setNum(titleTrailMap.getInt(TrailKey.TITLE_NUM));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_INDEX)) {
+        if ((fields & TITLE_FIELD_INDEX) != 0) {
             titleTrail.setIndex(titleTrailMap.getInt(TrailKey.TITLE_INDEX));
         }
-        if (titleTrailMap.hasKey(TrailKey.TITLE_PAGE_SEQ)) {
+        if ((fields & TITLE_FIELD_PAGE_SEQ) != 0) {
             titleTrail.setPageSeq(titleTrailMap.getInt(TrailKey.TITLE_PAGE_SEQ));
         }
 
         // Add controlled strokes
-        if (titleTrailMap.hasKey(TrailKey.CONTROL_TRAIL_NUMS)) {
+        if ((fields & TITLE_FIELD_CONTROL_TRAIL_NUMS) != 0) {
             ReadableArray controlNumArray = titleTrailMap.getArray(TrailKey.CONTROL_TRAIL_NUMS);
             if (controlNumArray == null || controlNumArray.size() <= 0) {
                 throw new PluginException(PluginAPIError.TITLE_CONTROL_NUM_ERROR);
@@ -1586,33 +1912,47 @@ public class ConvertUtils {
         return fiveStar;
     }
 
+    // Keys of readableMap2Geometry, in GEOMETRY_SCHEMA order
+    private static final int GEOMETRY_FIELD_PEN_TYPE = 1 << 0;
+    private static final int GEOMETRY_FIELD_PEN_COLOR = 1 << 1;
+    private static final int GEOMETRY_FIELD_PEN_WIDTH = 1 << 2;
+    private static final int GEOMETRY_FIELD_TYPE = 1 << 3;
+    private static final int GEOMETRY_FIELD_POINTS = 1 << 4;
+    private static final int GEOMETRY_FIELD_ELLIPSE_CENTER_POINT = 1 << 5;
+    private static final int GEOMETRY_FIELD_ELLIPSE_MAJOR_AXIS_RADIUS = 1 << 6;
+    private static final int GEOMETRY_FIELD_ELLIPSE_MINOR_AXIS_RADIUS = 1 << 7;
+    private static final int GEOMETRY_FIELD_ELLIPSE_ANGLE = 1 << 8;
+    private static final MapSchema GEOMETRY_SCHEMA = new MapSchema("penType", "penColor", "penWidth", "type",
+        "points", "ellipseCenterPoint", "ellipseMajorAxisRadius", "ellipseMinorAxisRadius", "ellipseAngle");
+
     public static Geometry readableMap2Geometry(ReadableMap geometryMap) throws PluginException {
         if (geometryMap == null) {
             return null;
         }
 
         Geometry geometry = new Geometry();
+        int fields = GEOMETRY_SCHEMA.present(geometryMap);
 
         // Base field conversion
-        if (geometryMap.hasKey("penType")) {
+        if ((fields & GEOMETRY_FIELD_PEN_TYPE) != 0) {
             geometry.setPenType(geometryMap.getInt("penType"));
             if (!PEN_TYPES.contains(geometry.getPenType())) {
                 throw new PluginException(PluginAPIError.STROKE_PEN_TYPE);
             }
         }
-        if (geometryMap.hasKey("penColor")) {
+        if ((fields & GEOMETRY_FIELD_PEN_COLOR) != 0) {
             geometry.setPenColor(geometryMap.getInt("penColor"));
             if (!PEN_COLORS.contains(geometry.getPenColor())) {
                 throw new PluginException(PluginAPIError.STROKE_PEN_COLOR);
             }
         }
-        if (geometryMap.hasKey("penWidth")) {
+        if ((fields & GEOMETRY_FIELD_PEN_WIDTH) != 0) {
             geometry.setPenWidth(geometryMap.getInt("penWidth"));
             if (geometry.getPenWidth() < 100) {
                 throw new PluginException(PluginAPIError.STROKE_WIDTH);
             }
         }
-        if (geometryMap.hasKey("type")) {
+        if ((fields & GEOMETRY_FIELD_TYPE) != 0) {
             geometry.setType(geometryMap.getString("type"));
             if (!GEO_TYPES.contains(geometry.getType())) {
                 throw new PluginException(PluginAPIError.GEO_TYPE);
@@ -1620,7 +1960,7 @@ public class ConvertUtils {
         }
 
         // Convert points list
-        if (geometryMap.hasKey("points")) {
+        if ((fields & GEOMETRY_FIELD_POINTS) != 0) {
             ReadableArray pointsArray = geometryMap.getArray("points");
             if (pointsArray != null) {
                 List<Point> pointsList = new ArrayList<>();
@@ -1640,7 +1980,7 @@ public class ConvertUtils {
                 || TextUtils.equals(geometry.getType(), Geometry.TYPE_ELLIPSE)) {
 
             // Convert ellipse center point
-            if (geometryMap.hasKey("ellipseCenterPoint")) {
+            if ((fields & GEOMETRY_FIELD_ELLIPSE_CENTER_POINT) != 0) {
                 ReadableMap centerPointMap = geometryMap.getMap("ellipseCenterPoint");
                 if (centerPointMap != null) {
                     int x = centerPointMap.hasKey("x") ? centerPointMap.getInt("x") : 0;
@@ -1650,13 +1990,13 @@ public class ConvertUtils {
             }
 
             // Ellipse-related fields
-            if (geometryMap.hasKey("ellipseMajorAxisRadius")) {
+            if ((fields & GEOMETRY_FIELD_ELLIPSE_MAJOR_AXIS_RADIUS) != 0) {
                 geometry.setEllipseMajorAxisRadius(geometryMap.getInt("ellipseMajorAxisRadius"));
             }
-            if (geometryMap.hasKey("ellipseMinorAxisRadius")) {
+            if ((fields & GEOMETRY_FIELD_ELLIPSE_MINOR_AXIS_RADIUS) != 0) {
                 geometry.setEllipseMinorAxisRadius(geometryMap.getInt("ellipseMinorAxisRadius"));
             }
-            if (geometryMap.hasKey("ellipseAngle")) {
+            if ((fields & GEOMETRY_FIELD_ELLIPSE_ANGLE) != 0) {
                 geometry.setEllipseAngle(geometryMap.getDouble("ellipseAngle"));
             }
         }
@@ -1817,6 +2157,118 @@ public class ConvertUtils {
         return array;
     }
 
+    /**
+     * Converts a range of a point list to one flat array of numbers instead of an array of maps.
+     * Point/PointF: [x0, y0, x1, y1, ...], RecognData: [x0, y0, flag0, timestamp0, ...],
+     * Integer/Short/Boolean: one value per item, nested lists (contours): one flat array per list.
+     * @param list Point list
+     * @param fromIndex Start index, inclusive
+     * @param toIndex End index, exclusive
+     */
+    public static WritableArray list2FlatArray(List<?> list, int fromIndex, int toIndex) {
+        WritableArray array = Arguments.createArray();
+        if (list == null) {
+            return array;
+        }
+        if (list instanceof PackedStroke.PointList) {
+            // Read the packed columns directly, without creating a Point per sample
+            PackedStroke.PointList pointList = (PackedStroke.PointList) list;
+            for (int i = fromIndex; i < toIndex; i++) {
+                array.pushInt(pointList.getX(i));
+                array.pushInt(pointList.getY(i));
+            }
+            return array;
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            Object value = list.get(i);
+            if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Integer) {
+                array.pushInt((Integer) value);
+            } else if (value instanceof Short) {
+                array.pushInt((Short) value);
+            } else if (value instanceof Point) {
+                Point point = (Point) value;
+                array.pushInt(point.x);
+                array.pushInt(point.y);
+            } else if (value instanceof PointF) {
+                PointF point = (PointF) value;
+                array.pushDouble(point.x);
+                array.pushDouble(point.y);
+            } else if (value instanceof RecognData) {
+                RecognData recognData = (RecognData) value;
+                array.pushInt(recognData.get_x());
+                array.pushInt(recognData.get_y());
+                array.pushInt(recognData.get_flag());
+                array.pushDouble(recognData.get_timestamp());
+            } else if (value instanceof List<?>) {
+                List<?> subList = (List<?>) value;
+                array.pushArray(list2FlatArray(subList, 0, subList.size()));
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Packs a range of a point list into a little-endian buffer, encoded as base64, so JS can
+     * view it as a typed array instead of receiving one map per point.
+     * Point: int32 x/y pairs, PointF: float32 x/y pairs, Integer: int32, Short: int16, Boolean: uint8.
+     * @param list Point list
+     * @param fromIndex Start index, inclusive
+     * @param toIndex End index, exclusive
+     * @return base64 string, or null if the element type is not supported
+     */
+    public static String list2Base64(List<?> list, int fromIndex, int toIndex) {
+        int count = toIndex - fromIndex;
+        if (count <= 0) {
+            return "";
+        }
+        Object first = list.get(fromIndex);
+        ByteBuffer buffer;
+        if (first instanceof Point) {
+            buffer = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+            if (list instanceof PackedStroke.PointList) {
+                // Read the packed columns directly, without creating a Point per sample
+                PackedStroke.PointList pointList = (PackedStroke.PointList) list;
+                for (int i = fromIndex; i < toIndex; i++) {
+                    buffer.putInt(pointList.getX(i));
+                    buffer.putInt(pointList.getY(i));
+                }
+            } else {
+                for (int i = fromIndex; i < toIndex; i++) {
+                    Point point = (Point) list.get(i);
+                    buffer.putInt(point.x);
+                    buffer.putInt(point.y);
+                }
+            }
+        } else if (first instanceof PointF) {
+            buffer = ByteBuffer.allocate(count * 8).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = fromIndex; i < toIndex; i++) {
+                PointF point = (PointF) list.get(i);
+                buffer.putFloat(point.x);
+                buffer.putFloat(point.y);
+            }
+        } else if (first instanceof Integer) {
+            buffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = fromIndex; i < toIndex; i++) {
+                buffer.putInt((Integer) list.get(i));
+            }
+        } else if (first instanceof Short) {
+            buffer = ByteBuffer.allocate(count * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = fromIndex; i < toIndex; i++) {
+                buffer.putShort((Short) list.get(i));
+            }
+        } else if (first instanceof Boolean) {
+            buffer = ByteBuffer.allocate(count);
+            for (int i = fromIndex; i < toIndex; i++) {
+                buffer.put((byte) ((Boolean) list.get(i) ? 1 : 0));
+            }
+        } else {
+            return null;
+        }
+        return Base64.encodeToString(buffer.array(), Base64.NO_WRAP);
+    }
+
     public static <T> List<T> map2List(ReadableArray array, Class<T> clazz) {
         List<T> list = new ArrayList<>();
         if (array != null) {
@@ -1,19 +1,30 @@
 package com.ratta.supernote.pluginlib.utils;
 
-import android.os.Parcel;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+import com.ratta.supernote.pluginlib.bean.PackedStroke;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
 
 /**
  * Utilities for caching note-related data.
+ * Trails are kept in a byte-budgeted LRU: once the estimated size exceeds the budget,
+ * the least recently used trails that are not pinned are evicted.
+ * Trails with unsaved edits are pinned until they are written to the note or recycled, so eviction
+ * only drops trails whose state can still be read from the note again.
+ * With spilling enabled, evicted trails go to a TrailSpillStore on disk and are faulted back in by getTrail.
+ * An evicted trail that is still referenced elsewhere is faulted back in as the same object rather than
+ * its spilled copy, so changes made through such a reference are kept.
  */
 public class DataCacheUtils {
     private final String TAG = "DataCacheUtils";
@@ -21,112 +32,355 @@ public class DataCacheUtils {
 
     // Maximum allowed memory usage
     private final long MAX_MEMERY = 30 * 1024 *1024;
+    // Share of the budget pinned trails may hold, so edits that are never written cannot fill the cache
+    private static final int PINNED_MEMORY_DIVISOR = 2;
+
+    // Estimated LinkedHashMap structural overhead
+    private static final long MAP_OVERHEAD = 1024;
+    // Estimated overhead of a single map entry
+    private static final long ENTRY_OVERHEAD = 32;
+
     /**
-     * Map of note data keyed by uuid.
+     * Map of note data keyed by uuid, in access order (eldest entry is the least recently used).
      */
-    private ConcurrentHashMap<String, Trail> mTrailMap = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Trail> mTrailMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Trails that must not be evicted, in pin order
+    private final Set<String> mPinnedTrails = new LinkedHashSet<>();
 
+    // Approximate memory usage for cached strokes (bytes)
+    private long trailsMemory = MAP_OVERHEAD;
 
+    private long maxMemory = MAX_MEMERY;
 
-    // Most-recently-used stroke list
-    private CopyOnWriteArrayList<String> mTrailUsedList = new CopyOnWriteArrayList<>();
+    // Maximum spill file size
+    private final long MAX_SPILL_SIZE = 256 * 1024 * 1024;
 
-    private String uuid = "";
-    private Trail trail = null;
+    private static final String SPILL_FILE_NAME = "trail.spill";
 
-    // Approximate memory usage for cached strokes (bytes)
-    private long trailsMemory = 1024;
+    // Disk tier for evicted trails, null when spilling is disabled
+    private TrailSpillStore mSpillStore;
 
-    public Trail getTrail(String uuid) {
-        if (TextUtils.equals(uuid, this.uuid) && trail != null) {
-            return trail;
+    /**
+     * Weak reference to an evicted trail, queued once the trail is collected.
+     */
+    private static class EvictedTrailRef extends WeakReference<Trail> {
+        final String uuid;
+
+        EvictedTrailRef(Trail trail, ReferenceQueue<Trail> queue) {
+            super(trail, queue);
+            uuid = trail.getUUID();
+        }
+    }
+
+    // Evicted trails that may still be referenced, by uuid
+    private final Map<String, EvictedTrailRef> mEvictedTrails = new HashMap<>();
+    private final ReferenceQueue<Trail> mEvictedQueue = new ReferenceQueue<>();
+
+    /**
+     * Enables spilling evicted trails to disk.
+     * @param pluginPath Plugin directory, the spill file is kept in its cache sub directory
+     */
+    public synchronized void enableSpill(String pluginPath) {
+        if (mSpillStore != null) {
+            return;
+        }
+        File spillFile = new File(pluginPath + File.separator + "cache", SPILL_FILE_NAME);
+        mSpillStore = new TrailSpillStore(spillFile, MAX_SPILL_SIZE);
+    }
+
+    /**
+     * Disables spilling and deletes the spill file.
+     */
+    public synchronized void releaseSpill() {
+        if (mSpillStore != null) {
+            mSpillStore.release();
+            mSpillStore = null;
+        }
+    }
+
+    public synchronized Trail getTrail(String uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        Trail trail = mTrailMap.get(uuid);
+        if (trail == null) {
+            trail = reviveTrail(uuid);
         }
-        this.uuid = uuid;
-        trail = mTrailMap.get(uuid);
-        mTrailUsedList.remove(uuid);
-        mTrailUsedList.add(0, uuid);
+        if (trail == null && mSpillStore != null) {
+            trail = faultInTrail(uuid);
+        }
+        return trail;
+    }
+
+    /**
+     * Re-adds an evicted trail that is still referenced, its spilled copy may be stale.
+     */
+    private Trail reviveTrail(String uuid) {
+        expungeEvictedTrails();
+        EvictedTrailRef ref = mEvictedTrails.remove(uuid);
+        Trail trail = ref == null ? null : ref.get();
+        if (trail == null) {
+            return null;
+        }
+        Log.i(TAG, "reviveTrail uuid:" + uuid);
+        if (mSpillStore != null) {
+            mSpillStore.remove(uuid);
+        }
+        addTrail(trail);
         return trail;
     }
 
-    public void addTrail(Trail trail) {
+    private void expungeEvictedTrails() {
+        EvictedTrailRef ref;
+        while ((ref = (EvictedTrailRef) mEvictedQueue.poll()) != null) {
+            if (mEvictedTrails.get(ref.uuid) == ref) {
+                mEvictedTrails.remove(ref.uuid);
+            }
+        }
+    }
+
+    private Trail faultInTrail(String uuid) {
+        try {
+            Trail trail = mSpillStore.take(uuid);
+            if (trail != null) {
+                Log.i(TAG, "faultInTrail uuid:" + uuid);
+                addTrail(trail);
+            }
+            return trail;
+        } catch (IOException e) {
+            Log.e(TAG, "faultInTrail error uuid:" + uuid, e);
+            mSpillStore.remove(uuid);
+            return null;
+        }
+    }
+
+    public synchronized void addTrail(Trail trail) {
         Log.i(TAG, "addTrail");
-        mTrailMap.put(trail.getUUID(), trail);
-        mTrailUsedList.add(0,trail.getUUID());
+        // Cached strokes keep their sample columns packed, see PackedStroke
+        PackedStroke.pack(trail);
+        Trail oldTrail = mTrailMap.put(trail.getUUID(), trail);
+        if (oldTrail != null) {
+            removeTrailMapMemorySize(oldTrail);
+        }
 
         // Update memory size estimate
         addTrailMapMemorySize(trail);
-
+        trimTrailMap();
     }
 
-    public void removeTrail(Trail trail) {
-        mTrailMap.remove(trail.getUUID());
-        mTrailUsedList.remove(trail.getUUID());
-        removeTrailMapMemorySize(trail);
+    public synchronized void removeTrail(Trail trail) {
+        if (trail == null) {
+            return;
+        }
+        removeTrail(trail.getUUID());
+    }
 
+    public synchronized void removeTrail(String uuid) {
+        if (uuid == null) {
+            return;
+        }
+        Trail trail = mTrailMap.remove(uuid);
+        mPinnedTrails.remove(uuid);
+        mEvictedTrails.remove(uuid);
+        if (mSpillStore != null) {
+            mSpillStore.remove(uuid);
+        }
+        if (trail != null) {
+            removeTrailMapMemorySize(trail);
+        }
     }
 
     public void addNewTrail(Trail trail) {
         addTrail(trail);
+    }
+
+    /**
+     * Gets a trail and pins it so that it is never evicted, called before it is edited in place.
+     * Lookup and pin are one step, so the trail cannot be evicted in between.
+     * @param uuid Trail uuid
+     * @return The pinned trail, or null if it is not cached
+     */
+    public synchronized Trail pinTrail(String uuid) {
+        Trail trail = getTrail(uuid);
+        if (trail != null) {
+            mPinnedTrails.add(uuid);
+            releaseExcessPins();
+        }
+        return trail;
+    }
+
+    /**
+     * Unpins the oldest pinned trails while the pinned trails hold more than their share of the budget.
+     * The released trails become evictable; with spilling enabled their edited state is spilled and
+     * faulted back in, without it the edits are lost once they are evicted.
+     */
+    private void releaseExcessPins() {
+        long pinnedMemory = getPinnedMemory();
+        Iterator<String> iterator = mPinnedTrails.iterator();
+        while (pinnedMemory > maxMemory / PINNED_MEMORY_DIVISOR && mPinnedTrails.size() > 1 && iterator.hasNext()) {
+            String uuid = iterator.next();
+            iterator.remove();
+            Trail trail = mTrailMap.get(uuid);
+            if (trail != null) {
+                pinnedMemory -= calculateEntrySize(trail);
+            }
+            Log.w(TAG, "releaseExcessPins unpin uuid:" + uuid + " pinned:" + pinnedMemory
+                + (mSpillStore == null ? ", unsaved edits may be lost" : ""));
+        }
+    }
+
+    /**
+     * @return Estimated memory of the pinned trails in bytes
+     */
+    public synchronized long getPinnedMemory() {
+        long pinnedMemory = 0;
+        for (String uuid : mPinnedTrails) {
+            Trail trail = mTrailMap.get(uuid);
+            if (trail != null) {
+                pinnedMemory += calculateEntrySize(trail);
+            }
+        }
+        return pinnedMemory;
+    }
+
+    /**
+     * Releases the pin of pinTrail, called once the edits are written or discarded.
+     * @param uuid Trail uuid
+     */
+    public synchronized void unpinTrail(String uuid) {
+        if (uuid != null && mPinnedTrails.remove(uuid)) {
+            trimTrailMap();
+        }
+    }
+
+    /**
+     * Sets the memory budget for cached trails.
+     * @param maxMemory Budget in bytes
+     */
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
         trimTrailMap();
     }
 
+    public synchronized long getTrailsMemory() {
+        return trailsMemory;
+    }
+
+    public synchronized int getTrailCount() {
+        return mTrailMap.size();
+    }
+
+    public synchronized int getSpilledTrailCount() {
+        return mSpillStore == null ? 0 : mSpillStore.size();
+    }
+
     /**
      * Quickly estimates the total memory usage of mTrailMap.
      * @return Memory usage in bytes
      */
-    public long calculateMapMemorySize() {
+    public synchronized long calculateMapMemorySize() {
         long totalSize = 0;
 
-        // ConcurrentHashMap base overhead
-        totalSize += 1024; // Estimated HashMap structural overhead
+        // LinkedHashMap base overhead
+        totalSize += MAP_OVERHEAD;
 
         // Estimate memory per entry
         for (Map.Entry<String, Trail> entry : mTrailMap.entrySet()) {
-            // Key memory (String)
-            totalSize += entry.getKey().length() * 2;
-            // Value memory (Trail object)
-            totalSize += MemoryCalculate.calculateTrailMemorySize(entry.getValue());
-            // Entry object overhead
-            totalSize += 32;
+            totalSize += calculateEntrySize(entry.getValue());
         }
 
         return totalSize;
     }
 
+    private long calculateEntrySize(Trail trail) {
+        // Key memory (String)
+        long size = trail.getUUID().length() * 2L;
+        // Value memory (Trail object)
+        size += MemoryCalculate.calculateTrailMemorySize(trail);
+        // Entry object overhead
+        size += ENTRY_OVERHEAD;
+        return size;
+    }
+
     private void addTrailMapMemorySize(Trail trail) {
-        trailsMemory += trail.getUUID().length() * 2;
-        // Value memory (Trail object)
-        trailsMemory += MemoryCalculate.calculateTrailMemorySize(trail);
-        // Entry object overhead
-        trailsMemory += 32;
+        trailsMemory += calculateEntrySize(trail);
     }
 
     private void removeTrailMapMemorySize(Trail trail) {
-        trailsMemory -= trail.getUUID().length() * 2;
-        // Value memory (Trail object)
-        trailsMemory -= MemoryCalculate.calculateTrailMemorySize(trail);
-        // Entry object overhead
-        trailsMemory -= 32;
+        trailsMemory -= calculateEntrySize(trail);
     }
 
-    public void clearTrailCache() {
-        uuid = "";
-        trail = null;
+    public synchronized void clearTrailCache() {
         mTrailMap.clear();
-        trailsMemory = 1024;
+        mPinnedTrails.clear();
+        mEvictedTrails.clear();
+        trailsMemory = MAP_OVERHEAD;
+        if (mSpillStore != null) {
+            mSpillStore.clear();
+        }
 
     }
 
-    public void updateTrailMapMemorySize(long oldSize, long newSize) {
+    public synchronized void updateTrailMapMemorySize(long oldSize, long newSize) {
         trailsMemory  = trailsMemory - oldSize + newSize;
+        if (newSize > oldSize) {
+            trimTrailMap();
+        }
     }
 
     /**
-     * Trims the map to reduce cache size when it grows too large.
+     * Checks whether there is room for more trails. Eviction normally keeps the cache
+     * within budget, so this only fails when pinned trails alone exceed it.
+     * @return true if the cache is within budget
      */
-    public void trimTrailMap() {
-        if(trailsMemory > MAX_MEMERY) {
-            removeTrail(trail);
+    public synchronized boolean checkTrailCache() {
+        trimTrailMap();
+        if (trailsMemory <= maxMemory) {
+            return true;
+        }
+        Log.w(TAG, "checkTrailCache over budget memory:" + trailsMemory + " pinned:" + mPinnedTrails.size()
+            + " trails, " + getPinnedMemory() + " bytes");
+        return false;
+    }
+
+    /**
+     * Evicts least recently used, unpinned trails until the cache fits the budget,
+     * spilling them to disk when enabled. The most recently used trail is always kept.
+     * Pinned trails have unsaved edits and are never evicted or spilled.
+     */
+    public synchronized void trimTrailMap() {
+        if (trailsMemory <= maxMemory) {
+            return;
+        }
+        Iterator<Map.Entry<String, Trail>> iterator = mTrailMap.entrySet().iterator();
+        // Never evict the most recently used entry, it is the one the caller is working on
+        int evictable = mTrailMap.size() - 1;
+        while (trailsMemory > maxMemory && evictable > 0 && iterator.hasNext()) {
+            Map.Entry<String, Trail> entry = iterator.next();
+            evictable--;
+            if (mPinnedTrails.contains(entry.getKey())) {
+                continue;
+            }
+            iterator.remove();
+            removeTrailMapMemorySize(entry.getValue());
+            Log.i(TAG, "trimTrailMap evict uuid:" + entry.getKey());
+            spillTrail(entry.getValue());
+            mEvictedTrails.put(entry.getKey(), new EvictedTrailRef(entry.getValue(), mEvictedQueue));
+        }
+        expungeEvictedTrails();
+    }
+
+    private void spillTrail(Trail trail) {
+        if (mSpillStore == null) {
+            return;
+        }
+        try {
+            if (!mSpillStore.put(trail)) {
+                Log.w(TAG, "spillTrail spill file full, drop uuid:" + trail.getUUID());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "spillTrail error uuid:" + trail.getUUID(), e);
         }
     }
 }
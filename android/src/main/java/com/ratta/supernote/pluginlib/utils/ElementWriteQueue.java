@@ -0,0 +1,230 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.ratta.supernote.plugincommon.error.PluginAPIError;
+import com.ratta.supernote.plugincommon.response.PluginAPIResponse;
+import com.ratta.supernote.pluginlib.constant.paramkey.TrailKey;
+import com.ratta.supernote.pluginlib.core.PluginAppAPI;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Opt-in write-behind queue for modifyElements.
+ * Modifications of the same (notePath, page, numInPage) within the coalescing window are merged,
+ * and only the latest state of each element is written when the page is flushed.
+ * Each caller's promise resolves with the result of the write that carried its elements,
+ * limited to the numInPage values of its own elements.
+ */
+public class ElementWriteQueue {
+
+    /**
+     * Performs the actual page write.
+     */
+    public interface Writer {
+        /**
+         * @param elements Latest state of each pending element of the page
+         * @param calls All calls merged into this write
+         * @param onWritten Must be run once after the host answered the write
+         */
+        void write(String notePath, int page, ReadableArray elements, List<PendingCall> calls, Runnable onWritten);
+    }
+
+    /**
+     * A modifyElements call waiting for its write.
+     */
+    public static class PendingCall {
+        public final Promise promise;
+        // numInPage values of the call's elements, null for every element of the write
+        public final Set<Integer> trailNums;
+
+        public PendingCall(Promise promise, Set<Integer> trailNums) {
+            this.promise = promise;
+            this.trailNums = trailNums;
+        }
+
+        /**
+         * @return Whether a numInPage of the write result belongs to this call
+         */
+        public boolean owns(int trailNum) {
+            return trailNums == null || trailNums.contains(trailNum);
+        }
+    }
+
+    private static class PendingPage {
+        final String notePath;
+        final int page;
+        // numInPage -> latest element map
+        final LinkedHashMap<Integer, Map<String, Object>> elements = new LinkedHashMap<>();
+        final List<PendingCall> calls = new ArrayList<>();
+        Runnable flushTask;
+
+        PendingPage(String notePath, int page) {
+            this.notePath = notePath;
+            this.page = page;
+        }
+    }
+
+    // One queue per plugin, shared by the modules of the plugin
+    private static final Map<PluginAppAPI, ElementWriteQueue> sQueues = new WeakHashMap<>();
+
+    public static synchronized ElementWriteQueue forPlugin(PluginAppAPI pluginApp) {
+        ElementWriteQueue queue = sQueues.get(pluginApp);
+        if (queue == null) {
+            queue = new ElementWriteQueue();
+            sQueues.put(pluginApp, queue);
+        }
+        return queue;
+    }
+
+    private final Map<String, PendingPage> mPendingPages = new LinkedHashMap<>();
+    // Writes handed to the writer whose host answer is still outstanding
+    private int mWritesInFlight = 0;
+    private final List<Runnable> mFlushWaiters = new ArrayList<>();
+    private Writer mWriter;
+    // Coalescing window in ms, 0 while the queue is off
+    private long mWindowMs = 0;
+
+    public synchronized void setWriter(Writer writer) {
+        mWriter = writer;
+    }
+
+    public synchronized boolean isEnabled() {
+        return mWindowMs > 0 && mWriter != null;
+    }
+
+    /**
+     * Turns coalescing on with the given window, or off with 0, which flushes pending writes.
+     */
+    public void setWindow(long windowMs) {
+        synchronized (this) {
+            mWindowMs = Math.max(windowMs, 0);
+        }
+        if (windowMs <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues elements for a page write.
+     * @return false if an element has no numInPage, nothing is queued then
+     */
+    public synchronized boolean enqueue(String notePath, int page, ReadableArray elementArray, Promise promise) {
+        List<Map<String, Object>> elementMaps = new ArrayList<>(elementArray.size());
+        List<Integer> trailNums = new ArrayList<>(elementArray.size());
+        for (int i = 0; i < elementArray.size(); i++) {
+            ReadableMap elementMap = elementArray.getMap(i);
+            if (elementMap == null || !elementMap.hasKey(TrailKey.TRAIL_NUM_IN_PAGE)
+                    || elementMap.isNull(TrailKey.TRAIL_NUM_IN_PAGE)) {
+                return false;
+            }
+            trailNums.add(elementMap.getInt(TrailKey.TRAIL_NUM_IN_PAGE));
+            elementMaps.add(elementMap.toHashMap());
+        }
+        String key = page + ":" + notePath;
+        PendingPage pendingPage = mPendingPages.get(key);
+        if (pendingPage == null) {
+            pendingPage = new PendingPage(notePath, page);
+            mPendingPages.put(key, pendingPage);
+            PendingPage scheduledPage = pendingPage;
+            pendingPage.flushTask = () -> flushPage(key, scheduledPage);
+            UiHandler.getInstance().handler().postDelayed(pendingPage.flushTask, mWindowMs);
+        }
+        for (int i = 0; i < elementMaps.size(); i++) {
+            // Later states replace earlier ones but keep the element's first position
+            pendingPage.elements.put(trailNums.get(i), elementMaps.get(i));
+        }
+        pendingPage.calls.add(new PendingCall(promise, new HashSet<>(trailNums)));
+        return true;
+    }
+
+    /**
+     * Writes all pending pages now.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Writes all pending pages now.
+     * @param onFlushed Run once the host has answered these writes and any earlier ones still in flight,
+     *                  right away if there are none
+     */
+    public void flush(Runnable onFlushed) {
+        List<Map.Entry<String, PendingPage>> pages;
+        synchronized (this) {
+            pages = new ArrayList<>(mPendingPages.entrySet());
+        }
+        for (Map.Entry<String, PendingPage> entry : pages) {
+            flushPage(entry.getKey(), entry.getValue());
+        }
+        if (onFlushed == null) {
+            return;
+        }
+        synchronized (this) {
+            if (mWritesInFlight > 0) {
+                mFlushWaiters.add(onFlushed);
+                return;
+            }
+        }
+        onFlushed.run();
+    }
+
+    private void onPageWritten() {
+        List<Runnable> waiters;
+        synchronized (this) {
+            mWritesInFlight--;
+            if (mWritesInFlight > 0 || mFlushWaiters.isEmpty()) {
+                return;
+            }
+            waiters = new ArrayList<>(mFlushWaiters);
+            mFlushWaiters.clear();
+        }
+        for (Runnable waiter : waiters) {
+            waiter.run();
+        }
+    }
+
+    private void flushPage(String key, PendingPage pendingPage) {
+        Writer writer;
+        synchronized (this) {
+            if (mPendingPages.get(key) != pendingPage) {
+                // Already flushed
+                return;
+            }
+            mPendingPages.remove(key);
+            UiHandler.getInstance().handler().removeCallbacks(pendingPage.flushTask);
+            writer = mWriter;
+            if (writer != null) {
+                mWritesInFlight++;
+            }
+        }
+        if (writer == null) {
+            // No module to write through, the callers must not wait forever
+            for (PendingCall call : pendingPage.calls) {
+                call.promise.resolve(ConvertUtils.response2Map(new PluginAPIResponse(PluginAPIError.PLUGIN_APP_NULL)));
+            }
+            return;
+        }
+        WritableArray elementArray = Arguments.createArray();
+        for (Map<String, Object> elementMap : pendingPage.elements.values()) {
+            elementArray.pushMap(Arguments.makeNativeMap(elementMap));
+        }
+        AtomicBoolean written = new AtomicBoolean();
+        writer.write(pendingPage.notePath, pendingPage.page, elementArray, pendingPage.calls, () -> {
+            if (written.compareAndSet(false, true)) {
+                onPageWritten();
+            }
+        });
+    }
+}
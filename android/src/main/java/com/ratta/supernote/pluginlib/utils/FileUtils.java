@@ -720,6 +720,56 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Reads stroke data from a temporary file written by saveTrailsAsTemp.
+     *
+     * @param tempFile
+     * @return
+     */
+    public static List<Trail> readTrailsFromTemp(File tempFile) throws IOException {
+        List<Trail> trails = new ArrayList<>();
+        readTrailsFromTemp(tempFile, (trail, index, count) -> trails.add(trail));
+        return trails;
+    }
+
+    /**
+     * Visitor for trails read from a temporary file.
+     */
+    public interface TrailVisitor {
+        /**
+         * @param trail Trail just read
+         * @param index Index of the trail in the file
+         * @param count Number of trails in the file
+         * @return false to stop reading
+         */
+        boolean onTrail(Trail trail, int index, int count);
+    }
+
+    /**
+     * Reads stroke data from a temporary file one trail at a time, so callers can
+     * hand trails on before the rest of the file is unparceled.
+     *
+     * @param tempFile
+     * @param visitor
+     */
+    public static void readTrailsFromTemp(File tempFile, TrailVisitor visitor) throws IOException {
+        byte[] data = Files.readAllBytes(tempFile.toPath());
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            int count = parcel.readInt();
+            for (int i = 0; i < count; i++) {
+                Trail trail = parcel.readParcelable(Trail.class.getClassLoader());
+                if (!visitor.onTrail(trail, i, count)) {
+                    return;
+                }
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
     public static boolean isValidPath(Context context, PluginAppAPI pluginApp, String path, String suffix) {
         Log.i(TAG, "isValidPath path:" + path);
 
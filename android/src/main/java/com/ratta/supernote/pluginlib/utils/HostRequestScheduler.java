@@ -0,0 +1,324 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.ratta.supernote.plugincommon.error.PluginAPIError;
+import com.ratta.supernote.plugincommon.response.PluginAPIResponse;
+import com.ratta.supernote.plugincommon.response.PluginAPIResponseError;
+import com.ratta.supernote.pluginlib.core.PluginAppAPI;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Schedules host requests by priority class.
+ * All classes share one budget of running requests; whenever a slot frees up, the queued request of the
+ * highest class is sent first. Lower classes may only hold part of the budget, so queued background
+ * work always leaves slots for interactive requests.
+ * Requests carrying a cancel token can be cancelled while queued or running; a cancelled running
+ * request still completes on the host, but its result is dropped.
+ * A request whose send throws, or whose host callback has not come within REQUEST_TIMEOUT_MS,
+ * releases its slot and is dropped the same way.
+ */
+public class HostRequestScheduler {
+    private static final String TAG = "HostRequestScheduler";
+
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    public static final String KEY_PRIORITY = "priority";
+    public static final String KEY_CANCEL_TOKEN = "cancelToken";
+
+    private static final String[] PRIORITY_NAMES = {"interactive", "normal", "background"};
+    // Requests sent to the host at once over all classes
+    private static final int MAX_RUNNING = 4;
+    // Part of MAX_RUNNING each class may hold, indexed by priority
+    private static final int[] CLASS_LIMITS = {4, 3, 1};
+    // Time a sent request may hold its slot without a host answer
+    private static final long REQUEST_TIMEOUT_MS = 60 * 1000;
+
+    // Error codes of dropped requests, outside the PluginAPIError codes
+    public static final int ERROR_CANCELLED = 1400;
+    public static final int ERROR_TIMEOUT = 1401;
+
+    /**
+     * Sends one host request. The host callback must call {@link Call#complete()} exactly once.
+     */
+    public interface Request {
+        void send(Call call);
+    }
+
+    /**
+     * Receives the response of a request that was dropped instead of answered.
+     */
+    public interface DroppedCallback {
+        /**
+         * @param response Cancelled, timeout or send error response
+         */
+        void onDropped(PluginAPIResponse response);
+    }
+
+    /**
+     * Priority and cancel token of a request.
+     */
+    public static class Options {
+        public final int priority;
+        public final String cancelToken;
+
+        public Options(int priority, String cancelToken) {
+            this.priority = priority;
+            this.cancelToken = cancelToken;
+        }
+
+        /**
+         * Reads the options from an API parameter map.
+         * @param map {priority?: 'interactive' | 'normal' | 'background', cancelToken?: string}, may be null
+         * @return The options, or null if the map is malformed
+         */
+        public static Options fromMap(ReadableMap map, int defaultPriority) {
+            if (map == null) {
+                return new Options(defaultPriority, null);
+            }
+            int priority = defaultPriority;
+            String cancelToken = null;
+            try {
+                if (map.hasKey(KEY_PRIORITY) && !map.isNull(KEY_PRIORITY)) {
+                    priority = parsePriority(map.getString(KEY_PRIORITY));
+                    if (priority < 0) {
+                        return null;
+                    }
+                }
+                if (map.hasKey(KEY_CANCEL_TOKEN) && !map.isNull(KEY_CANCEL_TOKEN)) {
+                    cancelToken = map.getString(KEY_CANCEL_TOKEN);
+                }
+            } catch (RuntimeException e) {
+                // Wrong value types
+                return null;
+            }
+            return new Options(priority, cancelToken);
+        }
+    }
+
+    /**
+     * A scheduled request.
+     */
+    public final class Call {
+        final int priority;
+        final String cancelToken;
+        final Request request;
+        final DroppedCallback onDropped;
+        final Runnable timeout = () -> {
+            if (drop(this, timeoutResponse())) {
+                dispatch();
+            }
+        };
+        // Cancelled, timed out or failed to send, its result is dropped
+        boolean cancelled;
+        boolean completed;
+
+        Call(Options options, Request request, DroppedCallback onDropped) {
+            this.priority = options.priority;
+            this.cancelToken = options.cancelToken;
+            this.request = request;
+            this.onDropped = onDropped;
+        }
+
+        /**
+         * Releases the slot of the request, to be called from its host callback.
+         * @return false if the request was cancelled, its result must be dropped then
+         */
+        public boolean complete() {
+            return HostRequestScheduler.this.complete(this);
+        }
+    }
+
+    // One scheduler per plugin, shared by the modules of the plugin
+    private static final Map<PluginAppAPI, HostRequestScheduler> sSchedulers = new WeakHashMap<>();
+
+    public static synchronized HostRequestScheduler forPlugin(PluginAppAPI pluginApp) {
+        HostRequestScheduler scheduler = sSchedulers.get(pluginApp);
+        if (scheduler == null) {
+            scheduler = new HostRequestScheduler();
+            sSchedulers.put(pluginApp, scheduler);
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return The priority of a class name, or -1 if the name is unknown
+     */
+    public static int parsePriority(String name) {
+        for (int i = 0; i < PRIORITY_NAMES.length; i++) {
+            if (PRIORITY_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of requests of a priority class that can run at once
+     */
+    public static int classLimit(int priority) {
+        return Math.min(CLASS_LIMITS[priority], MAX_RUNNING);
+    }
+
+    /**
+     * Response of a cancelled request.
+     */
+    public static PluginAPIResponse cancelledResponse() {
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(false);
+        response.setError(new PluginAPIResponseError(ERROR_CANCELLED, "Request cancelled"));
+        return response;
+    }
+
+    /**
+     * Response of a request the host did not answer in time.
+     */
+    public static PluginAPIResponse timeoutResponse() {
+        PluginAPIResponse response = new PluginAPIResponse();
+        response.setSuccess(false);
+        response.setError(new PluginAPIResponseError(ERROR_TIMEOUT, "Request timed out"));
+        return response;
+    }
+
+    private final List<ArrayDeque<Call>> mQueues = new ArrayList<>();
+    private final int[] mRunningCounts = new int[CLASS_LIMITS.length];
+    private int mRunningTotal = 0;
+    private final Set<Call> mRunningCalls = new LinkedHashSet<>();
+
+    private HostRequestScheduler() {
+        for (int i = 0; i < CLASS_LIMITS.length; i++) {
+            mQueues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Queues a request and sends it as soon as a slot is free for its class.
+     * @param onDropped Called once if the request is cancelled, times out or fails to send, instead of its result
+     */
+    public void submit(Options options, Request request, DroppedCallback onDropped) {
+        synchronized (this) {
+            mQueues.get(options.priority).add(new Call(options, request, onDropped));
+        }
+        dispatch();
+    }
+
+    /**
+     * Cancels the queued and running requests of a token.
+     * @return Number of cancelled requests
+     */
+    public int cancel(String cancelToken) {
+        List<Call> cancelledCalls = new ArrayList<>();
+        synchronized (this) {
+            for (ArrayDeque<Call> queue : mQueues) {
+                Iterator<Call> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    Call call = iterator.next();
+                    if (cancelToken.equals(call.cancelToken)) {
+                        iterator.remove();
+                        call.cancelled = true;
+                        cancelledCalls.add(call);
+                    }
+                }
+            }
+            for (Call call : mRunningCalls) {
+                if (!call.cancelled && cancelToken.equals(call.cancelToken)) {
+                    // Keeps its slot until the host answers
+                    call.cancelled = true;
+                    cancelledCalls.add(call);
+                }
+            }
+        }
+        for (Call call : cancelledCalls) {
+            call.onDropped.onDropped(cancelledResponse());
+        }
+        return cancelledCalls.size();
+    }
+
+    private boolean complete(Call call) {
+        boolean delivered;
+        synchronized (this) {
+            if (call.completed) {
+                return false;
+            }
+            release(call);
+            delivered = !call.cancelled;
+        }
+        dispatch();
+        return delivered;
+    }
+
+    /**
+     * Releases the slot of a running request that will not be answered, and drops it.
+     * A late host callback then gets false from complete().
+     * @return false if the request had already completed
+     */
+    private boolean drop(Call call, PluginAPIResponse response) {
+        boolean notify;
+        synchronized (this) {
+            if (call.completed) {
+                return false;
+            }
+            release(call);
+            // Already told if it was cancelled
+            notify = !call.cancelled;
+            call.cancelled = true;
+        }
+        if (notify) {
+            call.onDropped.onDropped(response);
+        }
+        return true;
+    }
+
+    // Must hold the lock
+    private void release(Call call) {
+        call.completed = true;
+        mRunningCalls.remove(call);
+        mRunningCounts[call.priority]--;
+        mRunningTotal--;
+        UiHandler.getInstance().handler().removeCallbacks(call.timeout);
+    }
+
+    private void dispatch() {
+        while (true) {
+            Call next = null;
+            synchronized (this) {
+                if (mRunningTotal >= MAX_RUNNING) {
+                    return;
+                }
+                // Highest class first, a class at its limit lets the next one have the slot
+                for (int priority = 0; priority < CLASS_LIMITS.length; priority++) {
+                    if (mRunningCounts[priority] < CLASS_LIMITS[priority] && !mQueues.get(priority).isEmpty()) {
+                        next = mQueues.get(priority).poll();
+                        mRunningCounts[priority]++;
+                        mRunningTotal++;
+                        mRunningCalls.add(next);
+                        break;
+                    }
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            UiHandler.getInstance().handler().postDelayed(next.timeout, REQUEST_TIMEOUT_MS);
+            // Sent outside the lock, host callbacks may complete synchronously
+            try {
+                next.request.send(next);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "send error", e);
+                // The slot is free again for the next round of the loop
+                drop(next, new PluginAPIResponse(PluginAPIError.UNKNOWN));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.util.Log;
+
+import com.ratta.supernote.plugincommon.error.PluginAPIError;
+import com.ratta.supernote.plugincommon.response.PluginAPIResponse;
+import com.ratta.supernote.pluginlib.callback.RequestHostCallback;
+import com.ratta.supernote.pluginlib.core.PluginAppAPI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Single-flight layer for idempotent host reads.
+ * Concurrent reads with the same key share one host call, and its response is passed to every waiting callback.
+ * Nothing is cached: a read issued after the shared call has answered starts a new one.
+ */
+public class HostSingleFlight {
+    private static final String TAG = "HostSingleFlight";
+
+    /**
+     * Sends the host read.
+     */
+    public interface Read {
+        void send(RequestHostCallback callback);
+    }
+
+    // One layer per plugin, shared by the modules of the plugin
+    private static final Map<PluginAppAPI, HostSingleFlight> sFlights = new WeakHashMap<>();
+
+    public static synchronized HostSingleFlight forPlugin(PluginAppAPI pluginApp) {
+        HostSingleFlight flight = sFlights.get(pluginApp);
+        if (flight == null) {
+            flight = new HostSingleFlight();
+            sFlights.put(pluginApp, flight);
+        }
+        return flight;
+    }
+
+    /**
+     * Builds a read key from the host method and its arguments.
+     */
+    public static String key(String method, Object... args) {
+        StringBuilder key = new StringBuilder(method);
+        for (Object arg : args) {
+            key.append('|').append(arg);
+        }
+        return key.toString();
+    }
+
+    // key -> callbacks waiting for the in-flight read
+    private final Map<String, List<RequestHostCallback>> mInFlight = new HashMap<>();
+
+    /**
+     * Joins the in-flight read of the key, or sends the read if there is none.
+     * If sending throws, the key is released and every waiter gets an UNKNOWN error.
+     */
+    public void read(String key, Read read, RequestHostCallback callback) {
+        List<RequestHostCallback> waiters;
+        synchronized (this) {
+            List<RequestHostCallback> inFlight = mInFlight.get(key);
+            if (inFlight != null) {
+                inFlight.add(callback);
+                return;
+            }
+            waiters = new ArrayList<>();
+            waiters.add(callback);
+            mInFlight.put(key, waiters);
+        }
+        // Set by the first answer, a send that throws after answering must not answer again
+        AtomicBoolean answered = new AtomicBoolean();
+        RequestHostCallback answer = response -> {
+            if (answered.getAndSet(true)) {
+                return;
+            }
+            synchronized (this) {
+                // Detached first, so no callback joins while the response is fanned out
+                if (mInFlight.get(key) == waiters) {
+                    mInFlight.remove(key);
+                }
+            }
+            for (RequestHostCallback waiter : waiters) {
+                try {
+                    waiter.onResponse(response);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "read callback error key:" + key, e);
+                }
+            }
+        };
+        try {
+            read.send(answer);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "read send error key:" + key, e);
+            answer.onResponse(new PluginAPIResponse(PluginAPIError.UNKNOWN));
+        }
+    }
+
+    /**
+     * Detaches all in-flight reads, called before writes that change what they return.
+     * Their current waiters still get the response, later reads start new host calls.
+     */
+    public synchronized void forget() {
+        mInFlight.clear();
+    }
+}
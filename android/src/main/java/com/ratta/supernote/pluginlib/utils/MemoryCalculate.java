@@ -1,13 +1,16 @@
 package com.ratta.supernote.pluginlib.utils;
 
+import android.graphics.Point;
 import android.graphics.PointF;
 
 import com.ratta.supernote.plugincommon.data.common.trail.Geometry;
 import com.ratta.supernote.plugincommon.data.common.trail.LinkTrail;
+import com.ratta.supernote.plugincommon.data.common.trail.RecognData;
 import com.ratta.supernote.plugincommon.data.common.trail.Stroke;
 import com.ratta.supernote.plugincommon.data.common.trail.TextBox;
 import com.ratta.supernote.plugincommon.data.common.trail.TitleTrail;
 import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+import com.ratta.supernote.pluginlib.bean.PackedStroke;
 
 import java.util.List;
 
@@ -16,9 +19,20 @@ import java.util.List;
  */
 public class MemoryCalculate {
 
+    // Point approx. 8 bytes (2 ints)
+    private static final int POINT_SIZE = 8;
+    // PointF approx. 8 bytes (2 floats)
+    private static final int POINTF_SIZE = 8;
+    private static final int SHORT_SIZE = 2;
+    private static final int INTEGER_SIZE = 4;
+    private static final int BOOLEAN_SIZE = 1;
+    // RecognData approx. 50 bytes
+    private static final int RECOGN_DATA_SIZE = 50;
+
     /**
      * Calculates the approximate memory usage of a Trail object.
      * Primarily accounts for the memory used by list fields inside Trail.
+     * Stroke sizes match the packed columns used for cached trails, see PackedStroke.
      * 
      * @param trail Trail object
      * @return Memory usage in bytes
@@ -37,14 +51,14 @@ public class MemoryCalculate {
 
         // 3. angles List<Point>
         if (trail.getAngles() != null) {
-            totalSize += trail.getAngles().size() * 8; // Point approx. 8 bytes (2 ints)
+            totalSize += trail.getAngles().size() * POINT_SIZE;
         }
 
         // 4. contoursSrc List<List<PointF>>
         if (trail.getContoursSrc() != null) {
             for (List<PointF> contour : trail.getContoursSrc()) {
                 if (contour != null) {
-                    totalSize += contour.size() * 8; // PointF approx. 8 bytes (2 floats)
+                    totalSize += contour.size() * POINTF_SIZE;
                 }
             }
         }
@@ -54,7 +68,7 @@ public class MemoryCalculate {
             LinkTrail link = trail.getLink();
             // controlTrailNums List<Integer>
             if (link.getControlTrailNums() != null) {
-                totalSize += link.getControlTrailNums().size() * 4; // Integer: 4 bytes
+                totalSize += link.getControlTrailNums().size() * INTEGER_SIZE;
             }
             // rectPoints List<Point>
             /*
@@ -70,7 +84,7 @@ public class MemoryCalculate {
             TitleTrail title = trail.getTitle();
             // controlTrailNums List<Integer>
             if (title.getControlTrailNums() != null) {
-                totalSize += title.getControlTrailNums().size() * 4;
+                totalSize += title.getControlTrailNums().size() * INTEGER_SIZE;
             }
             // rectPoints List<Point>
             /*
@@ -94,27 +108,27 @@ public class MemoryCalculate {
             Stroke stroke = trail.getStroke();
             // points List<Point>
             if (stroke.getPoints() != null) {
-                totalSize += stroke.getPoints().size() * 8;
+                totalSize += stroke.getPoints().size() * POINT_SIZE;
             }
             // pressures List<Short>
             if (stroke.getPressures() != null) {
-                totalSize += stroke.getPressures().size() * 2; // Short: 2 bytes
+                totalSize += stroke.getPressures().size() * SHORT_SIZE;
             }
             // eraseLineTrailNums List<Integer>
             if (stroke.getEraseLineTrailNums() != null) {
-                totalSize += stroke.getEraseLineTrailNums().size() * 4;
+                totalSize += stroke.getEraseLineTrailNums().size() * INTEGER_SIZE;
             }
             // flagDraw List<Boolean>
             if (stroke.getFlagDraw() != null) {
-                totalSize += stroke.getFlagDraw().size() * 1; // Boolean: 1 byte
+                totalSize += calculateListMemorySize(stroke.getFlagDraw());
             }
             // markPenDirection List<PointF>
             if (stroke.getMarkPenDirection() != null) {
-                totalSize += stroke.getMarkPenDirection().size() * 8;
+                totalSize += stroke.getMarkPenDirection().size() * POINTF_SIZE;
             }
             // recognPoints List<RecognData>
             if (stroke.getRecognPoints() != null) {
-                totalSize += stroke.getRecognPoints().size() * 50; // RecognData approx. 50 bytes
+                totalSize += stroke.getRecognPoints().size() * RECOGN_DATA_SIZE;
             }
         }
 
@@ -123,7 +137,7 @@ public class MemoryCalculate {
             Geometry geometry = trail.getGeometry();
             // points List<Point>
             if (geometry.getPoints() != null) {
-                totalSize += geometry.getPoints().size() * 8;
+                totalSize += geometry.getPoints().size() * POINT_SIZE;
             }
             totalSize += calculateStringSize(geometry.getType());
             totalSize += 20; // Other base fields
@@ -138,6 +152,59 @@ public class MemoryCalculate {
         return totalSize;
     }
 
+    /**
+     * Calculates the approximate memory usage of a single point-list element,
+     * using the same per-item sizes as {@link #calculateTrailMemorySize(Trail)}.
+     * A nested list (e.g. a contour) is the sum of its elements.
+     *
+     * @param element List element
+     * @return Memory usage in bytes
+     */
+    public static long calculateElementMemorySize(Object element) {
+        if (element instanceof Point) {
+            return POINT_SIZE;
+        } else if (element instanceof PointF) {
+            return POINTF_SIZE;
+        } else if (element instanceof Short) {
+            return SHORT_SIZE;
+        } else if (element instanceof Integer) {
+            return INTEGER_SIZE;
+        } else if (element instanceof Boolean) {
+            return BOOLEAN_SIZE;
+        } else if (element instanceof RecognData) {
+            return RECOGN_DATA_SIZE;
+        } else if (element instanceof List) {
+            return calculateListMemorySize((List<?>) element);
+        }
+        return 0;
+    }
+
+    /**
+     * Calculates the approximate memory usage of the elements in a point list.
+     *
+     * @param list Point list
+     * @return Memory usage in bytes
+     */
+    public static long calculateListMemorySize(List<?> list) {
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+        if (list instanceof PackedStroke.FlagList) {
+            // 1 bit per flag
+            return (list.size() + 7) / 8;
+        }
+        Object first = list.get(0);
+        if (!(first instanceof List)) {
+            // Lists hold a single element type, so the size is uniform
+            return list.size() * calculateElementMemorySize(first);
+        }
+        long totalSize = 0;
+        for (Object element : list) {
+            totalSize += calculateElementMemorySize(element);
+        }
+        return totalSize;
+    }
+
     /**
      * Estimates the memory usage of a string.
      * 
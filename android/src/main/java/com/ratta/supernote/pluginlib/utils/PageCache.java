@@ -0,0 +1,127 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of note pages read through the plugin APIs.
+ * A page keeps the uuids of its trails, which stay in the trail cache, and its spatial index once built.
+ * An entry stays valid while the note file keeps its modification time and length,
+ * writes made through the plugin APIs and pen-up events invalidate it explicitly.
+ * The stamp only tracks notes that are not open in the host, whose in-memory edits leave the file
+ * untouched; callers must not serve pages of the open note, see CommAPIModule.getCachedPage.
+ * Cached trails are the live trail-cache objects, so in-place edits of a trail invalidate its pages
+ * too, see invalidateTrail; a cached page always matches the note.
+ */
+public class PageCache {
+
+    // Maximum number of cached pages
+    private static final int MAX_PAGES = 16;
+
+    /**
+     * Cached data of one page.
+     */
+    public static class PageData {
+        // Trail uuids in drawing order, null if only the index was cached
+        public final List<String> uuids;
+        private PageSpatialIndex mIndex;
+
+        public PageData(List<String> uuids) {
+            this.uuids = uuids;
+        }
+
+        public synchronized PageSpatialIndex getIndex() {
+            return mIndex;
+        }
+
+        public synchronized void setIndex(PageSpatialIndex index) {
+            mIndex = index;
+        }
+    }
+
+    private static class CacheEntry {
+        final PageData pageData;
+        final long lastModified;
+        final long length;
+
+        CacheEntry(PageData pageData, long lastModified, long length) {
+            this.pageData = pageData;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    private final LinkedHashMap<String, CacheEntry> mPageMap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    private static String key(String notePath, int page) {
+        return page + ":" + notePath;
+    }
+
+    /**
+     * @return The cached page, or null if there is none or the note file changed since it was cached
+     */
+    public synchronized PageData get(String notePath, int page) {
+        String key = key(notePath, page);
+        CacheEntry entry = mPageMap.get(key);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(notePath);
+        if (file.lastModified() != entry.lastModified || file.length() != entry.length) {
+            mPageMap.remove(key);
+            return null;
+        }
+        return entry.pageData;
+    }
+
+    /**
+     * Caches a page, stamped with the current state of the note file.
+     */
+    public synchronized void put(String notePath, int page, PageData pageData) {
+        File file = new File(notePath);
+        mPageMap.put(key(notePath, page), new CacheEntry(pageData, file.lastModified(), file.length()));
+    }
+
+    public synchronized void invalidate(String notePath, int page) {
+        mPageMap.remove(key(notePath, page));
+    }
+
+    /**
+     * Drops the pages holding a trail, called before the trail is edited in place.
+     * @param uuid Trail uuid
+     */
+    public synchronized void invalidateTrail(String uuid) {
+        Iterator<CacheEntry> iterator = mPageMap.values().iterator();
+        while (iterator.hasNext()) {
+            List<String> uuids = iterator.next().pageData.uuids;
+            if (uuids != null && uuids.contains(uuid)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all pages of a note, e.g. after pages were inserted or removed.
+     */
+    public synchronized void invalidate(String notePath) {
+        Iterator<String> iterator = mPageMap.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (key.substring(key.indexOf(':') + 1).equals(notePath)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mPageMap.clear();
+    }
+}
@@ -0,0 +1,166 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Static R-tree over the element bounds of one note page.
+ * The tree is bulk loaded with Sort-Tile-Recursive packing, pages are rebuilt rather than updated.
+ */
+public class PageSpatialIndex {
+
+    // Maximum children per node
+    private static final int NODE_CAPACITY = 16;
+
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final Node mRoot;
+    private final int mSize;
+
+    private static class Node {
+        final RectF bounds;
+        // Leaf entries when children is null
+        final List<Entry> entries;
+        final List<Node> children;
+
+        Node(List<Entry> entries, List<Node> children) {
+            this.entries = entries;
+            this.children = children;
+            bounds = new RectF();
+            boolean first = true;
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    first = union(bounds, entry.bounds, first);
+                }
+            } else {
+                for (Node child : children) {
+                    first = union(bounds, child.bounds, first);
+                }
+            }
+        }
+    }
+
+    /**
+     * An indexed element.
+     */
+    public static class Entry {
+        public final String uuid;
+        public final RectF bounds;
+        // Position of the element in the page element list, i.e. its drawing order
+        public final int order;
+
+        public Entry(String uuid, RectF bounds, int order) {
+            this.uuid = uuid;
+            this.bounds = bounds;
+            this.order = order;
+        }
+    }
+
+    /**
+     * @param entries Element bounds in Android screen coordinates of the page
+     * @param pageWidth Page width in pixels
+     * @param pageHeight Page height in pixels
+     */
+    public PageSpatialIndex(List<Entry> entries, int pageWidth, int pageHeight) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mSize = entries.size();
+        mRoot = entries.isEmpty() ? null : build(entries);
+    }
+
+    public int getPageWidth() {
+        return mPageWidth;
+    }
+
+    public int getPageHeight() {
+        return mPageHeight;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    private static Node build(List<Entry> entries) {
+        List<Node> level = new ArrayList<>();
+        for (List<Entry> group : tile(new ArrayList<>(entries), true)) {
+            level.add(new Node(group, null));
+        }
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            for (List<Node> group : tile(level, false)) {
+                parents.add(new Node(null, group));
+            }
+            level = parents;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Sort-Tile-Recursive grouping: sorts by center x into vertical slices, then each slice by center y.
+     */
+    private static <T> List<List<T>> tile(List<T> items, boolean isEntry) {
+        int nodeCount = (items.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * NODE_CAPACITY;
+        Collections.sort(items, (a, b) -> Float.compare(boundsOf(a, isEntry).centerX(), boundsOf(b, isEntry).centerX()));
+        List<List<T>> groups = new ArrayList<>();
+        for (int sliceStart = 0; sliceStart < items.size(); sliceStart += sliceSize) {
+            List<T> slice = new ArrayList<>(items.subList(sliceStart, Math.min(sliceStart + sliceSize, items.size())));
+            Collections.sort(slice, (a, b) -> Float.compare(boundsOf(a, isEntry).centerY(), boundsOf(b, isEntry).centerY()));
+            for (int start = 0; start < slice.size(); start += NODE_CAPACITY) {
+                groups.add(new ArrayList<>(slice.subList(start, Math.min(start + NODE_CAPACITY, slice.size()))));
+            }
+        }
+        return groups;
+    }
+
+    private static RectF boundsOf(Object item, boolean isEntry) {
+        return isEntry ? ((Entry) item).bounds : ((Node) item).bounds;
+    }
+
+    private static boolean union(RectF bounds, RectF other, boolean first) {
+        if (first) {
+            bounds.set(other);
+        } else {
+            bounds.union(other.left, other.top, other.right, other.bottom);
+        }
+        return false;
+    }
+
+    // Closed-interval intersection, so zero-width bounds of straight lines still match
+    private static boolean intersects(RectF a, float left, float top, float right, float bottom) {
+        return a.left <= right && left <= a.right && a.top <= bottom && top <= a.bottom;
+    }
+
+    /**
+     * Finds the elements whose bounds intersect the rect.
+     * @return Matching entries, in no particular order
+     */
+    public List<Entry> query(float left, float top, float right, float bottom) {
+        List<Entry> result = new ArrayList<>();
+        if (mRoot == null) {
+            return result;
+        }
+        List<Node> stack = new ArrayList<>();
+        stack.add(mRoot);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (!intersects(node.bounds, left, top, right, bottom)) {
+                continue;
+            }
+            if (node.entries != null) {
+                for (Entry entry : node.entries) {
+                    if (intersects(entry.bounds, left, top, right, bottom)) {
+                        result.add(entry);
+                    }
+                }
+            } else {
+                stack.addAll(node.children);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Version snapshots of note pages for incremental diffs.
+ * A snapshot maps the trail uuids of a page to their content hashes and is identified by a token,
+ * a diff compares the current page against the snapshot of the caller's token.
+ * Trails are matched by uuid only, which assumes the host keeps uuids stable across exports of a page.
+ * Nothing in the host API guarantees that over a note reload; a changed uuid shows up as a removal
+ * plus an addition, so the diff stays correct, only coarser.
+ */
+public class PageVersionStore {
+
+    // Maximum number of snapshots kept over all pages
+    private static final int MAX_SNAPSHOTS = 64;
+
+    private static class Snapshot {
+        final String notePath;
+        final int page;
+        // uuid -> content hash
+        final Map<String, Long> hashes;
+
+        Snapshot(String notePath, int page, Map<String, Long> hashes) {
+            this.notePath = notePath;
+            this.page = page;
+            this.hashes = hashes;
+        }
+    }
+
+    /**
+     * Changes of a page since a token.
+     */
+    public static class Changes {
+        public final String token;
+        // True if the token was unknown, all current trails are reported as added then
+        public final boolean reset;
+        // Indexes into the current trail list, in drawing order
+        public final List<Integer> added = new ArrayList<>();
+        public final List<Integer> modified = new ArrayList<>();
+        public final List<String> removed = new ArrayList<>();
+
+        Changes(String token, boolean reset) {
+            this.token = token;
+            this.reset = reset;
+        }
+    }
+
+    private final LinkedHashMap<String, Snapshot> mSnapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    // Keeps tokens of an earlier process from matching snapshots of this one
+    private final String mSession = Long.toString(System.currentTimeMillis(), 36);
+    private long mNextToken = 1;
+
+    /**
+     * Diffs the current state of a page against a token and records the current state.
+     * @param token Token of an earlier diff, null for a full listing
+     * @param uuids Current trail uuids in drawing order
+     * @param hashes Content hashes, parallel to uuids
+     * @return The changes and the token of the current state, which stays the same if nothing changed
+     */
+    public synchronized Changes diff(String notePath, int page, String token, List<String> uuids, long[] hashes) {
+        Snapshot base = token == null ? null : mSnapshots.get(token);
+        if (base != null && (base.page != page || !base.notePath.equals(notePath))) {
+            base = null;
+        }
+        Map<String, Long> current = new HashMap<>(uuids.size() * 2);
+        for (int i = 0; i < uuids.size(); i++) {
+            current.put(uuids.get(i), hashes[i]);
+        }
+        if (base == null) {
+            Changes changes = new Changes(record(notePath, page, current), true);
+            for (int i = 0; i < uuids.size(); i++) {
+                changes.added.add(i);
+            }
+            return changes;
+        }
+        List<Integer> added = new ArrayList<>();
+        List<Integer> modified = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < uuids.size(); i++) {
+            Long oldHash = base.hashes.get(uuids.get(i));
+            if (oldHash == null) {
+                added.add(i);
+            } else if (oldHash != hashes[i]) {
+                modified.add(i);
+            }
+        }
+        for (String uuid : base.hashes.keySet()) {
+            if (!current.containsKey(uuid)) {
+                removed.add(uuid);
+            }
+        }
+        boolean unchanged = added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+        Changes changes = new Changes(unchanged ? token : record(notePath, page, current), false);
+        changes.added.addAll(added);
+        changes.modified.addAll(modified);
+        changes.removed.addAll(removed);
+        return changes;
+    }
+
+    private String record(String notePath, int page, Map<String, Long> hashes) {
+        String token = mSession + "-" + mNextToken++;
+        mSnapshots.put(token, new Snapshot(notePath, page, hashes));
+        return token;
+    }
+
+    public synchronized void clear() {
+        mSnapshots.clear();
+    }
+}
@@ -0,0 +1,95 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import com.ratta.supernote.pluginlib.api.HostCommonAPI;
+
+/**
+ * Conversion between EMR coordinates and Android screen coordinates of a note page.
+ * Mirrors PointUtils on the RN side.
+ */
+public class PointUtils {
+
+    // A5X2 portrait page size
+    private static final int A5X2_PAGE_WIDTH = 1920;
+    private static final int A5X2_PAGE_HEIGHT = 2560;
+    // Portrait page size of the other devices
+    private static final int NORMAL_PAGE_WIDTH = 1404;
+    private static final int NORMAL_PAGE_HEIGHT = 1872;
+
+    /**
+     * Gets the maximum EMR X value for a page size.
+     * Unknown page sizes fall back to the host's EMR range.
+     */
+    public static int getRealMaxX(int pageWidth, int pageHeight) {
+        if (pageWidth < pageHeight) {
+            if (pageWidth == A5X2_PAGE_WIDTH && pageHeight == A5X2_PAGE_HEIGHT) {
+                return 21632;
+            }
+            if (pageWidth == NORMAL_PAGE_WIDTH && pageHeight == NORMAL_PAGE_HEIGHT) {
+                return 15819;
+            }
+        } else {
+            if (pageWidth == A5X2_PAGE_HEIGHT && pageHeight == A5X2_PAGE_WIDTH) {
+                return 16224;
+            }
+            if (pageWidth == NORMAL_PAGE_HEIGHT && pageHeight == NORMAL_PAGE_WIDTH) {
+                return 11864;
+            }
+        }
+        return getHostEMRMax(pageWidth < pageHeight ? 0 : 1);
+    }
+
+    /**
+     * Gets the maximum EMR Y value for a page size.
+     * Unknown page sizes fall back to the host's EMR range.
+     */
+    public static int getRealMaxY(int pageWidth, int pageHeight) {
+        if (pageWidth < pageHeight) {
+            if (pageWidth == A5X2_PAGE_WIDTH && pageHeight == A5X2_PAGE_HEIGHT) {
+                return 16224;
+            }
+            if (pageWidth == NORMAL_PAGE_WIDTH && pageHeight == NORMAL_PAGE_HEIGHT) {
+                return 11864;
+            }
+        } else {
+            if (pageWidth == A5X2_PAGE_HEIGHT && pageHeight == A5X2_PAGE_WIDTH) {
+                return 21632;
+            }
+            if (pageWidth == NORMAL_PAGE_HEIGHT && pageHeight == NORMAL_PAGE_WIDTH) {
+                return 15819;
+            }
+        }
+        return getHostEMRMax(pageWidth < pageHeight ? 1 : 0);
+    }
+
+    private static int getHostEMRMax(int index) {
+        if (HostCommonAPI.getInstance() == null) {
+            return 0;
+        }
+        int[] maxXY = HostCommonAPI.getInstance().getEMRMaxXY();
+        return maxXY == null || maxXY.length < 2 ? 0 : maxXY[index];
+    }
+
+    /**
+     * Converts interleaved EMR x/y values to Android screen coordinates in place.
+     * @param xy Interleaved x/y values
+     * @param pageWidth Page width in pixels
+     * @param pageHeight Page height in pixels
+     * @return false if the EMR range of the page is unknown, xy is left unchanged then
+     */
+    public static boolean emrPoints2Android(float[] xy, int pageWidth, int pageHeight) {
+        int maxX = getRealMaxX(pageWidth, pageHeight);
+        int maxY = getRealMaxY(pageWidth, pageHeight);
+        if (maxX <= 0 || maxY <= 0 || pageWidth <= 1 || pageHeight <= 1) {
+            return false;
+        }
+        float mappingTimesX = (float) maxX / (pageHeight - 1);
+        float mappingTimesY = (float) maxY / (pageWidth - 1);
+        for (int i = 0; i + 1 < xy.length; i += 2) {
+            float srcX = xy[i] / mappingTimesX;
+            float srcY = xy[i + 1] / mappingTimesY;
+            xy[i] = pageWidth - 1 - srcY;
+            xy[i + 1] = srcX;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,473 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import com.ratta.supernote.plugincommon.data.common.trail.FiveStar;
+import com.ratta.supernote.plugincommon.data.common.trail.Geometry;
+import com.ratta.supernote.plugincommon.data.common.trail.LinkTrail;
+import com.ratta.supernote.plugincommon.data.common.trail.Picture;
+import com.ratta.supernote.plugincommon.data.common.trail.Stroke;
+import com.ratta.supernote.plugincommon.data.common.trail.TextBox;
+import com.ratta.supernote.plugincommon.data.common.trail.TitleTrail;
+import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+import com.ratta.supernote.pluginlib.bean.PackedStroke;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Geometry utilities for point data of cached trails.
+ */
+public class TrailGeometryUtils {
+
+    /**
+     * Applies the matrix to a point list in place.
+     * @param points Point list
+     * @param matrix Affine matrix
+     */
+    public static void mapPoints(List<Point> points, Matrix matrix) {
+        if (points == null || points.isEmpty()) {
+            return;
+        }
+        if (points instanceof PackedStroke.PointList) {
+            ((PackedStroke.PointList) points).mapPoints(matrix);
+            return;
+        }
+        float[] xy = new float[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            Point point = points.get(i);
+            xy[i * 2] = point.x;
+            xy[i * 2 + 1] = point.y;
+        }
+        matrix.mapPoints(xy);
+        for (int i = 0; i < points.size(); i++) {
+            // Packed lists return copies, so write back with set()
+            points.set(i, new Point(Math.round(xy[i * 2]), Math.round(xy[i * 2 + 1])));
+        }
+    }
+
+    /**
+     * Applies the matrix to a float point list in place.
+     * @param points Point list
+     * @param matrix Affine matrix
+     * @param isVector true to apply only scale/rotation/skew, e.g. for directions
+     */
+    public static void mapPointFs(List<PointF> points, Matrix matrix, boolean isVector) {
+        if (points == null || points.isEmpty()) {
+            return;
+        }
+        float[] xy = new float[points.size() * 2];
+        for (int i = 0; i < points.size(); i++) {
+            PointF point = points.get(i);
+            xy[i * 2] = point.x;
+            xy[i * 2 + 1] = point.y;
+        }
+        if (isVector) {
+            matrix.mapVectors(xy);
+        } else {
+            matrix.mapPoints(xy);
+        }
+        for (int i = 0; i < points.size(); i++) {
+            // Packed lists return copies, so write back with set()
+            points.set(i, new PointF(xy[i * 2], xy[i * 2 + 1]));
+        }
+    }
+
+    /**
+     * Converts an affine matrix in Android screen coordinates of a page to the same transform
+     * in EMR coordinates, for stroke sample points.
+     * @param matrix Affine matrix in screen coordinates
+     * @param pageWidth Page width in pixels
+     * @param pageHeight Page height in pixels
+     * @return The EMR matrix, or null if the EMR range of the page is unknown
+     */
+    public static Matrix toEmrMatrix(Matrix matrix, int pageWidth, int pageHeight) {
+        int maxX = PointUtils.getRealMaxX(pageWidth, pageHeight);
+        int maxY = PointUtils.getRealMaxY(pageWidth, pageHeight);
+        if (maxX <= 0 || maxY <= 0 || pageWidth <= 1 || pageHeight <= 1) {
+            return null;
+        }
+        float mappingTimesX = (float) maxX / (pageHeight - 1);
+        float mappingTimesY = (float) maxY / (pageWidth - 1);
+        // EMR to screen, as PointUtils.emrPoints2Android
+        Matrix emr2Screen = new Matrix();
+        emr2Screen.setValues(new float[]{
+            0, -1 / mappingTimesY, pageWidth - 1,
+            1 / mappingTimesX, 0, 0,
+            0, 0, 1});
+        Matrix screen2Emr = new Matrix();
+        if (!emr2Screen.invert(screen2Emr)) {
+            return null;
+        }
+        Matrix emrMatrix = new Matrix(emr2Screen);
+        emrMatrix.postConcat(matrix);
+        emrMatrix.postConcat(screen2Emr);
+        return emrMatrix;
+    }
+
+    /**
+     * Applies the matrix to the points and ellipse center of a geometry in place.
+     * Ellipse radii are scaled by the mean scale of the matrix, the ellipse angle is kept.
+     * @param geometry Geometry, in screen coordinates
+     * @param matrix Affine matrix in screen coordinates
+     */
+    public static void mapGeometry(Geometry geometry, Matrix matrix) {
+        if (geometry == null) {
+            return;
+        }
+        mapPoints(geometry.getPoints(), matrix);
+        Point center = geometry.getEllipseCenterPoint();
+        if (center != null) {
+            float[] xy = {center.x, center.y};
+            matrix.mapPoints(xy);
+            geometry.setEllipseCenterPoint(new Point(Math.round(xy[0]), Math.round(xy[1])));
+            geometry.setEllipseMajorAxisRadius(Math.round(matrix.mapRadius(geometry.getEllipseMajorAxisRadius())));
+            geometry.setEllipseMinorAxisRadius(Math.round(matrix.mapRadius(geometry.getEllipseMinorAxisRadius())));
+        }
+    }
+
+    /**
+     * Recomputes maxX/maxY from the trail's points, in the coordinate space of each trail type:
+     * stroke sample points (EMR coordinates) for strokes, contour, angle and geometry points
+     * (screen coordinates) for other trails. Points of the other space are never mixed in.
+     * @param trail Trail
+     */
+    public static void updateMaxXY(Trail trail) {
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        Stroke stroke = trail.getStroke();
+        if (trail.getType() == Trail.TRAIL_TYPE_STROKE || stroke != null) {
+            List<Point> points = stroke == null ? null : stroke.getPoints();
+            for (int i = 0; points != null && i < points.size(); i++) {
+                Point point = points.get(i);
+                maxX = Math.max(maxX, point.x);
+                maxY = Math.max(maxY, point.y);
+            }
+        } else {
+            Geometry geometry = trail.getGeometry();
+            if (geometry != null && geometry.getPoints() != null) {
+                for (Point point : geometry.getPoints()) {
+                    maxX = Math.max(maxX, point.x);
+                    maxY = Math.max(maxY, point.y);
+                }
+            }
+            if (trail.getContoursSrc() != null) {
+                for (List<PointF> contour : trail.getContoursSrc()) {
+                    if (contour == null) {
+                        continue;
+                    }
+                    for (PointF point : contour) {
+                        maxX = Math.max(maxX, (int) Math.ceil(point.x));
+                        maxY = Math.max(maxY, (int) Math.ceil(point.y));
+                    }
+                }
+            }
+            if (trail.getAngles() != null) {
+                for (Point point : trail.getAngles()) {
+                    maxX = Math.max(maxX, point.x);
+                    maxY = Math.max(maxY, point.y);
+                }
+            }
+        }
+        if (maxX == Integer.MIN_VALUE) {
+            // No points, keep the current values
+            return;
+        }
+        trail.setMaxX(maxX);
+        trail.setMaxY(maxY);
+    }
+
+    /**
+     * Computes the bounding box of a trail in Android screen coordinates of its page.
+     * Contours, geometry points, text boxes, links and titles are already in screen coordinates;
+     * stroke sample points, five stars and pictures are in EMR coordinates and are converted.
+     * @param trail Trail
+     * @param pageWidth Page width in pixels
+     * @param pageHeight Page height in pixels
+     * @return Bounds, or null if the trail has no position data
+     */
+    public static RectF getBounds(Trail trail, int pageWidth, int pageHeight) {
+        RectF bounds = new RectF(Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        if (trail.getContoursSrc() != null) {
+            for (List<PointF> contour : trail.getContoursSrc()) {
+                if (contour == null) {
+                    continue;
+                }
+                for (PointF point : contour) {
+                    union(bounds, point.x, point.y);
+                }
+            }
+        }
+        if (hasPoints(bounds)) {
+            return bounds;
+        }
+        Geometry geometry = trail.getGeometry();
+        TextBox textBox = trail.getTextBox();
+        LinkTrail link = trail.getLink();
+        TitleTrail title = trail.getTitle();
+        Picture picture = trail.getPicture();
+        FiveStar fiveStar = trail.getFiveStar();
+        Stroke stroke = trail.getStroke();
+        if (geometry != null) {
+            if (geometry.getPoints() != null) {
+                for (Point point : geometry.getPoints()) {
+                    union(bounds, point.x, point.y);
+                }
+            }
+            Point center = geometry.getEllipseCenterPoint();
+            if (center != null && geometry.getEllipseMajorAxisRadius() > 0) {
+                // The major radius bounds the ellipse at any angle
+                int radius = geometry.getEllipseMajorAxisRadius();
+                union(bounds, center.x - radius, center.y - radius);
+                union(bounds, center.x + radius, center.y + radius);
+            }
+        } else if (textBox != null && textBox.getTextRect() != null) {
+            Rect rect = textBox.getTextRect();
+            union(bounds, rect.left, rect.top);
+            union(bounds, rect.right, rect.bottom);
+        } else if (link != null) {
+            union(bounds, link.getX(), link.getY());
+            union(bounds, link.getX() + link.getWidth(), link.getY() + link.getHeight());
+        } else if (title != null) {
+            union(bounds, title.getX(), title.getY());
+            union(bounds, title.getX() + title.getWidth(), title.getY() + title.getHeight());
+        } else {
+            RectF emrBounds = new RectF(Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+            if (picture != null && picture.getRect() != null) {
+                Rect rect = picture.getRect();
+                union(emrBounds, rect.left, rect.top);
+                union(emrBounds, rect.right, rect.bottom);
+            } else if (fiveStar != null && fiveStar.getPoints() != null) {
+                for (Point point : fiveStar.getPoints()) {
+                    union(emrBounds, point.x, point.y);
+                }
+            } else if (stroke != null && stroke.getPoints() != null && !stroke.getPoints().isEmpty()) {
+                int size = stroke.getPoints().size();
+                int[] xs = new int[size];
+                int[] ys = new int[size];
+                readPoints(stroke.getPoints(), xs, ys);
+                for (int i = 0; i < size; i++) {
+                    union(emrBounds, xs[i], ys[i]);
+                }
+            }
+            if (!hasPoints(emrBounds)) {
+                return null;
+            }
+            // The EMR mapping is a rotation plus scale, so mapping the corners is enough
+            float[] corners = {emrBounds.left, emrBounds.top, emrBounds.right, emrBounds.bottom};
+            if (!PointUtils.emrPoints2Android(corners, pageWidth, pageHeight)) {
+                return null;
+            }
+            union(bounds, corners[0], corners[1]);
+            union(bounds, corners[2], corners[3]);
+        }
+        return hasPoints(bounds) ? bounds : null;
+    }
+
+    /**
+     * Distance from a point to a trail in Android screen coordinates of its page.
+     * Strokes are measured against the polyline of their sample points, other trails against their bounds.
+     * @param trail Trail
+     * @param bounds Trail bounds from getBounds
+     * @return Distance, 0 if the point is inside the bounds of a non-stroke trail
+     */
+    public static double distanceToTrail(Trail trail, RectF bounds, float x, float y, int pageWidth, int pageHeight) {
+        Stroke stroke = trail.getStroke();
+        if (stroke != null && stroke.getPoints() != null && !stroke.getPoints().isEmpty()) {
+            int size = stroke.getPoints().size();
+            int[] xs = new int[size];
+            int[] ys = new int[size];
+            readPoints(stroke.getPoints(), xs, ys);
+            float[] xy = new float[size * 2];
+            for (int i = 0; i < size; i++) {
+                xy[i * 2] = xs[i];
+                xy[i * 2 + 1] = ys[i];
+            }
+            if (PointUtils.emrPoints2Android(xy, pageWidth, pageHeight)) {
+                double minDistance = Math.hypot(x - xy[0], y - xy[1]);
+                for (int i = 1; i < size; i++) {
+                    minDistance = Math.min(minDistance, distanceToSegment(x, y,
+                        xy[(i - 1) * 2], xy[(i - 1) * 2 + 1], xy[i * 2], xy[i * 2 + 1]));
+                }
+                return minDistance;
+            }
+        }
+        double dx = Math.max(0, Math.max(bounds.left - x, x - bounds.right));
+        double dy = Math.max(0, Math.max(bounds.top - y, y - bounds.bottom));
+        return Math.hypot(dx, dy);
+    }
+
+    private static boolean hasPoints(RectF bounds) {
+        return bounds.left <= bounds.right;
+    }
+
+    private static void union(RectF bounds, float x, float y) {
+        bounds.left = Math.min(bounds.left, x);
+        bounds.top = Math.min(bounds.top, y);
+        bounds.right = Math.max(bounds.right, x);
+        bounds.bottom = Math.max(bounds.bottom, y);
+    }
+
+    /**
+     * Ramer-Douglas-Peucker simplification.
+     * @param points Point list
+     * @param tolerance Maximum distance of a removed point from the simplified line
+     * @return Flags of the points to keep
+     */
+    public static boolean[] simplifyRDP(List<Point> points, double tolerance) {
+        int size = points.size();
+        boolean[] keep = new boolean[size];
+        if (size <= 2) {
+            for (int i = 0; i < size; i++) {
+                keep[i] = true;
+            }
+            return keep;
+        }
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        readPoints(points, xs, ys);
+        keep[0] = true;
+        keep[size - 1] = true;
+        // Iterative to avoid deep recursion on long strokes
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{0, size - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int start = range[0];
+            int end = range[1];
+            double maxDistance = -1;
+            int maxIndex = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = distanceToSegment(xs[i], ys[i], xs[start], ys[start], xs[end], ys[end]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    maxIndex = i;
+                }
+            }
+            if (maxIndex >= 0 && maxDistance > tolerance) {
+                keep[maxIndex] = true;
+                ranges.push(new int[]{start, maxIndex});
+                ranges.push(new int[]{maxIndex, end});
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * Visvalingam-Whyatt simplification.
+     * @param points Point list
+     * @param tolerance Points whose effective triangle area is below tolerance * tolerance are removed
+     * @return Flags of the points to keep
+     */
+    public static boolean[] simplifyVisvalingam(List<Point> points, double tolerance) {
+        int size = points.size();
+        boolean[] keep = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            keep[i] = true;
+        }
+        if (size <= 2) {
+            return keep;
+        }
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        readPoints(points, xs, ys);
+        int[] prev = new int[size];
+        int[] next = new int[size];
+        double[] areas = new double[size];
+        for (int i = 0; i < size; i++) {
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+        // Entries are {area, index}, stale entries are skipped when their area no longer matches
+        PriorityQueue<double[]> queue = new PriorityQueue<>(size, (a, b) -> Double.compare(a[0], b[0]));
+        for (int i = 1; i < size - 1; i++) {
+            areas[i] = triangleArea(xs, ys, i - 1, i, i + 1);
+            queue.add(new double[]{areas[i], i});
+        }
+        double minArea = tolerance * tolerance;
+        double lastArea = 0;
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            int index = (int) entry[1];
+            if (!keep[index] || entry[0] != areas[index]) {
+                continue;
+            }
+            // The effective area never decreases, so the removal order is stable
+            double area = Math.max(entry[0], lastArea);
+            if (area >= minArea) {
+                break;
+            }
+            lastArea = area;
+            keep[index] = false;
+            int p = prev[index];
+            int n = next[index];
+            next[p] = n;
+            prev[n] = p;
+            if (p > 0) {
+                areas[p] = triangleArea(xs, ys, prev[p], p, n);
+                queue.add(new double[]{areas[p], p});
+            }
+            if (n < size - 1) {
+                areas[n] = triangleArea(xs, ys, p, n, next[n]);
+                queue.add(new double[]{areas[n], n});
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * Keeps only the flagged items of a list, in place.
+     * @param list List aligned with keep
+     * @param keep Flags of the items to keep
+     */
+    public static <T> void retain(List<T> list, boolean[] keep) {
+        List<T> kept = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            if (keep[i]) {
+                kept.add(list.get(i));
+            }
+        }
+        list.clear();
+        list.addAll(kept);
+    }
+
+    private static void readPoints(List<Point> points, int[] xs, int[] ys) {
+        if (points instanceof PackedStroke.PointList) {
+            PackedStroke.PointList pointList = (PackedStroke.PointList) points;
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = pointList.getX(i);
+                ys[i] = pointList.getY(i);
+            }
+            return;
+        }
+        for (int i = 0; i < xs.length; i++) {
+            Point point = points.get(i);
+            xs[i] = point.x;
+            ys[i] = point.y;
+        }
+    }
+
+    private static double distanceToSegment(double x, double y, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return Math.hypot(x - x1, y - y1);
+        }
+        double t = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(x - (x1 + t * dx), y - (y1 + t * dy));
+    }
+
+    private static double triangleArea(int[] xs, int[] ys, int a, int b, int c) {
+        return Math.abs((double) (xs[b] - xs[a]) * (ys[c] - ys[a])
+            - (double) (xs[c] - xs[a]) * (ys[b] - ys[a])) / 2;
+    }
+}
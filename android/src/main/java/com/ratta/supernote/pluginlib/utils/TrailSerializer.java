@@ -0,0 +1,812 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.graphics.Point;
+import android.graphics.PointF;
+import android.graphics.Rect;
+
+import com.ratta.supernote.plugincommon.data.common.trail.FiveStar;
+import com.ratta.supernote.plugincommon.data.common.trail.Geometry;
+import com.ratta.supernote.plugincommon.data.common.trail.LinkTrail;
+import com.ratta.supernote.plugincommon.data.common.trail.Picture;
+import com.ratta.supernote.plugincommon.data.common.trail.RecogResultData;
+import com.ratta.supernote.plugincommon.data.common.trail.RecognData;
+import com.ratta.supernote.plugincommon.data.common.trail.Stroke;
+import com.ratta.supernote.plugincommon.data.common.trail.TextBox;
+import com.ratta.supernote.plugincommon.data.common.trail.TitleTrail;
+import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+import com.ratta.supernote.pluginlib.bean.PackedStroke;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact, versioned binary serialization of Trail, field by field.
+ * Unlike Parcel, the bytes do not depend on the Android runtime and can be read back from any ByteBuffer.
+ * <p>
+ * A record is laid out as:
+ * <pre>
+ * byte     version (2)
+ * uvarint  body length
+ * byte[]   body
+ * int32    CRC32 of the body, big-endian
+ * </pre>
+ * In the body, ints are zigzag varints, strings and lists are prefixed with a zigzag varint length
+ * (-1 for null) and nullable objects with a presence byte. Point lists are delta coded against the
+ * previous point, stroke pressures are delta coded, stroke flags are a bitset of (n + 7) / 8 bytes
+ * (bit i of byte i / 8 is flag i), and recognition timestamps are delta coded varlongs.
+ */
+public class TrailSerializer {
+
+    private static final int VERSION = 2;
+
+    // Marks a null object or list
+    private static final int NULL = -1;
+
+    // Largest body accepted when reading, far above any real trail; guards allocations against corrupt lengths
+    private static final int MAX_BODY_LENGTH = 64 * 1024 * 1024;
+
+    public static byte[] serialize(Trail trail) throws IOException {
+        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bodyStream);
+        writeBody(out, trail);
+        out.flush();
+
+        int bodyLength = bodyStream.size();
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream recordStream = new ByteArrayOutputStream(bodyLength + 10);
+        DataOutputStream record = new DataOutputStream(recordStream);
+        record.writeByte(VERSION);
+        writeUVarint(record, bodyLength);
+        byte[] body = bodyStream.toByteArray();
+        crc.update(body, 0, bodyLength);
+        record.write(body, 0, bodyLength);
+        record.writeInt((int) crc.getValue());
+        record.flush();
+        return recordStream.toByteArray();
+    }
+
+    private static void writeBody(DataOutputStream out, Trail trail) throws IOException {
+        writeString(out, trail.getUUID());
+        writeVarint(out, trail.getType());
+        writeVarint(out, trail.getPreNum());
+        writeVarint(out, trail.getPageNum());
+        writeVarint(out, trail.getLayerNum());
+        writeVarint(out, trail.getThickness());
+        writeVarint(out, trail.getTrailNum());
+        writeVarint(out, trail.getTrailNumInPage());
+        writeVarint(out, trail.getMaxX());
+        writeVarint(out, trail.getMaxY());
+        writeVarint(out, trail.getTrailStatus());
+        out.writeBoolean(trail.isFilterFlag());
+        out.writeDouble(trail.getFactorResize());
+        writeVarint(out, trail.getRedrawWidth());
+        writeVarint(out, trail.getRedrawHeight());
+        writeVarint(out, trail.getEmrPointAxis());
+        writePoints(out, trail.getAngles());
+        writeContours(out, trail.getContoursSrc());
+        writeStroke(out, trail.getStroke());
+        writeLink(out, trail.getLink());
+        writeTitle(out, trail.getTitle());
+        writeTextBox(out, trail.getTextBox());
+        writeGeometry(out, trail.getGeometry());
+        writeFiveStar(out, trail.getFiveStar());
+        writePicture(out, trail.getPicture());
+        writeRecogResult(out, trail.getRecognizeResult());
+    }
+
+    /**
+     * Hash of the serialized content of a trail: body length in the high 32 bits, CRC32 of the body in the low ones.
+     */
+    public static long contentHash(Trail trail) throws IOException {
+        ByteBuffer record = ByteBuffer.wrap(serialize(trail));
+        record.get();
+        long bodyLength = readUVarint(record);
+        record.position(record.limit() - 4);
+        return (bodyLength << 32) | (record.getInt() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes one record to a stream.
+     */
+    public static void write(OutputStream out, Trail trail) throws IOException {
+        out.write(serialize(trail));
+    }
+
+    /**
+     * Reads one record from a stream.
+     * @return The trail, or null at the end of the stream
+     */
+    public static Trail read(InputStream in) throws IOException {
+        int version = in.read();
+        if (version < 0) {
+            return null;
+        }
+        checkVersion(version);
+        int bodyLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0 || shift > 28) {
+                throw new IOException("Truncated trail record");
+            }
+            bodyLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Malformed trail record, body length: " + bodyLength);
+        }
+        byte[] body = new byte[bodyLength + 4];
+        new DataInputStream(in).readFully(body);
+        ByteBuffer record = ByteBuffer.wrap(body);
+        record.limit(bodyLength);
+        return decodeBody(record, ByteBuffer.wrap(body, bodyLength, 4).getInt());
+    }
+
+    public static Trail deserialize(ByteBuffer in) throws IOException {
+        checkVersion(in.get());
+        int bodyLength;
+        try {
+            bodyLength = readUVarint(in);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Truncated trail record", e);
+        }
+        if (bodyLength < 0 || bodyLength > MAX_BODY_LENGTH) {
+            throw new IOException("Malformed trail record, body length: " + bodyLength);
+        }
+        if (in.remaining() < bodyLength + 4) {
+            throw new IOException("Truncated trail record");
+        }
+        ByteBuffer body = in.slice();
+        body.limit(bodyLength);
+        in.position(in.position() + bodyLength);
+        return decodeBody(body, in.getInt());
+    }
+
+    private static void checkVersion(int version) throws IOException {
+        if (version != VERSION) {
+            throw new IOException("Unsupported trail version: " + version);
+        }
+    }
+
+    private static Trail decodeBody(ByteBuffer in, int checksum) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Trail record checksum mismatch");
+        }
+        try {
+            return readTrail(in);
+        } catch (RuntimeException e) {
+            // Malformed lengths or varints, or a body shorter than its fields
+            throw new IOException("Malformed trail record", e);
+        }
+    }
+
+    private static Trail readTrail(ByteBuffer in) {
+        Trail trail = new Trail();
+        trail.setUUID(readString(in));
+        trail.setType(readVarint(in));
+        trail.setPreNum(readVarint(in));
+        trail.setPageNum(readVarint(in));
+        trail.setLayerNum(readVarint(in));
+        trail.setThickness(readVarint(in));
+        trail.setTrailNum(readVarint(in));
+        trail.setTrailNumInPage(readVarint(in));
+        trail.setMaxX(readVarint(in));
+        trail.setMaxY(readVarint(in));
+        trail.setTrailStatus(readVarint(in));
+        trail.setFilterFlag(in.get() != 0);
+        trail.setFactorResize(in.getDouble());
+        trail.setRedrawWidth(readVarint(in));
+        trail.setRedrawHeight(readVarint(in));
+        trail.setEmrPointAxis(readVarint(in));
+        trail.setAngles(readPoints(in, new ArrayList<>()));
+        trail.setContoursSrc(readContours(in));
+        trail.setStroke(readStroke(in));
+        trail.setLink(readLink(in));
+        trail.setTitle(readTitle(in));
+        trail.setTextBox(readTextBox(in));
+        trail.setGeometry(readGeometry(in));
+        trail.setFiveStar(readFiveStar(in));
+        trail.setPicture(readPicture(in));
+        trail.setRecognizeResult(readRecogResult(in));
+        return trail;
+    }
+
+    private static void writeUVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readUVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    // Zigzag varints keep small negative values such as NULL and deltas short
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        writeUVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = readUVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarlong(DataOutputStream out, long value) throws IOException {
+        value = (value << 1) ^ (value >> 63);
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, NULL);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRect(DataOutputStream out, Rect rect) throws IOException {
+        out.writeBoolean(rect != null);
+        if (rect != null) {
+            writeVarint(out, rect.left);
+            writeVarint(out, rect.top);
+            writeVarint(out, rect.right);
+            writeVarint(out, rect.bottom);
+        }
+    }
+
+    private static Rect readRect(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        return new Rect(readVarint(in), readVarint(in), readVarint(in), readVarint(in));
+    }
+
+    private static void writePoint(DataOutputStream out, Point point) throws IOException {
+        out.writeBoolean(point != null);
+        if (point != null) {
+            writeVarint(out, point.x);
+            writeVarint(out, point.y);
+        }
+    }
+
+    private static Point readPoint(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        return new Point(readVarint(in), readVarint(in));
+    }
+
+    private static void writePoints(DataOutputStream out, List<Point> points) throws IOException {
+        if (points == null) {
+            writeVarint(out, NULL);
+            return;
+        }
+        writeVarint(out, points.size());
+        int lastX = 0;
+        int lastY = 0;
+        for (Point point : points) {
+            writeVarint(out, point.x - lastX);
+            writeVarint(out, point.y - lastY);
+            lastX = point.x;
+            lastY = point.y;
+        }
+    }
+
+    /**
+     * @param points Empty list to read into, e.g. a packed list
+     */
+    private static List<Point> readPoints(ByteBuffer in, List<Point> points) {
+        int size = readVarint(in);
+        if (size == NULL) {
+            return null;
+        }
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < size; i++) {
+            x += readVarint(in);
+            y += readVarint(in);
+            points.add(new Point(x, y));
+        }
+        return points;
+    }
+
+    private static void writePointFs(DataOutputStream out, List<PointF> points) throws IOException {
+        if (points == null) {
+            writeVarint(out, NULL);
+            return;
+        }
+        writeVarint(out, points.size());
+        for (PointF point : points) {
+            out.writeFloat(point.x);
+            out.writeFloat(point.y);
+        }
+    }
+
+    private static List<PointF> readPointFs(ByteBuffer in) {
+        int size = readVarint(in);
+        if (size == NULL) {
+            return null;
+        }
+        List<PointF> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new PointF(in.getFloat(), in.getFloat()));
+        }
+        return points;
+    }
+
+    private static void writeContours(DataOutputStream out, List<List<PointF>> contours) throws IOException {
+        if (contours == null) {
+            writeVarint(out, NULL);
+            return;
+        }
+        writeVarint(out, contours.size());
+        for (List<PointF> contour : contours) {
+            writePointFs(out, contour);
+        }
+    }
+
+    private static List<List<PointF>> readContours(ByteBuffer in) {
+        int size = readVarint(in);
+        if (size == NULL) {
+            return null;
+        }
+        List<List<PointF>> contours = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            contours.add(readPointFs(in));
+        }
+        return contours;
+    }
+
+    private static void writeIntegers(DataOutputStream out, List<Integer> values) throws IOException {
+        if (values == null) {
+            writeVarint(out, NULL);
+            return;
+        }
+        writeVarint(out, values.size());
+        for (Integer value : values) {
+            writeVarint(out, value);
+        }
+    }
+
+    private static List<Integer> readIntegers(ByteBuffer in) {
+        int size = readVarint(in);
+        if (size == NULL) {
+            return null;
+        }
+        List<Integer> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readVarint(in));
+        }
+        return values;
+    }
+
+    private static void writeStroke(DataOutputStream out, Stroke stroke) throws IOException {
+        out.writeBoolean(stroke != null);
+        if (stroke == null) {
+            return;
+        }
+        writeVarint(out, stroke.getPenColor());
+        writeVarint(out, stroke.getPenType());
+        writePoints(out, stroke.getPoints());
+
+        List<Short> pressures = stroke.getPressures();
+        if (pressures == null) {
+            writeVarint(out, NULL);
+        } else {
+            writeVarint(out, pressures.size());
+            int lastPressure = 0;
+            for (Short pressure : pressures) {
+                writeVarint(out, pressure - lastPressure);
+                lastPressure = pressure;
+            }
+        }
+
+        writeIntegers(out, stroke.getEraseLineTrailNums());
+
+        List<Boolean> flags = stroke.getFlagDraw();
+        if (flags == null) {
+            writeVarint(out, NULL);
+        } else {
+            writeVarint(out, flags.size());
+            int bits = 0;
+            for (int i = 0; i < flags.size(); i++) {
+                if (flags.get(i)) {
+                    bits |= 1 << (i & 7);
+                }
+                if ((i & 7) == 7 || i == flags.size() - 1) {
+                    out.writeByte(bits);
+                    bits = 0;
+                }
+            }
+        }
+
+        writePointFs(out, stroke.getMarkPenDirection());
+
+        List<RecognData> recognPoints = stroke.getRecognPoints();
+        if (recognPoints == null) {
+            writeVarint(out, NULL);
+        } else {
+            writeVarint(out, recognPoints.size());
+            int lastX = 0;
+            int lastY = 0;
+            long lastTimestamp = 0;
+            for (RecognData data : recognPoints) {
+                writeVarint(out, data.get_x() - lastX);
+                writeVarint(out, data.get_y() - lastY);
+                writeVarint(out, data.get_flag());
+                writeVarlong(out, data.get_timestamp() - lastTimestamp);
+                lastX = data.get_x();
+                lastY = data.get_y();
+                lastTimestamp = data.get_timestamp();
+            }
+        }
+    }
+
+    /**
+     * Reads a stroke straight into packed point columns.
+     */
+    private static Stroke readStroke(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        Stroke stroke = new Stroke();
+        stroke.setPenColor(readVarint(in));
+        stroke.setPenType(readVarint(in));
+        stroke.setPoints(readPoints(in, new PackedStroke.PointList()));
+
+        int size = readVarint(in);
+        if (size == NULL) {
+            stroke.setPressures(null);
+        } else {
+            List<Short> pressures = new PackedStroke.ShortList();
+            int pressure = 0;
+            for (int i = 0; i < size; i++) {
+                pressure += readVarint(in);
+                pressures.add((short) pressure);
+            }
+            stroke.setPressures(pressures);
+        }
+
+        stroke.setEraseLineTrailNums(readIntegers(in));
+
+        size = readVarint(in);
+        if (size == NULL) {
+            stroke.setFlagDraw(null);
+        } else {
+            List<Boolean> flags = new PackedStroke.FlagList();
+            int bits = 0;
+            for (int i = 0; i < size; i++) {
+                if ((i & 7) == 0) {
+                    bits = in.get();
+                }
+                flags.add((bits & (1 << (i & 7))) != 0);
+            }
+            stroke.setFlagDraw(flags);
+        }
+
+        stroke.setMarkPenDirection(readPointFs(in));
+
+        size = readVarint(in);
+        if (size == NULL) {
+            stroke.setRecognPoints(null);
+        } else {
+            List<RecognData> recognPoints = new ArrayList<>(size);
+            int x = 0;
+            int y = 0;
+            long timestamp = 0;
+            for (int i = 0; i < size; i++) {
+                x += readVarint(in);
+                y += readVarint(in);
+                int flag = readVarint(in);
+                timestamp += readVarlong(in);
+                recognPoints.add(new RecognData(x, y, flag, timestamp));
+            }
+            stroke.setRecognPoints(recognPoints);
+        }
+        return stroke;
+    }
+
+    private static void writeLink(DataOutputStream out, LinkTrail link) throws IOException {
+        out.writeBoolean(link != null);
+        if (link == null) {
+            return;
+        }
+        writeVarint(out, link.getCategory());
+        writeVarint(out, link.getX());
+        writeVarint(out, link.getY());
+        writeVarint(out, link.getWidth());
+        writeVarint(out, link.getHeight());
+        writeVarint(out, link.getPage());
+        writeVarint(out, link.getNum());
+        writeVarint(out, link.getIndex());
+        writeVarint(out, link.getPageSeq());
+        writeVarint(out, link.getStyle());
+        writeVarint(out, link.getLinkInout());
+        writeVarint(out, link.getLinkType());
+        writeString(out, link.getLinkTimestamp());
+        writeString(out, link.getDestFilePath());
+        writeString(out, link.getDestFileId());
+        writeString(out, link.getDestPageId());
+        writeVarint(out, link.getDestPageNum());
+        out.writeFloat(link.getFontSize());
+        writeString(out, link.getFontPath());
+        writeString(out, link.getFullText());
+        writeString(out, link.getShowText());
+        writeVarint(out, link.getAnti());
+        writeVarint(out, link.getBold());
+        writeVarint(out, link.getItalic());
+        writeVarint(out, link.getNewDestPageNum());
+        writeIntegers(out, link.getControlTrailNums());
+    }
+
+    private static LinkTrail readLink(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        LinkTrail link = new LinkTrail();
+        link.setCategory(readVarint(in));
+        link.setX(readVarint(in));
+        link.setY(readVarint(in));
+        link.setWidth(readVarint(in));
+        link.setHeight(readVarint(in));
+        link.setPage(readVarint(in));
+        link.setNum(readVarint(in));
+        link.setIndex(readVarint(in));
+        link.setPageSeq(readVarint(in));
+        link.setStyle(readVarint(in));
+        link.setLinkInout(readVarint(in));
+        link.setLinkType(readVarint(in));
+        link.setLinkTimestamp(readString(in));
+        link.setDestFilePath(readString(in));
+        link.setDestFileId(readString(in));
+        link.setDestPageId(readString(in));
+        link.setDestPageNum(readVarint(in));
+        link.setFontSize(in.getFloat());
+        link.setFontPath(readString(in));
+        link.setFullText(readString(in));
+        link.setShowText(readString(in));
+        link.setAnti(readVarint(in));
+        link.setBold(readVarint(in));
+        link.setItalic(readVarint(in));
+        link.setNewDestPageNum(readVarint(in));
+        link.setControlTrailNums(readIntegers(in));
+        return link;
+    }
+
+    private static void writeTitle(DataOutputStream out, TitleTrail title) throws IOException {
+        out.writeBoolean(title != null);
+        if (title == null) {
+            return;
+        }
+        writeVarint(out, title.getX());
+        writeVarint(out, title.getY());
+        writeVarint(out, title.getWidth());
+        writeVarint(out, title.getHeight());
+        writeVarint(out, title.getPage());
+        writeVarint(out, title.getNum());
+        writeVarint(out, title.getIndex());
+        writeVarint(out, title.getPageSeq());
+        writeVarint(out, title.getStyle());
+        writeIntegers(out, title.getControlTrailNums());
+    }
+
+    private static TitleTrail readTitle(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        TitleTrail title = new TitleTrail();
+        title.setX(readVarint(in));
+        title.setY(readVarint(in));
+        title.setWidth(readVarint(in));
+        title.setHeight(readVarint(in));
+        title.setPage(readVarint(in));
+        title.setNum(readVarint(in));
+        title.setIndex(readVarint(in));
+        title.setPageSeq(readVarint(in));
+        title.setStyle(readVarint(in));
+        title.setControlTrailNums(readIntegers(in));
+        return title;
+    }
+
+    private static void writeTextBox(DataOutputStream out, TextBox textBox) throws IOException {
+        out.writeBoolean(textBox != null);
+        if (textBox == null) {
+            return;
+        }
+        out.writeFloat(textBox.fontSize);
+        writeString(out, textBox.fontPath);
+        writeString(out, textBox.textContentFull);
+        writeRect(out, textBox.textRect);
+        out.writeFloat(textBox.textLineHeight);
+        writeString(out, textBox.textDigestData);
+        writeVarint(out, textBox.textType);
+        writeVarint(out, textBox.textColor);
+        writeVarint(out, textBox.textTypeface);
+        out.writeFloat(textBox.letterSpacing);
+        out.writeFloat(textBox.lineSpacingExtra);
+        out.writeFloat(textBox.lineSpacingMultiplier);
+        writeVarint(out, textBox.textAlign);
+        writeVarint(out, textBox.textAntiAlias);
+        writeVarint(out, textBox.textBold);
+        writeVarint(out, textBox.textShadowLayer);
+        writeVarint(out, textBox.textVertical);
+        writeVarint(out, textBox.textItalics);
+        writeVarint(out, textBox.textFrameWidthType);
+        writeVarint(out, textBox.textFrameWidth);
+        writeVarint(out, textBox.textFrameStyle);
+        writeVarint(out, textBox.textFrameStrokeColor);
+        writeVarint(out, textBox.textFrameFillColor);
+        writeVarint(out, textBox.textEditable);
+        writeVarint(out, textBox.textLayer);
+    }
+
+    private static TextBox readTextBox(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        TextBox textBox = new TextBox();
+        textBox.fontSize = in.getFloat();
+        textBox.fontPath = readString(in);
+        textBox.textContentFull = readString(in);
+        textBox.textRect = readRect(in);
+        textBox.textLineHeight = in.getFloat();
+        textBox.textDigestData = readString(in);
+        textBox.textType = readVarint(in);
+        textBox.textColor = readVarint(in);
+        textBox.textTypeface = readVarint(in);
+        textBox.letterSpacing = in.getFloat();
+        textBox.lineSpacingExtra = in.getFloat();
+        textBox.lineSpacingMultiplier = in.getFloat();
+        textBox.textAlign = readVarint(in);
+        textBox.textAntiAlias = readVarint(in);
+        textBox.textBold = readVarint(in);
+        textBox.textShadowLayer = readVarint(in);
+        textBox.textVertical = readVarint(in);
+        textBox.textItalics = readVarint(in);
+        textBox.textFrameWidthType = readVarint(in);
+        textBox.textFrameWidth = readVarint(in);
+        textBox.textFrameStyle = readVarint(in);
+        textBox.textFrameStrokeColor = readVarint(in);
+        textBox.textFrameFillColor = readVarint(in);
+        textBox.textEditable = readVarint(in);
+        textBox.textLayer = readVarint(in);
+        return textBox;
+    }
+
+    private static void writeGeometry(DataOutputStream out, Geometry geometry) throws IOException {
+        out.writeBoolean(geometry != null);
+        if (geometry == null) {
+            return;
+        }
+        writeVarint(out, geometry.getPenType());
+        writeVarint(out, geometry.getPenColor());
+        writeVarint(out, geometry.getPenWidth());
+        writeString(out, geometry.getType());
+        writePoints(out, geometry.getPoints());
+        writePoint(out, geometry.getEllipseCenterPoint());
+        writeVarint(out, geometry.getEllipseMajorAxisRadius());
+        writeVarint(out, geometry.getEllipseMinorAxisRadius());
+        out.writeDouble(geometry.getEllipseAngle());
+    }
+
+    private static Geometry readGeometry(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        int penType = readVarint(in);
+        int penColor = readVarint(in);
+        int penWidth = readVarint(in);
+        String type = readString(in);
+        List<Point> points = readPoints(in, new ArrayList<>());
+        Point ellipseCenterPoint = readPoint(in);
+        int majorRadius = readVarint(in);
+        int minorRadius = readVarint(in);
+        double ellipseAngle = in.getDouble();
+        return new Geometry(penType, penColor, penWidth, type, points, ellipseCenterPoint,
+                majorRadius, minorRadius, ellipseAngle);
+    }
+
+    private static void writeFiveStar(DataOutputStream out, FiveStar fiveStar) throws IOException {
+        out.writeBoolean(fiveStar != null);
+        if (fiveStar != null) {
+            writePoints(out, fiveStar.getPoints());
+        }
+    }
+
+    private static FiveStar readFiveStar(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        return new FiveStar(readPoints(in, new ArrayList<>()));
+    }
+
+    private static void writePicture(DataOutputStream out, Picture picture) throws IOException {
+        out.writeBoolean(picture != null);
+        if (picture != null) {
+            writeRect(out, picture.getRect());
+            writeString(out, picture.getPicturePath());
+        }
+    }
+
+    private static Picture readPicture(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        Rect rect = readRect(in);
+        return new Picture(rect, readString(in));
+    }
+
+    private static void writeRecogResult(DataOutputStream out, RecogResultData result) throws IOException {
+        out.writeBoolean(result != null);
+        if (result == null) {
+            return;
+        }
+        writeString(out, result.get_predict_name());
+        writeVarint(out, result.get_up_left_point_x());
+        writeVarint(out, result.get_up_left_point_y());
+        writeVarint(out, result.get_key_point_x());
+        writeVarint(out, result.get_key_point_y());
+        writeVarint(out, result.get_down_right_point_x());
+        writeVarint(out, result.get_down_right_point_y());
+    }
+
+    private static RecogResultData readRecogResult(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        String predictName = readString(in);
+        return new RecogResultData(predictName, readVarint(in), readVarint(in), readVarint(in),
+                readVarint(in), readVarint(in), readVarint(in));
+    }
+}
@@ -0,0 +1,193 @@
+package com.ratta.supernote.pluginlib.utils;
+
+import android.util.Log;
+
+import com.ratta.supernote.plugincommon.data.common.trail.Trail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Disk tier for trails evicted from DataCacheUtils.
+ * Trails are appended to a spill file with TrailSerializer and read back through a memory mapping.
+ * Space of taken or removed records is reclaimed by compacting the file once more than half of it is dead.
+ */
+public class TrailSpillStore {
+    private final String TAG = "TrailSpillStore";
+
+    private final File mFile;
+    private final long mMaxSize;
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mMappedBuffer;
+
+    // uuid -> {offset, length} of the record in the spill file
+    private final Map<String, long[]> mIndex = new HashMap<>();
+
+    private long mFileSize = 0;
+    private long mDeadBytes = 0;
+
+    /**
+     * @param file Spill file, created on first use
+     * @param maxSize Maximum spill file size in bytes
+     */
+    public TrailSpillStore(File file, long maxSize) {
+        mFile = file;
+        mMaxSize = maxSize;
+    }
+
+    private void open() throws IOException {
+        if (mChannel != null) {
+            return;
+        }
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+        mFileSize = 0;
+        mDeadBytes = 0;
+    }
+
+    /**
+     * Writes a trail to the spill file.
+     * @return false if the spill file is full
+     */
+    public synchronized boolean put(Trail trail) throws IOException {
+        byte[] data = TrailSerializer.serialize(trail);
+        open();
+        if (mFileSize + data.length > mMaxSize) {
+            compact();
+            if (mFileSize + data.length > mMaxSize) {
+                return false;
+            }
+        }
+        remove(trail.getUUID());
+        mChannel.write(ByteBuffer.wrap(data), mFileSize);
+        mIndex.put(trail.getUUID(), new long[]{mFileSize, data.length});
+        mFileSize += data.length;
+        return true;
+    }
+
+    public synchronized boolean contains(String uuid) {
+        return mIndex.containsKey(uuid);
+    }
+
+    /**
+     * Reads a trail back and removes it from the spill file.
+     * @return The trail, or null if it was not spilled
+     */
+    public synchronized Trail take(String uuid) throws IOException {
+        long[] record = mIndex.get(uuid);
+        if (record == null) {
+            return null;
+        }
+        Trail trail = TrailSerializer.deserialize(read(record));
+        remove(uuid);
+        return trail;
+    }
+
+    public synchronized void remove(String uuid) {
+        long[] record = mIndex.remove(uuid);
+        if (record == null) {
+            return;
+        }
+        mDeadBytes += record[1];
+        if (mIndex.isEmpty()) {
+            // Nothing live left, start over from the beginning of the file
+            mFileSize = 0;
+            mDeadBytes = 0;
+        }
+    }
+
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    private ByteBuffer read(long[] record) throws IOException {
+        long end = record[0] + record[1];
+        if (mMappedBuffer == null || mMappedBuffer.capacity() < end) {
+            // Remap to cover everything written so far
+            mMappedBuffer = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mFileSize);
+        }
+        ByteBuffer buffer = mMappedBuffer.duplicate();
+        buffer.position((int) record[0]);
+        buffer.limit((int) end);
+        return buffer.slice();
+    }
+
+    /**
+     * Rewrites the live records to the front of the file when more than half of it is dead.
+     */
+    private void compact() throws IOException {
+        if (mDeadBytes == 0 || mDeadBytes * 2 < mFileSize) {
+            return;
+        }
+        Log.i(TAG, "compact fileSize:" + mFileSize + " deadBytes:" + mDeadBytes);
+        Map<String, byte[]> live = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : mIndex.entrySet()) {
+            ByteBuffer buffer = read(entry.getValue());
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            live.put(entry.getKey(), data);
+        }
+        mMappedBuffer = null;
+        mIndex.clear();
+        mFileSize = 0;
+        mDeadBytes = 0;
+        Iterator<Map.Entry<String, byte[]>> iterator = live.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            byte[] data = entry.getValue();
+            mChannel.write(ByteBuffer.wrap(data), mFileSize);
+            mIndex.put(entry.getKey(), new long[]{mFileSize, data.length});
+            mFileSize += data.length;
+            iterator.remove();
+        }
+        mChannel.truncate(mFileSize);
+    }
+
+    public synchronized void clear() {
+        mIndex.clear();
+        mFileSize = 0;
+        mDeadBytes = 0;
+        mMappedBuffer = null;
+        if (mChannel != null) {
+            try {
+                mChannel.truncate(0);
+            } catch (IOException e) {
+                Log.e(TAG, "clear truncate error", e);
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file.
+     */
+    public synchronized void release() {
+        mIndex.clear();
+        mMappedBuffer = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                Log.e(TAG, "release close error", e);
+            }
+        }
+        mRandomAccessFile = null;
+        mChannel = null;
+        mFileSize = 0;
+        mDeadBytes = 0;
+        mFile.delete();
+    }
+}
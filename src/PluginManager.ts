@@ -143,6 +143,8 @@ const addPluginEventListener =() =>{
       let eventSubscription = eventSubscriptions.get(msg.type);
       let data;
       if(msg.type == EventType.PEN_UP){
+        // The page changed in memory, cached pages may be stale
+        NativePluginAPI.clearPageCache();
         data = transformElements(msg.data as any[]);
       }
       if(eventSubscription != null){
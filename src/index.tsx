@@ -15,7 +15,8 @@ import PluginNoteAPI from './sdk/PluginNoteAPI';
 import PluginDocAPI from './sdk/PluginDocAPI';
 import PluginFileAPI from './sdk/PluginFileAPI';
 import  { ElementPointDataType, ElementPointOperationType ,ElementDataAccessor,
- Element,
+ type ElementPointOperation, type ElementPointBuffer,
+ Element, ElementHandle, loadElements, type ElementQuery, type ElementPatch, type HostRequestOptions,
 
 type Point, type PointF,type Rect,
 
@@ -50,7 +51,14 @@ export {
 
   // Additional exports - core types
   ElementDataAccessor,
+  type ElementPointOperation,
+  type ElementPointBuffer,
   Element,
+  ElementHandle,
+  loadElements,
+  type ElementQuery,
+  type ElementPatch,
+  type HostRequestOptions,
 
   type Point, type PointF,type Rect,
 
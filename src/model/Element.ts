@@ -1,5 +1,6 @@
 
 import NativeCommAPIModule from '../module/NativePluginAPI';
+import { base64ToArrayBuffer } from '../utils/BufferUtils';
 
 export const transformElement = (element: Element): void => {
   element.angles = new ElementDataAccessor<Point>(
@@ -108,6 +109,33 @@ export enum ElementPointOperationType {
   INSERT_POINT_AT_INDEX = 4,
   // Replace the point at index
   REPLACE_POINT_AT_INDEX = 5,
+  /** Get points by index as a binary buffer. See {@link ElementDataAccessor.getBuffer} */
+  GET_POINT_BUFFER_BY_INDEX = 6,
+  /** Get points by index as one flat array. See {@link ElementDataAccessor.getRangeFlat} */
+  GET_FLAT_POINT_BY_INDEX = 7,
+}
+
+/**
+ * Typed array returned by {@link ElementDataAccessor.getBuffer}.
+ */
+export type ElementPointBuffer = Int32Array | Int16Array | Float32Array | Uint8Array;
+
+/**
+ * A single point operation, used by PluginCommAPI.opElementPointDataBatch.
+ */
+export interface ElementPointOperation {
+  /** Element UUID */
+  uuid: string;
+  /** Point data type. See {@link ElementPointDataType} */
+  type: ElementPointDataType;
+  /** Operation type. See {@link ElementPointOperationType} */
+  opType: ElementPointOperationType;
+  /** Point index. One value operates on a single point; two values operate on a range. */
+  index?: number[];
+  /** Contour points are a list of lists, so a sub-index is required. */
+  subIndex?: number[];
+  /** Values to add, insert or replace */
+  values?: Object[];
 }
 
 export interface Point {
@@ -115,6 +143,9 @@ export interface Point {
   y: number;
 }
 
+// Number of items the async iterator fetches per native call
+const ITERATOR_CHUNK_SIZE = 256;
+
 /**
  * Generic element point-data accessor that supports Point/number/boolean/Point[]/RecognData.
  */
@@ -220,17 +251,11 @@ export class ElementDataAccessor<
       return result;
     }
 
-    // Batch-fetch from native side
-    const data = (await NativeCommAPIModule.opElementPointData(
-      this.uuid,
-      this.type,
-      ElementPointOperationType.GET_POINT_BY_INDEX,
-      [startIndex, startIndex + count - 1],
-      [],
-      []
-    )) as T[];
+    // Batch-fetch from native side as one flat array
+    const flat = await this.getRangeFlat(startIndex, count);
+    const data = flat ? this.unflatten(flat) : [];
 
-    if (data?.length > 0) {
+    if (data.length > 0) {
       // Update cache
       data.forEach((item, index) => {
         if (this.isValidData(item)) {
@@ -248,14 +273,144 @@ export class ElementDataAccessor<
     return [];
   }
 
+  /**
+   * Reads point data as a typed array in one native call, without creating a JS object per point.
+   * Points are interleaved as [x0, y0, x1, y1, ...].
+   * - point: Int32Array
+   * - pointArray (contour) and marker direction: Float32Array
+   * - pressure: Int16Array
+   * - erase-line data: Int32Array
+   * - write flag: Uint8Array (0 or 1)
+   * Recognition data is not supported and returns null.
+   * @param startIndex Start index. For contour points, the index of the contour to read.
+   * @param count Number of items, or -1 for all items from startIndex. Ignored for contour points.
+   */
+  async getBuffer(
+    startIndex: number = 0,
+    count: number = -1
+  ): Promise<ElementPointBuffer | null> {
+    let index: number[] = [];
+    if (this.dataType === 'pointArray') {
+      index = [startIndex];
+    } else if (count >= 0) {
+      if (count === 0) {
+        return this.createBuffer(new ArrayBuffer(0));
+      }
+      index = [startIndex, startIndex + count - 1];
+    } else if (startIndex > 0) {
+      const totalSize = await this.size();
+      if (startIndex >= totalSize) {
+        return this.createBuffer(new ArrayBuffer(0));
+      }
+      index = [startIndex, totalSize - 1];
+    }
+
+    const data = await NativeCommAPIModule.opElementPointData(
+      this.uuid,
+      this.type,
+      ElementPointOperationType.GET_POINT_BUFFER_BY_INDEX,
+      index,
+      [],
+      []
+    );
+    if (typeof data !== 'string') {
+      return null;
+    }
+    return this.createBuffer(base64ToArrayBuffer(data));
+  }
+
+  /**
+   * Wraps raw little-endian bytes in the typed array matching this accessor's point type.
+   */
+  private createBuffer(buffer: ArrayBuffer): ElementPointBuffer | null {
+    switch (this.type) {
+      case ElementPointDataType.ANGLE_POINT:
+      case ElementPointDataType.STROKE_SAMPLE_POINT:
+      case ElementPointDataType.ERASE_LINE_DATA:
+        return new Int32Array(buffer);
+      case ElementPointDataType.CONTOUR_POINT:
+      case ElementPointDataType.MARK_PEN_DIRECTION:
+        return new Float32Array(buffer);
+      case ElementPointDataType.STROKE_PRESSURE_POINT:
+        return new Int16Array(buffer);
+      case ElementPointDataType.WRITE_FLAG:
+        return new Uint8Array(buffer);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets a range of data as one flat array of numbers, without creating an object per point.
+   * - point, marker direction: [x0, y0, x1, y1, ...]
+   * - recognData: [X0, Y0, Flag0, timestamp0, ...]
+   * - number, boolean: one value per item
+   * - pointArray (contour): one flat [x0, y0, ...] array per contour
+   * @param startIndex Start index.
+   * @param count Number of items to fetch.
+   */
+  async getRangeFlat(
+    startIndex: number,
+    count: number
+  ): Promise<Array<number | boolean | number[]> | null> {
+    if (count <= 0) {
+      return [];
+    }
+    const data = await NativeCommAPIModule.opElementPointData(
+      this.uuid,
+      this.type,
+      ElementPointOperationType.GET_FLAT_POINT_BY_INDEX,
+      [startIndex, startIndex + count - 1],
+      [],
+      []
+    );
+    return Array.isArray(data) ? data : null;
+  }
+
+  /**
+   * Rebuilds items from the flat layout returned by {@link getRangeFlat}.
+   */
+  private unflatten(flat: Array<number | boolean | number[]>): T[] {
+    const result: T[] = [];
+    if (this.dataType === 'point') {
+      for (let i = 0; i + 1 < flat.length; i += 2) {
+        result.push({ x: flat[i] as number, y: flat[i + 1] as number } as T);
+      }
+    } else if (this.dataType === 'recognData') {
+      for (let i = 0; i + 3 < flat.length; i += 4) {
+        result.push({
+          X: flat[i] as number,
+          Y: flat[i + 1] as number,
+          Flag: flat[i + 2] as number,
+          timestamp: flat[i + 3] as number,
+        } as T);
+      }
+    } else if (this.dataType === 'pointArray') {
+      for (const contour of flat as number[][]) {
+        const points: Point[] = [];
+        for (let i = 0; i + 1 < contour.length; i += 2) {
+          points.push({ x: contour[i]!, y: contour[i + 1]! });
+        }
+        result.push(points as T);
+      }
+    } else {
+      for (const item of flat) {
+        result.push(item as T);
+      }
+    }
+    return result;
+  }
+
   /**
    * Iterates over all data (async iterator).
+   * Data is fetched in chunks through {@link getRange}, not one native call per item.
    */
   async *[Symbol.asyncIterator](): AsyncIterableIterator<T> {
     const totalSize = await this.size();
-    for (let i = 0; i < totalSize; i++) {
-      const item = await this.get(i);
-      if (item !== null) {
+    for (let start = 0; start < totalSize; start += ITERATOR_CHUNK_SIZE) {
+      const count = Math.min(ITERATOR_CHUNK_SIZE, totalSize - start);
+      const items = await this.getRange(start, count);
+      for (const item of items) {
         yield item;
       }
     }
@@ -581,6 +736,59 @@ export class Element {
   }
 }
 
+/**
+ * Lightweight handle of a page element, see PluginFileAPI.getElementHandles.
+ * Only identity, type, layer and bounds are transferred; the full element stays in the native
+ * cache and is fetched the first time getElement() is called.
+ */
+export class ElementHandle {
+  public uuid: string = ''; // Universally unique identifier
+  public type: number = 0; // Element type, see Element.TYPE_*
+  public pageNum: number = 0; // Page number
+  public layerNum: number = 0; // Layer number
+  public numInPage: number = 0; // Index within the page
+  public bbox: Rect | null = null; // Bounds in page pixel coordinates; null when the element has no position data
+  private element: Element | null = null;
+
+  constructor(handle: Partial<ElementHandle>) {
+    Object.assign(this, handle);
+  }
+
+  /**
+   * Fetches the full element, once.
+   * @returns The element, or null if it is no longer in the native cache.
+   */
+  public async getElement(): Promise<Element | null> {
+    if (!this.element) {
+      const [element] = await loadElements([this]);
+      this.element = element ?? null;
+    }
+    return this.element;
+  }
+}
+
+/**
+ * Fetches the full elements of several handles in one native call.
+ * @param handles Element handles.
+ * @returns Elements in handle order; null for elements no longer in the native cache.
+ */
+export const loadElements = async (
+  handles: ElementHandle[]
+): Promise<(Element | null)[]> => {
+  const response = (await NativeCommAPIModule.getElementsByUuid(
+    handles.map((handle) => handle.uuid)
+  )) as { success: boolean; result?: (Element | null)[] };
+  if (!response?.success || !response.result) {
+    return handles.map(() => null);
+  }
+  for (const element of response.result) {
+    if (element) {
+      transformElement(element);
+    }
+  }
+  return response.result;
+};
+
 export interface PointF {
   x: number;
   y: number;
@@ -593,6 +801,50 @@ export interface Rect {
   bottom: number;
 }
 
+/**
+ * Scheduling of a host request, see PluginCommAPI.cancelHostRequests.
+ * All classes share a budget of 4 concurrent host requests, of which normal requests may hold 3 and
+ * background requests 1, and freed slots go to the highest queued class first.
+ * A request the host has not answered within 60s fails with error code 1401.
+ */
+export interface HostRequestOptions {
+  // Priority class; lower classes can only take part of the budget, so interactive requests always find a slot
+  priority?: 'interactive' | 'normal' | 'background';
+  // Caller chosen token to cancel the request with
+  cancelToken?: string;
+}
+
+/**
+ * Filter and projection of an element query, applied natively before elements are converted.
+ * All parts are optional.
+ */
+export interface ElementQuery extends HostRequestOptions {
+  // Element types to return, see {@link ElementType}
+  types?: number[];
+  // Layers to return
+  layers?: number[];
+  // Only elements whose bounds intersect the rect, in page pixel coordinates
+  rect?: Rect;
+  // Top-level element keys to return, e.g. ['type', 'layerNum', 'bbox']; uuid is always returned
+  fields?: string[];
+}
+
+/**
+ * Changed fields of one element, see PluginFileAPI.patchElements.
+ */
+export interface ElementPatch {
+  // numInPage of the element to change
+  numInPage: number;
+  // uuid of the element; with type, or with the element still cached natively, the page is not read
+  uuid?: string;
+  // Element type, used together with uuid
+  type?: number;
+  // Changed values by path, a top-level element key or stroke.child, e.g. { 'stroke.penColor': 0x9D };
+  // other nested objects such as textBox or geometry can only be set whole; stroke and stroke.child
+  // paths cannot be set in the same patch
+  set: Record<string, any>;
+}
+
 /**
  * Recognition result data.
  */
@@ -40,6 +40,30 @@ export interface Spec extends TurboModule {
     newValues: Object[]
   ): Promise<Object | null | undefined>;
 
+    /**
+   * Operates on element Point Data in batch.
+   */
+  opElementPointDataBatch(operations: Object[]): Promise<Object | null | undefined>;
+
+    /**
+   * Transforms element point data with an affine matrix.
+   */
+  transformElements(
+    notePath: string,
+    uuids: string[],
+    matrix: number[],
+    pointTypes: number[]
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Simplifies the sample points of a stroke element.
+   */
+  simplifyElement(
+    uuid: string,
+    tolerance: number,
+    algorithm: number
+  ): Promise<Object | null | undefined>;
+
     /**
    * Saves sticker By Lasso.
    */
@@ -119,10 +143,81 @@ export interface Spec extends TurboModule {
    * Gets elements.
    */
   getElements(
+    page: number,
+    notePath: string,
+    query: Object | null
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Gets elements of several pages.
+   */
+  getElementsForPages(
+    notePath: string,
+    pages: number[],
+    options: Object | null
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Streams page elements in chunks through events.
+   */
+  getElementsStream(
+    page: number,
+    notePath: string,
+    streamId: string,
+    chunkSize: number
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Cancels a running element stream.
+   */
+  cancelElementsStream(streamId: string): void;
+
+    /**
+   * Drops all pages cached by the page element cache.
+   */
+  clearPageCache(): void;
+
+    /**
+   * Gets lightweight handles of page elements.
+   */
+  getElementHandles(
     page: number,
     notePath: string
   ): Promise<Object | null | undefined>;
 
+    /**
+   * Gets full elements of cached trails by uuid.
+   */
+  getElementsByUuid(uuids: string[]): Promise<Object | null | undefined>;
+
+    /**
+   * Gets the changes of a page since a token.
+   */
+  getElementChangesSince(
+    notePath: string,
+    page: number,
+    token: string | null
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Gets page elements whose bounds intersect a rect.
+   */
+  queryElementsInRect(
+    notePath: string,
+    page: number,
+    rect: Object
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Gets page elements within a radius of a point.
+   */
+  hitTest(
+    notePath: string,
+    page: number,
+    point: Object,
+    radius: number
+  ): Promise<Object | null | undefined>;
+
     /**
    * Invokes replace Elements.
    */
@@ -150,10 +245,60 @@ export interface Spec extends TurboModule {
     elements: Object[]
   ): Promise<Object | null | undefined>;
 
+    /**
+   * Updates elements with patches of changed fields.
+   */
+  patchElements(
+    notePath: string,
+    page: number,
+    patches: Object[]
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Sets the modifyElements coalescing window, 0 turns it off.
+   */
+  setElementWriteCoalescing(windowMs: number): void;
+
+    /**
+   * Writes queued modifyElements calls now.
+   */
+  flushElementWrites(): void;
+
+    /**
+   * Starts an element transaction.
+   */
+  beginElementTransaction(): Promise<Object | null | undefined>;
+
+    /**
+   * Buffers a page write in an element transaction.
+   */
+  stageElementWrite(
+    transactionId: string,
+    op: string,
+    notePath: string,
+    page: number,
+    elements: Object[]
+  ): Promise<Object | null | undefined>;
+
+    /**
+   * Applies the buffered writes of an element transaction, best-effort and not atomic.
+   */
+  commitElementTransaction(transactionId: string): Promise<Object | null | undefined>;
+
+    /**
+   * Discards an element transaction.
+   */
+  rollbackElementTransaction(transactionId: string): void;
+
     /**
    * Gets lasso Elements.
    */
-  getLassoElements(): Promise<Object | null | undefined>;
+  getLassoElements(query: Object | null): Promise<Object | null | undefined>;
+
+    /**
+   * Cancels the scheduled host requests of a cancel token.
+   */
+  cancelHostRequests(cancelToken: string): Promise<Object | null | undefined>;
 
     /**
    * Gets lasso Element Type Counts.
@@ -370,6 +515,8 @@ export interface Spec extends TurboModule {
     times: number;
     pngPath: string;
     type: number;
+    priority?: string;
+    cancelToken?: string;
   }): Promise<Object | null | undefined>;
 
   // Note file related APIs
@@ -7,10 +7,12 @@ import {
   type Point,
   ElementDataAccessor,
   ElementPointDataType,
+  type ElementPointOperation,
   ElementType,
   RecognData,
   transformElements,
   Geometry,
+  type ElementQuery,
 } from '../model/Element';
 import type { LassoElementTypeNum } from '../model/lasso/LassoElementTypeNum';
 import type { Layer } from '../model/Layer';
@@ -19,7 +21,7 @@ import type { LargeData } from '../model/LargeData';
 import type { ModifyLassoTitle } from '../model/lasso/ModifyLassoTitle';
 import type { LassoLink, ModifyLassoLink, TextLink } from '../model/LassoData';
 import APIError from '../error/APIError';
-import { verifyParams, RectSchema, SizeSchema, ElementSchema, ElementStrokeSchema, PointSchema, GeometrySchema } from './utils/VerifyUtils';
+import { verifyParams, RectSchema, SizeSchema, ElementSchema, ElementStrokeSchema, PointSchema, GeometrySchema, ElementQuerySchema } from './utils/VerifyUtils';
 
 /**
  * PluginCommAPI - APIs for interacting with the native note app.
@@ -140,6 +142,8 @@ export default class PluginCommAPI {
 
   /**
    * Recycles an Element (Trail) object.
+   * Created elements and elements with unsaved point edits stay in memory until they are written
+   * to the note or recycled, so discarded ones should be recycled.
    * @param {string} uuid Element UUID
    */
   static recycleElement(uuid: string): void {
@@ -163,8 +167,140 @@ export default class PluginCommAPI {
     return NativePluginAPI.clearElementCache();
    }
 
+  /**
+   * Runs a list of element point operations in a single native call.
+   * Operations run in order and may target different elements and point types.
+   * @param {ElementPointOperation[]} operations Point operations. See {@link ElementPointOperation}
+   * @returns {Promise<Array<Object | null> | null>} Result of each operation, in the same order.
+   * Each result is what ElementDataAccessor would get for that operation: a size, a boolean, a list of points, or null.
+   */
+  static async opElementPointDataBatch(
+    operations: ElementPointOperation[]
+  ): Promise<Array<Object | null> | null> {
+    verifyParams(
+      {
+        operations: {
+          type: 'array',
+          required: true,
+          items: {
+            type: 'object',
+            properties: {
+              uuid: { type: 'string', required: true, nonEmpty: true },
+              type: { type: 'number', required: true, integer: true, min: 0, max: 7 },
+              opType: { type: 'number', required: true, integer: true, min: 0, max: 7 },
+              index: { type: 'array', items: { type: 'number', integer: true } },
+              subIndex: { type: 'array', items: { type: 'number', integer: true } },
+              values: { type: 'array' },
+            },
+          },
+        },
+      },
+      { operations },
+      { allowUnknown: false, rootName: 'opElementPointDataBatch' }
+    );
+    return (await NativePluginAPI.opElementPointDataBatch(
+      operations as unknown as Object[]
+    )) as Array<Object | null> | null;
+  }
+
 
 
+  /**
+   * Applies an affine transform in place to the point data of cached elements,
+   * without moving the points through JS.
+   * @param {string} notePath Note file path of the elements, used to read their page sizes
+   * @param {string[]} uuids Element UUIDs
+   * @param {number[]} matrix Affine matrix [scaleX, skewX, transX, skewY, scaleY, transY] in Android screen (pixel) coordinates of the page.
+   * A point (x, y) maps to (scaleX * x + skewX * y + transX, skewY * x + scaleY * y + transY).
+   * Stroke sample points and marker directions are stored in EMR coordinates and are transformed by the same
+   * movement on screen, converted with the page size.
+   * @param {number[]} pointTypes Point data types to transform. See {@link ElementPointDataType}.
+   * Supports ANGLE_POINT, CONTOUR_POINT, STROKE_SAMPLE_POINT and MARK_PEN_DIRECTION; empty or omitted transforms all of them
+   * and geometry points. Marker directions are vectors, so they are not translated.
+   * @returns {Promise<APIResponse<number>>} Returns an APIResponse where result is the number of transformed elements
+   */
+  static async transformElements(
+    notePath: string,
+    uuids: string[],
+    matrix: number[],
+    pointTypes: number[] = []
+  ): Promise<APIResponse<number>> {
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          uuids: { type: 'array', required: true, items: { type: 'string', nonEmpty: true } },
+          matrix: {
+            type: 'array',
+            required: true,
+            items: { type: 'number' },
+            custom: (value, path) => {
+              if ((value as number[]).length !== 6) {
+                throw new APIError(107, `${path} must contain 6 numbers`);
+              }
+            },
+          },
+          pointTypes: { type: 'array', items: { type: 'number', integer: true, enum: [0, 1, 2, 6] } },
+        },
+        { notePath, uuids, matrix, pointTypes },
+        { allowUnknown: false, rootName: 'transformElements' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } } as any;
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } } as any;
+      }
+    }
+    return (await NativePluginAPI.transformElements(
+      notePath,
+      uuids,
+      matrix,
+      pointTypes
+    )) as APIResponse<number>;
+  }
+
+  /**
+   * Simplifies the sample points of a stroke element natively, reducing its point count.
+   * Pressures, write flags, marker directions and recognition points aligned with the sample points are reduced with them.
+   * @param {string} uuid Element UUID
+   * @param {number} tolerance Simplification tolerance, in point coordinates.
+   * RDP removes points closer than tolerance to the simplified line; Visvalingam removes points whose triangle area is below tolerance².
+   * @param {number} algorithm 0=Ramer-Douglas-Peucker (default), 1=Visvalingam-Whyatt
+   * @returns {Promise<APIResponse<{originalCount: number, simplifiedCount: number, ratio: number}>>}
+   * Returns an APIResponse where ratio is simplifiedCount / originalCount
+   */
+  static async simplifyElement(
+    uuid: string,
+    tolerance: number,
+    algorithm: number = 0
+  ): Promise<
+    APIResponse<{ originalCount: number; simplifiedCount: number; ratio: number }>
+  > {
+    try {
+      verifyParams(
+        {
+          uuid: { type: 'string', required: true, nonEmpty: true },
+          tolerance: { type: 'number', required: true, min: 0 },
+          algorithm: { type: 'number', required: true, integer: true, enum: [0, 1] },
+        },
+        { uuid, tolerance, algorithm },
+        { allowUnknown: false, rootName: 'simplifyElement' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } } as any;
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } } as any;
+      }
+    }
+    return (await NativePluginAPI.simplifyElement(uuid, tolerance, algorithm)) as APIResponse<{
+      originalCount: number;
+      simplifiedCount: number;
+      ratio: number;
+    }>;
+  }
+
   /**
    * Saves the lasso-selected elements as a sticker.
    * @param {string} path Sticker output path
@@ -472,10 +608,25 @@ export default class PluginCommAPI {
 
   /**
    * Gets lasso elements.
+   * The lasso read is scheduled as interactive unless query.priority says otherwise.
+   * @param {ElementQuery} query Optional filter and projection, applied natively
    * @returns {Promise<APIResponse<Element[]>>} Lasso elements
    */
-  static async getLassoElements(): Promise<Object | null | undefined> {
-    const response = (await NativePluginAPI.getLassoElements()) as APIResponse<
+  static async getLassoElements(query?: ElementQuery): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        { query: { type: 'object', properties: ElementQuerySchema } },
+        { query },
+        { allowUnknown: false, rootName: 'getLassoElements' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = (await NativePluginAPI.getLassoElements(query ?? null)) as APIResponse<
       Object | null | undefined
     >;
 
@@ -484,6 +635,30 @@ export default class PluginCommAPI {
     }
     return response;
   }
+  /**
+   * Cancels the host requests started with a cancel token, see {@link HostRequestOptions}.
+   * Queued requests are never sent; requests already sent to the host resolve at once with
+   * error code 1400 and their host result is dropped.
+   * @param {string} cancelToken Token passed in the request options
+   * @returns {Promise<APIResponse<number>>} Number of cancelled requests
+   */
+  static async cancelHostRequests(cancelToken: string): Promise<APIResponse<number>> {
+    try {
+      verifyParams(
+        { cancelToken: { type: 'string', required: true, nonEmpty: true } },
+        { cancelToken },
+        { allowUnknown: false, rootName: 'cancelHostRequests' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } } as any;
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } } as any;
+      }
+    }
+    return await NativePluginAPI.cancelHostRequests(cancelToken) as APIResponse<number>;
+  }
+
 
   /**
    * Gets lasso element type counts.
@@ -1,10 +1,15 @@
 import APIError from "../error/APIError";
-import { Title, Element, transformElements, transformElement } from "../model/Element";
+import { Title, Element, ElementHandle, transformElements, transformElement, type ElementQuery, type ElementPatch, type HostRequestOptions } from "../model/Element";
 import NativePluginAPI from "../module/NativePluginAPI";
 import type { APIResponse } from "../response/APIResponse";
 import { verifyElement } from "./utils/VerifyUtils";
-import { verifyParams, RectSchema, SizeSchema, LayerSchema, ElementSchema, ElementStrokeSchema } from "./utils/VerifyUtils";
+import { verifyParams, RectSchema, PointSchema, ElementQuerySchema, HostRequestOptionsSchema, SizeSchema, LayerSchema, ElementSchema, ElementStrokeSchema } from "./utils/VerifyUtils";
 import {Layer} from "../model/Layer";
+import { DeviceEventEmitter } from "react-native";
+
+// Event carrying one chunk of a getElementsStream stream
+const ELEMENTS_CHUNK_EVENT = "plugin_event_elements_chunk";
+let elementStreamSeq = 0;
 
 
 
@@ -16,18 +21,26 @@ export default class PluginFileAPI {
 
   /**
     * Gets page elements, including strokes, links, titles, and text boxes.
+    * Pages are cached natively while a pen-up listener is registered, and re-reads of an unchanged
+    * page skip the host export. The cache is invalidated by file changes, pen-up events and writes
+    * made through the plugin APIs.
+    * An optional query filters by type, layer and rect and limits the returned fields natively,
+    * so elements that are filtered out are never converted or sent over the bridge.
+    * The query may also carry the priority and cancel token of the host read, the default priority is normal.
     * @param {number} page Page index
     * @param {string} notePath Note file path
+    * @param {ElementQuery} query Optional filter and projection
     * @returns {Promise<APIResponse<Element[]>>} Page data. See {@link Element} for details.
     */
-  static async getElements(page: number, notePath: string): Promise<Object | null | undefined> {
+  static async getElements(page: number, notePath: string, query?: ElementQuery): Promise<Object | null | undefined> {
     try {
       verifyParams(
         {
           page: { type: 'number', required: true, integer: true, min: 0 },
           notePath: { type: 'string', required: true, nonEmpty: true },
+          query: { type: 'object', properties: ElementQuerySchema },
         },
-        { page, notePath },
+        { page, notePath, query },
         { allowUnknown: false, rootName: 'getElements' }
       );
     } catch (error) {
@@ -37,7 +50,7 @@ export default class PluginFileAPI {
         return { success: false, error: { code: 100, message: (error as Error).message } };
       }
     }
-    const response = await NativePluginAPI.getElements(page, notePath) as APIResponse<Object | null | undefined>;
+    const response = await NativePluginAPI.getElements(page, notePath, query ?? null) as APIResponse<Object | null | undefined>;
 
     if (response.success) {
 
@@ -50,6 +63,270 @@ export default class PluginFileAPI {
     return response;
   }
 
+  /**
+   * Gets the elements of several pages of a note in one call.
+   * Pages are fetched from the host and converted in parallel, with at most options.concurrency pages in flight.
+   * A failed page is reported in its own entry and does not fail the others.
+   * @param {string} notePath Note file path
+   * @param {number[]} pages Page indexes
+   * @param {Object} options Optional. concurrency: pages fetched at once, 1-8, default 4, capped at the
+   * host requests the priority class may run at once: 4 interactive, 3 normal, 1 background;
+   * priority and cancelToken of the host reads, see {@link HostRequestOptions}
+   * @returns {Promise<APIResponse<Array<{page: number, success: boolean, result?: Element[], error?: APIResponseError}>>>}
+   * Per-page results in the order of pages
+   */
+  static async getElementsForPages(notePath: string, pages: number[],
+    options?: { concurrency?: number } & HostRequestOptions): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          pages: { type: 'array', required: true, items: { type: 'number', integer: true, min: 0 } },
+          options: {
+            type: 'object',
+            properties: {
+              concurrency: { type: 'number', integer: true, min: 1, max: 8 },
+              ...HostRequestOptionsSchema,
+            },
+          },
+        },
+        { notePath, pages, options },
+        { allowUnknown: false, rootName: 'getElementsForPages' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = await NativePluginAPI.getElementsForPages(notePath, pages, options ?? null) as APIResponse<any[]>;
+    if (response.success) {
+      for (const pageResult of response.result ?? []) {
+        if (pageResult.success) {
+          transformElements(pageResult.result as any[]);
+        }
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Streams page elements in chunks while the native side reads them, so processing can start
+   * before the whole page is converted. Leaving the loop early cancels the stream.
+   * @example
+   * for await (const elements of PluginFileAPI.getElementsStream(page, notePath, 200)) {
+   *   render(elements);
+   * }
+   * @param {number} page Page index
+   * @param {string} notePath Note file path
+   * @param {number} chunkSize Elements per chunk
+   * @returns {AsyncGenerator<Element[]>} Element chunks in drawing order
+   * @throws {APIError} On invalid parameters or when the native read fails
+   */
+  static async *getElementsStream(page: number, notePath: string,
+    chunkSize: number = 100): AsyncGenerator<Element[], void, undefined> {
+    verifyParams(
+      {
+        page: { type: 'number', required: true, integer: true, min: 0 },
+        notePath: { type: 'string', required: true, nonEmpty: true },
+        chunkSize: { type: 'number', required: true, integer: true, min: 1 },
+      },
+      { page, notePath, chunkSize },
+      { allowUnknown: false, rootName: 'getElementsStream' }
+    );
+    const streamId = `elements-${Date.now()}-${++elementStreamSeq}`;
+    const chunks: Element[][] = [];
+    const state: {
+      received: number;
+      response: APIResponse<{ count: number; cancelled: boolean }> | null;
+      wake: (() => void) | null;
+    } = { received: 0, response: null, wake: null };
+    const subscription = DeviceEventEmitter.addListener(ELEMENTS_CHUNK_EVENT, (chunk) => {
+      if (chunk?.streamId !== streamId) {
+        return;
+      }
+      transformElements(chunk.elements);
+      state.received += chunk.elements.length;
+      chunks.push(chunk.elements);
+      state.wake?.();
+    });
+    NativePluginAPI.getElementsStream(page, notePath, streamId, chunkSize).then((response) => {
+      state.response = response as APIResponse<{ count: number; cancelled: boolean }>;
+      state.wake?.();
+    });
+    try {
+      while (true) {
+        if (chunks.length > 0) {
+          yield chunks.shift()!;
+          continue;
+        }
+        const response = state.response;
+        if (response) {
+          if (!response.success) {
+            throw new APIError(response.error?.code ?? 100, response.error?.message ?? 'getElementsStream failed');
+          }
+          // Chunks may still be in flight when the promise resolves
+          if (state.received >= (response.result?.count ?? 0)) {
+            return;
+          }
+        }
+        await new Promise<void>((resolve) => {
+          state.wake = resolve;
+        });
+        state.wake = null;
+      }
+    } finally {
+      subscription.remove();
+      if (!state.response) {
+        NativePluginAPI.cancelElementsStream(streamId);
+      }
+    }
+  }
+
+  /**
+   * Gets lightweight handles of page elements: uuid, type, pageNum, layerNum, numInPage and bbox.
+   * Element contents are not converted or transferred; call {@link ElementHandle.getElement} or
+   * {@link loadElements} for the elements that are actually needed.
+   * @param {number} page Page index
+   * @param {string} notePath Note file path
+   * @returns {Promise<APIResponse<ElementHandle[]>>} Element handles in drawing order
+   */
+  static async getElementHandles(page: number, notePath: string): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          notePath: { type: 'string', required: true, nonEmpty: true },
+        },
+        { page, notePath },
+        { allowUnknown: false, rootName: 'getElementHandles' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = await NativePluginAPI.getElementHandles(page, notePath) as APIResponse<Object | null | undefined>;
+    if (response.success) {
+      response.result = (response.result as any[]).map((handle) => new ElementHandle(handle));
+    }
+    return response;
+  }
+
+  /**
+   * Gets the elements of a page that changed since an earlier call.
+   * Elements are compared natively by uuid and content hash, so only added and modified elements
+   * are transferred. Pass the returned token to the next call; an unknown or omitted token lists
+   * the whole page as added and sets reset.
+   * The page is read as the host currently stores it, so edits not yet written are not reported.
+   * Uuids are assumed stable while the note stays open; if the host assigns new ones, e.g. after
+   * a reload, the affected elements come back as removed and added rather than modified.
+   * @param {string} notePath Note file path
+   * @param {number} page Page index
+   * @param {string} token Token returned by the previous call
+   * @returns {Promise<APIResponse<Object>>} {token, reset, added: Element[], modified: Element[], removed: string[]}
+   */
+  static async getElementChangesSince(notePath: string, page: number, token?: string): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          token: { type: 'string', nonEmpty: true },
+        },
+        { notePath, page, token },
+        { allowUnknown: false, rootName: 'getElementChangesSince' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = await NativePluginAPI.getElementChangesSince(notePath, page, token ?? null) as APIResponse<any>;
+    if (response.success) {
+      transformElements(response.result.added as any[]);
+      transformElements(response.result.modified as any[]);
+    }
+    return response;
+  }
+
+  /**
+   * Gets the page elements whose bounds intersect a rect.
+   * Element bounds are kept in a spatial index that is built on the first query of a page
+   * and cached with the page, see {@link getElements}.
+   * @param {string} notePath Note file path
+   * @param {number} page Page index
+   * @param {Object} rect Rect in page pixel coordinates: left/top/right/bottom
+   * @returns {Promise<APIResponse<Element[]>>} Matching elements in drawing order
+   */
+  static async queryElementsInRect(notePath: string, page: number,
+    rect: { left: number, top: number, right: number, bottom: number }): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          rect: { type: 'object', required: true, properties: RectSchema },
+        },
+        { notePath, page, rect },
+        { allowUnknown: false, rootName: 'queryElementsInRect' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = await NativePluginAPI.queryElementsInRect(notePath, page, rect) as APIResponse<Object | null | undefined>;
+    if (response.success) {
+      transformElements(response.result as any[]);
+    }
+    return response;
+  }
+
+  /**
+   * Gets the page elements within a radius of a point.
+   * Strokes are measured against their sample points, other elements against their bounds.
+   * Uses the same page spatial index as {@link queryElementsInRect}.
+   * @param {string} notePath Note file path
+   * @param {number} page Page index
+   * @param {Object} point Point in page pixel coordinates: x/y
+   * @param {number} radius Hit radius in pixels
+   * @returns {Promise<APIResponse<Element[]>>} Hit elements, nearest first
+   */
+  static async hitTest(notePath: string, page: number, point: { x: number, y: number },
+    radius: number): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          point: { type: 'object', required: true, properties: PointSchema },
+          radius: { type: 'number', required: true, min: 0 },
+        },
+        { notePath, page, point, radius },
+        { allowUnknown: false, rootName: 'hitTest' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    const response = await NativePluginAPI.hitTest(notePath, page, point, radius) as APIResponse<Object | null | undefined>;
+    if (response.success) {
+      transformElements(response.result as any[]);
+    }
+    return response;
+  }
+
   /**
    * Replaces all elements on a page.
    * @param {string} notePath Note file path
@@ -182,6 +459,154 @@ export default class PluginFileAPI {
     return await NativePluginAPI.modifyElements(notePath, page, elements) as APIResponse<boolean>;
   }
 
+  /**
+   * Updates elements with only their changed fields.
+   * Unlike {@link modifyElements}, no full element is sent: each patch is expanded natively to a
+   * partial element with the element's identity fields, and fields that are not set keep their values.
+   * Patches that carry the element's uuid (and type) are applied without reading the page.
+   * Nested paths are only supported under stroke; set textBox, geometry, link or title whole.
+   * Queued {@link modifyElements} calls are flushed first.
+   * @param {string} notePath Note file path
+   * @param {number} page Page index
+   * @param {ElementPatch[]} patches Changes by numInPage, e.g. [{ numInPage: 3, set: { 'stroke.penColor': 0x9D } }]
+   * @returns {Promise<APIResponse<number[]>>} numInPage of the modified elements
+   */
+  static async patchElements(notePath: string, page: number, patches: ElementPatch[]): Promise<Object | null | undefined> {
+
+    try {
+      verifyParams(
+        {
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          patches: {
+            type: 'array', required: true, items: {
+              type: 'object', properties: {
+                numInPage: { type: 'number', required: true, integer: true, min: 0 },
+                uuid: { type: 'string', nonEmpty: true },
+                type: { type: 'number', integer: true },
+                set: { type: 'object', required: true },
+              }
+            }
+          },
+        },
+        { notePath, page, patches },
+        { allowUnknown: true, rootName: 'patchElements' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return {
+          success: false,
+          error: {
+            code: error.code,
+            message: error.message
+          }
+        };
+      } else {
+        return {
+          success: false,
+          error: {
+            code: 100,
+            message: (error as Error).message
+          }
+        };
+      }
+    }
+    return await NativePluginAPI.patchElements(notePath, page, patches) as APIResponse<number[]>;
+  }
+
+  /**
+   * Turns the write-behind queue of {@link modifyElements} on or off.
+   * While on, modifications of the same element (notePath, page, numInPage) within the window are
+   * merged natively and only the latest state is written; each call's promise resolves once the write
+   * carrying its elements completes, with the numInPage values of its own elements. Queued writes are not visible to reads until they are flushed,
+   * which happens after the window, on {@link flushElementWrites}, before other writes and when the plugin stops.
+   * @param {number} windowMs Coalescing window in ms, 0 turns the queue off and flushes it
+   */
+  static setElementWriteCoalescing(windowMs: number): void {
+    verifyParams(
+      { windowMs: { type: 'number', required: true, min: 0 } },
+      { windowMs },
+      { allowUnknown: false, rootName: 'setElementWriteCoalescing' }
+    );
+    NativePluginAPI.setElementWriteCoalescing(windowMs);
+  }
+
+  /**
+   * Writes all queued {@link modifyElements} calls now.
+   */
+  static flushElementWrites(): void {
+    NativePluginAPI.flushElementWrites();
+  }
+
+  /**
+   * Starts an element transaction. Writes staged with {@link stageElementWrite} are buffered
+   * natively and only sent to the host by {@link commitElementTransaction}.
+   * Transactions are best-effort, not atomic: see {@link commitElementTransaction}.
+   * A transaction nothing was staged to for 10 minutes is discarded and its id becomes invalid.
+   * @returns {Promise<APIResponse<string>>} Transaction id
+   */
+  static async beginElementTransaction(): Promise<APIResponse<string>> {
+    return await NativePluginAPI.beginElementTransaction() as APIResponse<string>;
+  }
+
+  /**
+   * Buffers a page write in an element transaction. Writes may target any page of any note.
+   * @param {string} transactionId Id from {@link beginElementTransaction}
+   * @param {string} op 'insert', 'modify' or 'replace' with elements; 'delete' with numInPage values
+   * @param {string} notePath Note file path
+   * @param {number} page Page index
+   * @param {Element[] | number[]} elements Elements, or numInPage values of the elements to delete
+   * @returns {Promise<APIResponse<boolean>>} Whether the write was staged
+   */
+  static async stageElementWrite(transactionId: string, op: 'insert' | 'modify' | 'replace' | 'delete',
+    notePath: string, page: number, elements: Object[] | number[]): Promise<Object | null | undefined> {
+    try {
+      verifyParams(
+        {
+          transactionId: { type: 'string', required: true, nonEmpty: true },
+          op: { type: 'string', required: true, enum: ['insert', 'modify', 'replace', 'delete'] },
+          notePath: { type: 'string', required: true, nonEmpty: true },
+          page: { type: 'number', required: true, integer: true, min: 0 },
+          elements: op === 'delete'
+            ? { type: 'array', required: true, items: { type: 'number', integer: true, min: 0 } }
+            : { type: 'array', required: true, items: ElementSchema },
+        },
+        { transactionId, op, notePath, page, elements },
+        { allowUnknown: true, rootName: 'stageElementWrite' }
+      );
+    } catch (error) {
+      if (APIError.isAPIError(error)) {
+        return { success: false, error: { code: error.code, message: error.message } };
+      } else {
+        return { success: false, error: { code: 100, message: (error as Error).message } };
+      }
+    }
+    return await NativePluginAPI.stageElementWrite(transactionId, op, notePath, page, elements as Object[]);
+  }
+
+  /**
+   * Applies the staged writes of a transaction in order, best-effort rather than atomically.
+   * Every touched page is snapshotted first, and if a write fails the pages already written are
+   * restored from their snapshots.
+   * Each write is a separate host call and other writers are not blocked while the commit runs:
+   * they may see a partly applied transaction, and a rollback also reverts their writes to the
+   * restored pages.
+   * @param {string} transactionId Id from {@link beginElementTransaction}
+   * @returns {Promise<APIResponse<boolean>>} Commit result, with the error of the failed write on failure;
+   * error code 1410 if some written pages could not be restored, its message lists them
+   */
+  static async commitElementTransaction(transactionId: string): Promise<Object | null | undefined> {
+    return await NativePluginAPI.commitElementTransaction(transactionId);
+  }
+
+  /**
+   * Discards a transaction without writing anything.
+   * @param {string} transactionId Id from {@link beginElementTransaction}
+   */
+  static rollbackElementTransaction(transactionId: string): void {
+    NativePluginAPI.rollbackElementTransaction(transactionId);
+  }
+
   /**
       * Gets title data.
       * @param {string} notePath Note file path
@@ -426,6 +851,8 @@ export default class PluginFileAPI {
  * @param {number} params.times Scale factor: 1 or 2
  * @param {string} params.pngPath Output PNG path
  * @param {number} params.type Output type: 0=transparent background, 1=white background
+ * @param {string} params.priority Optional scheduling priority, background by default
+ * @param {string} params.cancelToken Optional token for {@link PluginCommAPI.cancelHostRequests}
  * @returns {Promise<APIResponse<boolean>>} Returns:
  * {
  *  success: boolean  // Whether the API call succeeded
@@ -437,7 +864,7 @@ export default class PluginFileAPI {
  * }
  */
   static async generateNotePng(params:{notePath: string, page: number, times: number,
-    pngPath: string, type: number}): Promise<Object | null | undefined> {
+    pngPath: string, type: number} & HostRequestOptions): Promise<Object | null | undefined> {
     try {
       verifyParams(
         {
@@ -446,6 +873,7 @@ export default class PluginFileAPI {
           times: { type: 'number', required: true, integer: true},
           pngPath: { type: 'string', required: true, nonEmpty: true, pattern: /\.png$/i },
           type: { type: 'number', required: true, integer: true },
+          ...HostRequestOptionsSchema,
         },
         params,
         { allowUnknown: false, rootName: 'generateNotePng' }
@@ -266,6 +266,23 @@ export const RectSchema: ParamSchema = {
   bottom: { type: 'number', required: true, integer: true },
 };
 
+/**
+ * Element query schema.
+ * - Validates {types?, layers?, rect?, fields?}
+ */
+export const HostRequestOptionsSchema: ParamSchema = {
+  priority: { type: 'string', enum: ['interactive', 'normal', 'background'] },
+  cancelToken: { type: 'string', nonEmpty: true },
+};
+
+export const ElementQuerySchema: ParamSchema = {
+  ...HostRequestOptionsSchema,
+  types: { type: 'array', items: { type: 'number', integer: true } },
+  layers: { type: 'array', items: { type: 'number', integer: true, min: 0, max: 3 } },
+  rect: { type: 'object', properties: RectSchema },
+  fields: { type: 'array', items: { type: 'string', nonEmpty: true } },
+};
+
 /**
  * Built-in Size schema.
  * - Validates {width, height}
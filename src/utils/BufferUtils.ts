@@ -0,0 +1,46 @@
+/**
+ * Utilities for decoding binary point data sent from the native side.
+ */
+
+const BASE64_CHARS =
+  'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+
+// Lookup table from base64 char code to its 6-bit value
+const BASE64_LOOKUP = (() => {
+  const lookup = new Uint8Array(128);
+  for (let i = 0; i < BASE64_CHARS.length; i++) {
+    lookup[BASE64_CHARS.charCodeAt(i)] = i;
+  }
+  return lookup;
+})();
+
+/**
+ * Decodes a base64 string into a new ArrayBuffer.
+ * @param base64 Base64 string without line breaks.
+ */
+export const base64ToArrayBuffer = (base64: string): ArrayBuffer => {
+  let length = base64.length;
+  let padding = 0;
+  if (length > 0 && base64[length - 1] === '=') {
+    padding++;
+    if (length > 1 && base64[length - 2] === '=') {
+      padding++;
+    }
+  }
+  const bytes = new Uint8Array((length * 3) / 4 - padding);
+  let p = 0;
+  for (let i = 0; i < length; i += 4) {
+    const a = BASE64_LOOKUP[base64.charCodeAt(i)]!;
+    const b = BASE64_LOOKUP[base64.charCodeAt(i + 1)]!;
+    const c = BASE64_LOOKUP[base64.charCodeAt(i + 2)]!;
+    const d = BASE64_LOOKUP[base64.charCodeAt(i + 3)]!;
+    bytes[p++] = (a << 2) | (b >> 4);
+    if (p < bytes.length) {
+      bytes[p++] = ((b & 15) << 4) | (c >> 2);
+    }
+    if (p < bytes.length) {
+      bytes[p++] = ((c & 3) << 6) | d;
+    }
+  }
+  return bytes.buffer;
+};